@@ -0,0 +1,47 @@
+package software.crud;
+
+/**
+ * Raised when an AI backend fails to produce a completion. Carries enough detail for
+ * the caller to decide whether the request is worth retrying.
+ */
+public class AIServiceException extends RuntimeException {
+    private final String provider;
+    private final int statusCode;
+    private final boolean retryable;
+    private final long retryAfterMillis;
+
+    public AIServiceException(String provider, String message, int statusCode, boolean retryable,
+            long retryAfterMillis, Throwable cause) {
+        super(message, cause);
+        this.provider = provider;
+        this.statusCode = statusCode;
+        this.retryable = retryable;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public AIServiceException(String provider, String message) {
+        this(provider, message, -1, false, -1, null);
+    }
+
+    public String getProvider() {
+        return provider;
+    }
+
+    /**
+     * @return the HTTP status code, or -1 if the request never got a response
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public boolean isRetryable() {
+        return retryable;
+    }
+
+    /**
+     * @return the delay requested by the server via {@code Retry-After}, or -1 if none
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
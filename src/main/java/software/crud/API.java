@@ -1,33 +1,175 @@
 package software.crud;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import okhttp3.*;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.GzipSink;
+import okio.Okio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.yaml.snakeyaml.Yaml;
 
 public class API {
-    private final ObjectMapper objectMapper;
+    private static final Logger logger = LoggerFactory.getLogger(API.class);
+    private static final Set<Integer> RETRYABLE_STATUS_CODES = Set.of(408, 409, 429, 500, 502, 503, 504, 529);
+    private static volatile API shared;
+    private static volatile String settingsFile = "settings.yaml";
+
     private Map<String, Object> settings;
+    private final Map<String, AIGeneratorInterface> providers = new ConcurrentHashMap<>();
+    private final ResponseCache responseCache;
+    private final Map<String, RateLimiter> rateLimiters = new ConcurrentHashMap<>();
+    private final FairCallLimiter callLimiter;
+    private final Map<String, TokenEstimator> tokenEstimators = new ConcurrentHashMap<>();
+    private final Map<String, OkHttpClient> httpClients = new ConcurrentHashMap<>();
+    private final PromptCacheStats promptCacheStats = new PromptCacheStats();
+    private BackendRouter router;
+    private boolean prefillSupported;
 
     public API() {
-        this.objectMapper = new ObjectMapper();
         this.settings = loadSettings();
+        this.callLimiter = new FairCallLimiter(getIntProperty("llm_max_concurrent_calls", 0));
+        registerProviders();
+        this.responseCache = new ResponseCache(
+                Paths.get(getProperty("response_cache_dir", ResponseCache.defaultDirectory().toString())),
+                getIntProperty("response_cache_max_mb", 512) * 1024L * 1024L,
+                getBooleanProperty("response_cache_enabled", true));
+    }
+
+    /**
+     * Reads the settings from {@code path} instead of {@code settings.yaml} in the
+     * working directory. Only instances created afterwards, including the shared one,
+     * see the change.
+     */
+    public static void useSettingsFile(String path) {
+        settingsFile = path;
+    }
+
+    /**
+     * Returns the process-wide instance so every conversation reuses the same
+     * providers and, with them, the same HTTP connection pools.
+     */
+    public static API shared() {
+        API instance = shared;
+        if (instance == null) {
+            synchronized (API.class) {
+                instance = shared;
+                if (instance == null) {
+                    instance = new API();
+                    shared = instance;
+                }
+            }
+        }
+        return instance;
+    }
+
+    private void registerProviders() {
+        for (String provider : List.of("openai", "custom", "claude")) {
+            httpClients.put(provider, buildHttpClient(provider));
+        }
+        providers.put("openai", new OpenAIService(httpClients.get("openai")));
+        providers.put("custom", new CustomTextGenerationService(httpClients.get("custom")));
+        providers.put("claude", new ClaudeAIService(httpClients.get("claude")));
+        for (Map.Entry<String, AIGeneratorInterface> provider : providers.entrySet()) {
+            String name = provider.getKey();
+            rateLimiters.put(name, new RateLimiter(getIntProperty(name + "_requests_per_minute", 0),
+                    getIntProperty(name + "_tokens_per_minute", 0)));
+            tokenEstimators.put(name, TokenEstimator.forModel(name, provider.getValue().getModel(),
+                    getIntProperty(name + "_context_window", 0), getIntProperty(name + "_max_output_tokens", 0)));
+        }
+        if ("router".equals(getActiveService())) {
+            router = buildRouter();
+        } else {
+            AIGeneratorInterface active = providers.get(getActiveService());
+            prefillSupported = active != null && active.supportsPrefill();
+        }
+    }
+
+    /**
+     * Builds the router for {@code ai_service: router} from {@code router_backends}
+     * (a list or comma-separated names, in failover order) and {@code <backend>_weight}.
+     */
+    private BackendRouter buildRouter() {
+        Object configured = settings.getOrDefault("router_backends", "openai");
+        List<?> names = configured instanceof List ? (List<?>) configured
+                : Arrays.asList(configured.toString().split(","));
+        Map<String, Double> weights = new LinkedHashMap<>();
+        for (Object entry : names) {
+            String name = entry.toString().trim();
+            if (!providers.containsKey(name)) {
+                throw new IllegalArgumentException("Invalid backend in router_backends: " + name);
+            }
+            weights.put(name, getDoubleProperty(name + "_weight", 1.0));
+        }
+        // Any backend may serve a request, so all of them have to continue a prefill
+        prefillSupported = weights.keySet().stream().allMatch(name -> providers.get(name).supportsPrefill());
+        return new BackendRouter(weights, getIntProperty("router_hedge_after_ms", 0),
+                getIntProperty("router_window_seconds", 300), getIntProperty("router_min_samples", 5),
+                getDoubleProperty("router_max_error_rate", 0.5), getIntProperty("router_max_p95_ms", 0));
+    }
+
+    /**
+     * Builds the long-lived client for one backend. Every value can be set globally
+     * (e.g. {@code http_read_timeout_seconds}) or per backend by prefixing the key
+     * with the service name (e.g. {@code claude_http_read_timeout_seconds}).
+     */
+    private OkHttpClient buildHttpClient(String backend) {
+        int maxIdleConnections = getHttpInt(backend, "http_max_idle_connections", 16);
+        int keepAliveSeconds = getHttpInt(backend, "http_keep_alive_seconds", 300);
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(getHttpInt(backend, "http_max_requests", 64));
+        dispatcher.setMaxRequestsPerHost(getHttpInt(backend, "http_max_requests_per_host", 32));
+
+        List<Protocol> protocols = getHttpBoolean(backend, "http2_enabled", true)
+                ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                : List.of(Protocol.HTTP_1_1);
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveSeconds, TimeUnit.SECONDS))
+                .dispatcher(dispatcher)
+                .protocols(protocols)
+                .retryOnConnectionFailure(true)
+                .connectTimeout(getHttpInt(backend, "http_connect_timeout_seconds", 30), TimeUnit.SECONDS)
+                .writeTimeout(getHttpInt(backend, "http_write_timeout_seconds", 120), TimeUnit.SECONDS)
+                .readTimeout(getHttpInt(backend, "http_read_timeout_seconds", 500), TimeUnit.SECONDS)
+                .callTimeout(getHttpInt(backend, "http_call_timeout_seconds", 0), TimeUnit.SECONDS);
+
+        if (getHttpBoolean(backend, "http_gzip_requests", false)) {
+            builder.addInterceptor(new GzipRequestInterceptor());
+        }
+        return builder.build();
+    }
+
+    private int getHttpInt(String backend, String key, int defaultValue) {
+        return getIntProperty(backend + "_" + key, getIntProperty(key, defaultValue));
+    }
+
+    private boolean getHttpBoolean(String backend, String key, boolean defaultValue) {
+        return getBooleanProperty(backend + "_" + key, getBooleanProperty(key, defaultValue));
     }
 
     private Map<String, Object> loadSettings() {
         Yaml yaml = new Yaml();
-        try (InputStream input = new FileInputStream("settings.yaml")) {
+        try (InputStream input = new FileInputStream(settingsFile)) {
             return yaml.load(input);
         } catch (IOException e) {
             e.printStackTrace();
@@ -39,38 +181,362 @@ public class API {
         return settings.containsKey(key) ? settings.get(key).toString() : defaultValue;
     }
 
+    public int getIntProperty(String key, int defaultValue) {
+        Object value = settings.get(key);
+        if (value instanceof Number) {
+            return ((Number) value).intValue();
+        }
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.toString().trim());
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+        return defaultValue;
+    }
+
+    public double getDoubleProperty(String key, double defaultValue) {
+        Object value = settings.get(key);
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value != null) {
+            try {
+                return Double.parseDouble(value.toString().trim());
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+        return defaultValue;
+    }
+
+    public boolean getBooleanProperty(String key, boolean defaultValue) {
+        Object value = settings.get(key);
+        return value != null ? Boolean.parseBoolean(value.toString().trim()) : defaultValue;
+    }
+
     public String generateText(String text, List<Message> history, int maxTokens) {
-        String service = getProperty("ai_service", "openai");
-        AIGeneratorInterface generator;
-        switch (service) {
-            case "openai":
-                generator = new OpenAIService();
-                break;
-            case "custom":
-                generator = new CustomTextGenerationService();
-                break;
+        return generateText(text, history, maxTokens, null);
+    }
+
+    /**
+     * Generates a completion, streaming it through {@code listener} as it arrives when
+     * {@code stream_responses} is enabled. The returned text is whatever was received
+     * before the stream finished or the listener asked to stop.
+     */
+    public String generateText(String text, List<Message> history, int maxTokens, StreamListener listener) {
+        return generateText(new Message("user", text), history, maxTokens, listener);
+    }
+
+    /**
+     * Generates a completion for {@code prompt}, whose cacheable prefix (see
+     * {@link Message#Message(String, String, int)}) is marked for the provider's prompt cache.
+     */
+    public String generateText(Message prompt, List<Message> history, int maxTokens, StreamListener listener) {
+        return complete(prompt, history, maxTokens, listener).text();
+    }
+
+    /**
+     * Like {@link #generateText(Message, List, int, StreamListener)}, but also returns why
+     * the model stopped. An {@code assistant} {@code prompt} is a prefill: the model
+     * continues that text, and the completion holds only what it added.
+     *
+     * @throws IllegalArgumentException for a prefill when {@link #supportsPrefill()} is false
+     */
+    public ProviderJson.Completion complete(Message prompt, List<Message> history, int maxTokens,
+            StreamListener listener) {
+        return complete(prompt, history, maxTokens, listener, true);
+    }
+
+    /**
+     * Like {@link #complete(Message, List, int, StreamListener)}; with {@code useCache} false
+     * the response cache is neither read nor written, e.g. for a request that has to reach
+     * the provider, like a connection test.
+     */
+    public ProviderJson.Completion complete(Message prompt, List<Message> history, int maxTokens,
+            StreamListener listener, boolean useCache) {
+        if ("assistant".equals(prompt.getRole()) && !prefillSupported) {
+            throw new IllegalArgumentException(getActiveService() + " cannot continue an assistant prefill");
+        }
+        StreamListener activeListener = getBooleanProperty("stream_responses", true) ? listener : null;
+        if (router != null) {
+            // Fail over quickly instead of spending the full retry budget on a struggling backend
+            int retries = getIntProperty("router_max_retries", 1);
+            return router.route((backend, backendListener) -> generateWith(backend, prompt, history, maxTokens,
+                    backendListener, retries, useCache), activeListener);
+        }
+        return generateWith(getActiveService(), prompt, history, maxTokens, activeListener,
+                getIntProperty("max_retries", 5), useCache);
+    }
+
+    /**
+     * @return whether requests may end with an {@code assistant} message for the model to
+     *         continue
+     */
+    public boolean supportsPrefill() {
+        return prefillSupported;
+    }
+
+    private ProviderJson.Completion generateWith(String service, Message prompt, List<Message> history, int maxTokens,
+            StreamListener activeListener, int maxRetries, boolean useCache) {
+        AIGeneratorInterface generator = providers.get(service);
+        if (generator == null) {
+            throw new IllegalArgumentException("Invalid AI service specified in settings: " + service);
+        }
+        TokenEstimator estimator = tokenEstimators.get(service);
+        int promptTokens = estimator.estimate(prompt.getContent()) + estimator.estimate(history);
+        int availableTokens = estimator.availableOutputTokens(promptTokens);
+        if (availableTokens < 1) {
+            throw new AIServiceException(service, "Prompt of about " + promptTokens + " tokens does not fit in the "
+                    + estimator.getContextWindow() + "-token context window");
+        }
+        maxTokens = Math.min(maxTokens, availableTokens);
+
+        String cacheKey = null;
+        if (useCache && responseCache.isEnabled()) {
+            cacheKey = responseCache.key(service, generator.getModel(), maxTokens, history, prompt.getContent());
+            String cached = responseCache.get(cacheKey);
+            if (cached != null) {
+                if (activeListener != null && !cached.isEmpty()) {
+                    activeListener.onToken(cached, cached);
+                }
+                // The finish reason is not cached
+                return new ProviderJson.Completion(cached, null, null);
+            }
+        }
+
+        boolean[] stoppedByListener = new boolean[1];
+        StreamListener listener = activeListener == null ? null : (token, textSoFar) -> {
+            boolean more = activeListener.onToken(token, textSoFar);
+            stoppedByListener[0] = !more;
+            return more;
+        };
+        ProviderJson.Completion response = generateWithRetries(service, generator, promptTokens, prompt, history,
+                maxTokens, listener, maxRetries);
+        // A stream that closed before its finish reason, without the listener stopping it, is partial
+        boolean partial = listener != null && response.finishReason() == null && !stoppedByListener[0];
+        if (cacheKey != null && !response.text().isBlank() && !partial) {
+            responseCache.put(cacheKey, response.text());
+        }
+        return response;
+    }
+
+    /**
+     * Waits for the provider's rate limiter and a free call slot, then calls it, retrying retryable failures
+     * with jittered exponential backoff or the delay the server asked for. A stream that fails after
+     * delivering tokens is not retried, since the listener would see the response again from the start.
+     *
+     * @throws AIServiceException once the failure is not retryable, retries run out, or the listener
+     *                            already received part of the response
+     */
+    private ProviderJson.Completion generateWithRetries(String service, AIGeneratorInterface generator, int promptTokens,
+            Message prompt, List<Message> history, int maxTokens, StreamListener listener, int maxRetries) {
+        RateLimiter rateLimiter = rateLimiters.get(service);
+        int estimatedTokens = promptTokens + maxTokens;
+        boolean[] delivered = new boolean[1];
+        StreamListener trackingListener = listener == null ? null : (token, textSoFar) -> {
+            delivered[0] = true;
+            return listener.onToken(token, textSoFar);
+        };
+        for (int attempt = 0;; attempt++) {
+            try {
+                rateLimiter.acquire(estimatedTokens);
+                callLimiter.acquire();
+                try {
+                    return generator.generateText(prompt, history, maxTokens, trackingListener);
+                } finally {
+                    callLimiter.release();
+                }
+            } catch (AIServiceException e) {
+                if (delivered[0]) {
+                    throw new AIServiceException(service, "Stream failed after part of the response was delivered: "
+                            + e.getMessage(), e.getStatusCode(), e.isRetryable(), e.getRetryAfterMillis(), e);
+                }
+                if (!e.isRetryable() || attempt >= maxRetries) {
+                    throw e;
+                }
+                long delay = backoffDelay(attempt, e.getRetryAfterMillis());
+                if (e.getStatusCode() == 429) {
+                    rateLimiter.pause(delay);
+                }
+                logger.warn("{} request failed ({}), retry {}/{} in {} ms", service, e.getMessage(), attempt + 1,
+                        maxRetries, delay);
+                try {
+                    TimeUnit.MILLISECONDS.sleep(delay);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AIServiceException(service, "Interrupted while waiting to send the request");
+            }
+        }
+    }
+
+    private long backoffDelay(int attempt, long retryAfterMillis) {
+        long baseDelay = getIntProperty("retry_base_delay_ms", 1000);
+        long maxDelay = getIntProperty("retry_max_delay_ms", 60000);
+        long ceiling = Math.min(maxDelay, baseDelay << Math.min(attempt, 20));
+        // Equal jitter: at least half the exponential delay, so retries still spread out
+        long delay = ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+        return retryAfterMillis > 0 ? Math.max(retryAfterMillis, delay) : delay;
+    }
+
+    /**
+     * Feeds the rate-limit headers back to the limiter and turns an unsuccessful HTTP
+     * response into a typed failure.
+     */
+    private void checkResponse(String provider, Response response) throws IOException {
+        rateLimiters.get(provider).update(response.headers());
+        if (response.isSuccessful()) {
+            return;
+        }
+        int code = response.code();
+        String detail = response.body() != null ? response.body().string() : "";
+        if (detail.length() > 500) {
+            detail = detail.substring(0, 500) + "...";
+        }
+        throw new AIServiceException(provider, "HTTP " + code + ": " + detail, code,
+                RETRYABLE_STATUS_CODES.contains(code), RateLimiter.parseRetryAfter(response.headers()), null);
+    }
+
+    private AIServiceException transportFailure(String provider, IOException e) {
+        return new AIServiceException(provider, "Request failed: " + e.getMessage(), -1, true, -1, e);
+    }
+
+    public String getActiveService() {
+        return getProperty("ai_service", "openai");
+    }
+
+    /**
+     * @return the services and models that may answer requests, so output produced by a
+     *         different model can be told apart
+     */
+    public String getModelFingerprint() {
+        List<String> services = router != null ? router.getBackends() : List.of(getActiveService());
+        StringBuilder fingerprint = new StringBuilder();
+        for (String service : services) {
+            AIGeneratorInterface generator = providers.get(service);
+            fingerprint.append(service).append('=').append(generator != null ? generator.getModel() : "").append(';');
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * @return the token estimator for the configured {@code ai_service}; when routing,
+     *         the one with the smallest context window, since any backend may be chosen
+     */
+    public TokenEstimator getTokenEstimator() {
+        if (router != null) {
+            return router.getBackends().stream().map(tokenEstimators::get)
+                    .min(Comparator.comparingInt(TokenEstimator::getContextWindow)).orElseThrow();
+        }
+        TokenEstimator estimator = tokenEstimators.get(getActiveService());
+        if (estimator == null) {
+            throw new IllegalArgumentException("Invalid AI service specified in settings: " + getActiveService());
+        }
+        return estimator;
+    }
+
+    /**
+     * Returns the batch client for {@code batch_provider} (defaulting to the active
+     * service). Custom servers have no batch endpoint, so they, and {@code local},
+     * use the file-based stand-in under {@code batch_local_dir}.
+     */
+    public BatchClient getBatchClient() {
+        String service = router != null ? router.getBackends().get(0) : getActiveService();
+        String provider = getProperty("batch_provider", service);
+        switch (provider) {
+            case "openai": {
+                String chatUrl = getProperty("openai_api_url", "https://api.openai.com/v1/chat/completions");
+                String apiBase = getProperty("openai_api_base", chatUrl.replaceFirst("/chat/completions/?$", ""));
+                return new BatchClients.OpenAIBatchClient(httpClients.get("openai"), apiBase,
+                        getProperty("openai_api_key", ""), providers.get("openai").getModel());
+            }
             case "claude":
-                generator = new ClaudeAIService();
-                break;
+                return new BatchClients.ClaudeBatchClient(httpClients.get("claude"),
+                        getProperty("claude_api_url", "https://api.anthropic.com/v1/messages"),
+                        getProperty("claude_api_key", ""), getProperty("claude_api_version", "2023-06-01"),
+                        providers.get("claude").getModel());
             default:
-                throw new IllegalArgumentException("Invalid AI service specified in settings: " + service);
+                return new BatchClients.LocalBatchClient(Paths.get(getProperty("batch_local_dir", "batches")), this,
+                        providers.get(service).getModel(), getBooleanProperty("batch_local_execute", true));
         }
-        return generator.generateText(text, history, maxTokens);
+    }
+
+    public String describeResponseCache() {
+        return responseCache.describe();
+    }
+
+    /**
+     * @return how much of the prompt input the providers reported serving from their caches
+     */
+    public String describePromptCache() {
+        return promptCacheStats.describe();
+    }
+
+    /**
+     * @return the router's latency and error statistics, or {@code null} when not routing
+     */
+    public String describeRouter() {
+        return router != null ? router.describe() : null;
     }
 
     private interface AIGeneratorInterface {
-        String generateText(String text, List<Message> history, int maxTokens);
+        /**
+         * @return the completion, whose text is never {@code null}
+         */
+        ProviderJson.Completion generateText(Message prompt, List<Message> history, int maxTokens,
+                StreamListener listener);
+
+        String getModel();
+
+        /**
+         * @return whether a trailing {@code assistant} message is continued rather than
+         *         answered
+         */
+        default boolean supportsPrefill() {
+            return false;
+        }
+    }
+
+    /**
+     * Receives completion text incrementally while a streamed response is read. Returning
+     * {@code false} means the caller already has everything it needs, so the truncated
+     * text is still treated as a complete (and cacheable) answer; to abandon a request,
+     * throw instead.
+     */
+    public interface StreamListener {
+        /**
+         * @param token       the newly received fragment
+         * @param textSoFar   everything received so far, including {@code token}; only valid
+         *                    for the duration of the call
+         * @return {@code false} to stop reading and close the stream early
+         */
+        boolean onToken(String token, CharSequence textSoFar);
     }
 
     static class Message {
         private String role;
         private String content;
+        private int cachedPrefixLength;
 
         public Message(String role, String content) {
             this.role = role;
             this.content = content;
         }
 
+        /**
+         * @param cachedPrefixLength length of the leading part of {@code content} that is
+         *                           shared with other requests and worth caching
+         */
+        public Message(String role, String content, int cachedPrefixLength) {
+            this(role, content);
+            this.cachedPrefixLength = cachedPrefixLength;
+        }
+
         public String getRole() {
             return role;
         }
@@ -78,6 +544,11 @@ public class API {
         public String getContent() {
             return content;
         }
+
+        @JsonIgnore
+        public int getCachedPrefixLength() {
+            return cachedPrefixLength;
+        }
     }
 
     private class OpenAIService implements AIGeneratorInterface {
@@ -86,140 +557,103 @@ public class API {
         private final String apiUrl;
         private final String model;
 
-        public OpenAIService() {
-            this.httpClient = new OkHttpClient.Builder()
-                    .readTimeout(500, TimeUnit.SECONDS)
-                    .writeTimeout(500, TimeUnit.SECONDS)
-                    .connectTimeout(500, TimeUnit.SECONDS)
-                    .build();
+        public OpenAIService(OkHttpClient httpClient) {
+            this.httpClient = httpClient;
             this.apiKey = getProperty("openai_api_key", "");
             this.apiUrl = getProperty("openai_api_url", "https://api.openai.com/v1/chat/completions");
             this.model = getProperty("openai_model", "gpt-4-turbo");
         }
 
         @Override
-        public String generateText(String text, List<Message> history, int maxTokens) {
-            List<Map<String, String>> formattedHistory = new ArrayList<>();
-            for (Message message : history) {
-                formattedHistory.add(new HashMap<>() {
-                    {
-                        put("role", message.getRole());
-                        put("content", message.getContent());
-                    }
-                });
-            }
-            formattedHistory.add(new HashMap<>() {
-                {
-                    put("role", "user");
-                    put("content", text);
-                }
-            });
-
-            Map<String, Object> requestBody = new HashMap<>() {
-                {
-                    put("model", model);
-                    put("messages", formattedHistory);
-                    put("max_tokens", maxTokens);
-                    put("temperature", 0.7);
-                }
-            };
+        public String getModel() {
+            return model;
+        }
 
-            try {
-                String jsonBody = objectMapper.writeValueAsString(requestBody);
-                RequestBody body = RequestBody.create(jsonBody, MediaType.parse("application/json"));
-                Request request = new Request.Builder()
-                        .url(apiUrl)
-                        .addHeader("Authorization", "Bearer " + apiKey)
-                        .post(body)
-                        .build();
-
-                try (Response response = httpClient.newCall(request).execute()) {
-                    String responseBody = response.body().string();
-                    Map<String, Object> responseMap = objectMapper.readValue(responseBody,
-                            new TypeReference<Map<String, Object>>() {
-                            });
-                    List<?> rawChoices = (List<?>) responseMap.get("choices");
-                    List<Map<String, Object>> choices = safelyCastListOfMaps(rawChoices);
-
-                    for (Map<String, Object> choice : choices) {
-                        Map<String, String> message = objectMapper.convertValue(choice.get("message"),
-                                new TypeReference<Map<String, String>>() {
-                                });
-                        if (message != null && "assistant".equals(message.get("role"))) {
-                            return message.get("content");
-                        }
-                    }
+        @Override
+        public ProviderJson.Completion generateText(Message prompt, List<Message> history, int maxTokens,
+                StreamListener listener) {
+            // History first and the new prompt last, so requests share as long a prefix as possible
+            List<Message> messages = new ArrayList<>(history.size() + 1);
+            messages.addAll(history);
+            messages.add(prompt);
+
+            // OpenAI caches prompt prefixes automatically; usage in the stream shows how much hit
+            ProviderJson.ChatCompletionRequest requestBody = new ProviderJson.ChatCompletionRequest(
+                    model, messages, maxTokens, 0.7, listener != null ? Boolean.TRUE : null,
+                    listener != null ? new ProviderJson.StreamOptions(true) : null, null);
+            Request request = new Request.Builder()
+                    .url(apiUrl)
+                    .addHeader("Authorization", "Bearer " + apiKey)
+                    .post(ProviderJson.body(requestBody))
+                    .build();
+
+            try (Response response = httpClient.newCall(request).execute()) {
+                checkResponse("openai", response);
+                if (listener != null) {
+                    return readChatCompletionStream("openai", response, listener);
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
+                ProviderJson.Completion completion = ProviderJson.readChatCompletion(response.body().byteStream());
+                promptCacheStats.record("openai", completion.usage());
+                if (completion.text() != null) {
+                    return completion;
+                }
+            } catch (IOException e) {
+                throw transportFailure("openai", e);
             }
 
-            return "Sorry, no response was generated.";
+            throw new AIServiceException("openai", "No assistant message in the response");
         }
     }
 
     private class CustomTextGenerationService implements AIGeneratorInterface {
         private final String apiUrl;
         private final String model;
+        private final boolean cachePrompt;
         private final OkHttpClient httpClient;
 
-        public CustomTextGenerationService() {
+        public CustomTextGenerationService(OkHttpClient httpClient) {
             this.apiUrl = getProperty("custom_text_generation_api_url", "http://127.0.0.1:5000/v1/chat/completions");
             this.model = getProperty("custom_text_generation_model", "");
-            this.httpClient = new OkHttpClient.Builder()
-                    .readTimeout(500, TimeUnit.SECONDS)
-                    .writeTimeout(500, TimeUnit.SECONDS)
-                    .connectTimeout(500, TimeUnit.SECONDS)
-                    .build();
+            this.cachePrompt = getBooleanProperty("custom_cache_prompt", true);
+            this.httpClient = httpClient;
         }
 
         @Override
-        public String generateText(String text, List<Message> history, int maxTokens) {
-            List<Message> messages = new ArrayList<>(history);
-            messages.add(new Message("user", text));
-
-            Map<String, Object> requestBody = new HashMap<>() {
-                {
-                    put("messages", messages);
-                    if (!model.isEmpty()) {
-                        put("model", model);
-                    }
-                }
-            };
+        public String getModel() {
+            return model;
+        }
 
-            try {
-                String jsonBody = objectMapper.writeValueAsString(requestBody);
-                RequestBody body = RequestBody.create(jsonBody, MediaType.parse("application/json"));
-                Request request = new Request.Builder()
-                        .url(apiUrl)
-                        .post(body)
-                        .build();
-
-                try (Response response = httpClient.newCall(request).execute()) {
-                    String responseBody = response.body().string();
-                    Map<String, Object> responseMap = objectMapper.readValue(responseBody,
-                            new TypeReference<Map<String, Object>>() {
-                            });
-                    List<?> rawChoices = (List<?>) responseMap.get("choices");
-                    List<Map<String, Object>> choices = safelyCastListOfMaps(rawChoices);
-
-                    if (!choices.isEmpty()) {
-                        Map<String, Object> firstChoice = choices.get(0);
-                        Map<String, String> message = objectMapper.convertValue(firstChoice.get("message"),
-                                new TypeReference<Map<String, String>>() {
-                                });
-                        if (message != null) {
-                            String responseContent = message.get("content");
-                            messages.add(new Message("assistant", responseContent));
-                            return responseContent;
-                        }
-                    }
+        @Override
+        public ProviderJson.Completion generateText(Message prompt, List<Message> history, int maxTokens,
+                StreamListener listener) {
+            // History first and the new prompt last, so requests share as long a prefix as possible
+            List<Message> messages = new ArrayList<>(history.size() + 1);
+            messages.addAll(history);
+            messages.add(prompt);
+
+            ProviderJson.ChatCompletionRequest requestBody = new ProviderJson.ChatCompletionRequest(
+                    model.isEmpty() ? null : model, messages, null, null, listener != null ? Boolean.TRUE : null,
+                    null, cachePrompt ? Boolean.TRUE : null);
+            Request request = new Request.Builder()
+                    .url(apiUrl)
+                    .post(ProviderJson.body(requestBody))
+                    .build();
+
+            try (Response response = httpClient.newCall(request).execute()) {
+                checkResponse("custom", response);
+                if (listener != null) {
+                    return readChatCompletionStream("custom", response, listener);
+                }
+                ProviderJson.Completion completion = ProviderJson.readChatCompletion(response.body().byteStream());
+                promptCacheStats.record("custom", completion.usage());
+                if (completion.text() != null) {
+                    return completion;
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
+            } catch (IOException e) {
+                throw transportFailure("custom", e);
             }
 
-            return "Sorry, I have no answer.";
+            throw new AIServiceException("custom", "No message in the response");
         }
     }
 
@@ -230,80 +664,198 @@ public class API {
         private final String model;
         private final OkHttpClient httpClient;
 
-        public ClaudeAIService() {
+        public ClaudeAIService(OkHttpClient httpClient) {
             this.apiUrl = getProperty("claude_api_url", "https://api.anthropic.com/v1/messages");
             this.apiKey = getProperty("claude_api_key", "");
             this.apiVersion = getProperty("claude_api_version", "2023-06-01");
             this.model = getProperty("claude_model", "claude-3-sonnet-20240229");
-            this.httpClient = new OkHttpClient.Builder()
-                    .readTimeout(500, TimeUnit.SECONDS)
-                    .writeTimeout(500, TimeUnit.SECONDS)
-                    .connectTimeout(500, TimeUnit.SECONDS)
-                    .build();
+            this.httpClient = httpClient;
         }
 
         @Override
-        public String generateText(String text, List<Message> history, int maxTokens) {
-            List<Message> messages = new ArrayList<>(history);
-            messages.add(new Message("user", text));
-
-            Map<String, Object> requestBody = new HashMap<>() {
-                {
-                    put("model", model);
-                    put("messages", messages);
-                    put("max_tokens", maxTokens);
-                }
-            };
+        public String getModel() {
+            return model;
+        }
 
-            try {
-                String jsonBody = objectMapper.writeValueAsString(requestBody);
-                RequestBody body = RequestBody.create(jsonBody, MediaType.parse("application/json"));
-                Request request = new Request.Builder()
-                        .url(apiUrl)
-                        .addHeader("x-api-key", apiKey)
-                        .addHeader("anthropic-version", apiVersion)
-                        .post(body)
-                        .build();
-
-                try (Response response = httpClient.newCall(request).execute()) {
-                    String responseBody = response.body().string();
-                    Map<String, Object> responseMap = objectMapper.readValue(responseBody,
-                            new TypeReference<Map<String, Object>>() {
-                            });
-                    List<?> rawContent = (List<?>) responseMap.get("content");
-                    List<Map<String, Object>> content = safelyCastListOfMaps(rawContent);
-
-                    if (!content.isEmpty()) {
-                        Map<String, Object> firstElement = content.get(0);
-                        if (firstElement.containsKey("text")) {
-                            return (String) firstElement.get("text");
-                        }
-                    }
+        @Override
+        public boolean supportsPrefill() {
+            return true;
+        }
+
+        @Override
+        public ProviderJson.Completion generateText(Message prompt, List<Message> history, int maxTokens,
+                StreamListener listener) {
+            // History first and the new prompt last, so requests share as long a prefix as possible
+            List<Message> messages = new ArrayList<>(history.size() + 1);
+            messages.addAll(history);
+            messages.add(prompt);
+
+            ProviderJson.ClaudeRequest requestBody = ProviderJson.claudeRequest(
+                    model, messages, maxTokens, listener != null ? Boolean.TRUE : null);
+            Request request = new Request.Builder()
+                    .url(apiUrl)
+                    .addHeader("x-api-key", apiKey)
+                    .addHeader("anthropic-version", apiVersion)
+                    .post(ProviderJson.body(requestBody))
+                    .build();
+
+            try (Response response = httpClient.newCall(request).execute()) {
+                checkResponse("claude", response);
+                if (listener != null) {
+                    return readClaudeStream(response, listener);
                 }
-            } catch (Exception e) {
-                e.printStackTrace();
+                ProviderJson.Completion completion = ProviderJson.readClaudeMessage(response.body().byteStream());
+                promptCacheStats.record("claude", completion.usage());
+                if (completion.text() != null) {
+                    return completion;
+                }
+            } catch (IOException e) {
+                throw transportFailure("claude", e);
             }
 
-            return null;
+            throw new AIServiceException("claude", "No text content in the response");
         }
     }
 
-    private List<Map<String, Object>> safelyCastListOfMaps(List<?> list) {
-        List<Map<String, Object>> castedList = new ArrayList<>();
-        if (list != null) {
-            for (Object item : list) {
-                if (item instanceof Map) {
-                    Map<?, ?> rawMap = (Map<?, ?>) item;
-                    Map<String, Object> safeMap = new HashMap<>();
-                    for (Map.Entry<?, ?> entry : rawMap.entrySet()) {
-                        if (entry.getKey() instanceof String) {
-                            safeMap.put((String) entry.getKey(), entry.getValue());
-                        }
+    /**
+     * Reads an OpenAI-compatible {@code chat/completions} event stream, which is also
+     * what llama.cpp and text-generation-webui servers emit.
+     */
+    private ProviderJson.Completion readChatCompletionStream(String provider, Response response,
+            StreamListener listener) throws IOException {
+        StringBuilder content = new StringBuilder();
+        ProviderJson.Usage[] usage = new ProviderJson.Usage[1];
+        String[] finishReason = new String[1];
+        readServerSentEvents(response, (event, data) -> {
+            if ("[DONE]".equals(data)) {
+                return false;
+            }
+            ProviderJson.StreamEvent chunk = ProviderJson.readChatCompletionChunk(data);
+            if (chunk.errorMessage() != null) {
+                throw new IOException("Stream error: " + chunk.errorMessage());
+            }
+            usage[0] = ProviderJson.Usage.merge(usage[0], chunk.usage());
+            String token = chunk.text();
+            if (token != null && !token.isEmpty()) {
+                content.append(token);
+                if (!listener.onToken(token, content)) {
+                    return false;
+                }
+            }
+            // With include_usage the usage arrives in a chunk of its own after finish_reason
+            if (chunk.finishReason() != null) {
+                finishReason[0] = chunk.finishReason();
+            }
+            return finishReason[0] == null || usage[0] == null;
+        });
+        promptCacheStats.record(provider, usage[0]);
+        return new ProviderJson.Completion(content.toString(), finishReason[0], usage[0]);
+    }
+
+    /**
+     * Reads an Anthropic {@code /v1/messages} event stream.
+     */
+    private ProviderJson.Completion readClaudeStream(Response response, StreamListener listener) throws IOException {
+        StringBuilder content = new StringBuilder();
+        ProviderJson.Usage[] usage = new ProviderJson.Usage[1];
+        String[] stopReason = new String[1];
+        readServerSentEvents(response, (event, data) -> {
+            ProviderJson.StreamEvent streamEvent = ProviderJson.readClaudeEvent(data, event);
+            usage[0] = ProviderJson.Usage.merge(usage[0], streamEvent.usage());
+            if (streamEvent.finishReason() != null) {
+                stopReason[0] = streamEvent.finishReason();
+            }
+            if ("content_block_delta".equals(streamEvent.type())) {
+                String token = streamEvent.text();
+                if (token != null && !token.isEmpty()) {
+                    content.append(token);
+                    return listener.onToken(token, content);
+                }
+            } else if ("error".equals(streamEvent.type())) {
+                throw new IOException("Claude stream error: " + streamEvent.errorMessage());
+            }
+            return !"message_stop".equals(streamEvent.type());
+        });
+        promptCacheStats.record("claude", usage[0]);
+        return new ProviderJson.Completion(content.toString(), stopReason[0], usage[0]);
+    }
+
+    private interface ServerSentEventHandler {
+        /**
+         * @return {@code false} once no further events are needed
+         */
+        boolean onEvent(String event, String data) throws IOException;
+    }
+
+    private void readServerSentEvents(Response response, ServerSentEventHandler handler) throws IOException {
+        if (response.body() == null) {
+            throw new IOException("Streaming response has no body");
+        }
+        BufferedSource source = response.body().source();
+        String event = "";
+        StringBuilder data = new StringBuilder();
+        String line;
+        while ((line = source.readUtf8Line()) != null) {
+            if (line.isEmpty()) {
+                if (data.length() > 0) {
+                    if (!handler.onEvent(event, data.toString())) {
+                        return;
                     }
-                    castedList.add(safeMap);
                 }
+                event = "";
+                data.setLength(0);
+            } else if (line.startsWith("event:")) {
+                event = line.substring(6).trim();
+            } else if (line.startsWith("data:")) {
+                if (data.length() > 0) {
+                    data.append('\n');
+                }
+                data.append(line.substring(5).trim());
+            }
+        }
+        if (data.length() > 0) {
+            handler.onEvent(event, data.toString());
+        }
+    }
+
+    /**
+     * Compresses outgoing request bodies. Only enable this for endpoints that accept
+     * {@code Content-Encoding: gzip}, such as a local proxy in front of the provider.
+     */
+    private static class GzipRequestInterceptor implements Interceptor {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request originalRequest = chain.request();
+            RequestBody originalBody = originalRequest.body();
+            if (originalBody == null || originalRequest.header("Content-Encoding") != null) {
+                return chain.proceed(originalRequest);
             }
+            Request compressedRequest = originalRequest.newBuilder()
+                    .header("Content-Encoding", "gzip")
+                    .method(originalRequest.method(), gzip(originalBody))
+                    .build();
+            return chain.proceed(compressedRequest);
+        }
+
+        private RequestBody gzip(RequestBody body) {
+            return new RequestBody() {
+                @Override
+                public MediaType contentType() {
+                    return body.contentType();
+                }
+
+                @Override
+                public long contentLength() {
+                    return -1;
+                }
+
+                @Override
+                public void writeTo(BufferedSink sink) throws IOException {
+                    try (BufferedSink gzipSink = Okio.buffer(new GzipSink(sink))) {
+                        body.writeTo(gzipSink);
+                    }
+                }
+            };
         }
-        return castedList;
     }
 }
\ No newline at end of file
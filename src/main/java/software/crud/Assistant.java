@@ -0,0 +1,142 @@
+package software.crud;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+class Assistant {
+    private API api;
+    private List<API.Message> history;
+    private static final int MAX_HISTORY_SIZE = 4;
+
+    public Assistant() {
+        this.api = API.shared();
+        this.history = new ArrayList<>();
+        this.history.add(new API.Message("system", "You are a code conversion assistant."));
+    }
+
+    /**
+     * Sends a short request to the provider, bypassing the response cache, which would
+     * otherwise answer it without a working key or network.
+     */
+    public boolean testApiConnection() {
+        try {
+            String testPrompt = "Test API connection";
+            int testMaxTokens = 10;
+            String response = api.complete(new API.Message("user", testPrompt), history, testMaxTokens, null, false)
+                    .text();
+            return response != null && !response.isEmpty();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    public String convertUsingAPI(String promptText, String fileContent, boolean addToHistory) {
+        try {
+            String combinedQuestion = promptText + ": " + fileContent;
+            int maxTokens = chooseMaxTokens(combinedQuestion, predictConversionTokens(fileContent, ""), 4096);
+            String response = api.generateText(combinedQuestion, history, maxTokens);
+            if (addToHistory) {
+                addToHistory("user", combinedQuestion);
+                addToHistory("assistant", response);
+            }
+            return response;
+        } catch (AIServiceException | CancellationException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw failure(e);
+        }
+    }
+
+    /**
+     * Reports an unexpected error of a request as a failed request of the active service;
+     * it is never returned as if it were the model's answer.
+     */
+    private AIServiceException failure(RuntimeException e) {
+        return new AIServiceException(api.getActiveService(), "Request failed: " + e, -1, false, -1, e);
+    }
+
+    public String generateText(String aiQuery, int maxTokens, boolean addToHistory) {
+        return generateText(aiQuery, maxTokens, addToHistory, null);
+    }
+
+    public String generateText(String aiQuery, int maxTokens, boolean addToHistory, API.StreamListener listener) {
+        try {
+            String response = api.generateText(aiQuery, history, maxTokens, listener);
+            if (addToHistory) {
+                addToHistory("user", aiQuery);
+                addToHistory("assistant", response);
+            }
+            return response;
+        } catch (AIServiceException | CancellationException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw failure(e);
+        }
+    }
+
+    /**
+     * Sends a prompt whose cacheable prefix is marked, without adding it to the history.
+     */
+    public String generateText(API.Message prompt, int maxTokens, API.StreamListener listener) {
+        return complete(prompt, null, maxTokens, listener).text();
+    }
+
+    /**
+     * Sends a prompt without adding it to the history and returns the completion with
+     * its finish reason. With a {@code prefill} the model continues that assistant text;
+     * only pass one when {@link #supportsPrefill()}.
+     */
+    public ProviderJson.Completion complete(API.Message prompt, API.Message prefill, int maxTokens,
+            API.StreamListener listener) {
+        if (prefill == null) {
+            return api.complete(prompt, history, maxTokens, listener);
+        }
+        List<API.Message> conversation = new ArrayList<>(history);
+        conversation.add(prompt);
+        return api.complete(prefill, conversation, maxTokens, listener);
+    }
+
+    public boolean supportsPrefill() {
+        return api.supportsPrefill();
+    }
+
+    public int estimateTokens(CharSequence text) {
+        return api.getTokenEstimator().estimate(text);
+    }
+
+    /**
+     * Predicts how many tokens the Java translation of {@code sourceCode} will take.
+     */
+    public int predictConversionTokens(CharSequence sourceCode, String sourceLanguage) {
+        TokenEstimator estimator = api.getTokenEstimator();
+        return estimator.predictConversionTokens(estimator.estimate(sourceCode), sourceLanguage);
+    }
+
+    /**
+     * Sizes {@code max_tokens} for {@code prompt} from the predicted output and the room
+     * left in the model's context window, or returns {@code fixedMaxTokens} when
+     * {@code adaptive_max_tokens} is off.
+     */
+    public int chooseMaxTokens(String prompt, int predictedOutputTokens, int fixedMaxTokens) {
+        if (!api.getBooleanProperty("adaptive_max_tokens", true)) {
+            return fixedMaxTokens;
+        }
+        TokenEstimator estimator = api.getTokenEstimator();
+        int promptTokens = estimator.estimate(prompt) + estimator.estimate(history);
+        return estimator.chooseMaxTokens(api.getActiveService(), promptTokens, predictedOutputTokens);
+    }
+
+    private void addToHistory(String role, String content) {
+        if (history.size() >= MAX_HISTORY_SIZE) {
+            history.remove(1);
+        }
+        history.add(new API.Message(role, content));
+    }
+
+    public void clearHistory() {
+        history.clear();
+        history.add(new API.Message("system", "You are a code conversion assistant."));
+    }
+}
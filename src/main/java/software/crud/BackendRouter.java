@@ -0,0 +1,354 @@
+package software.crud;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Spreads requests over several backends. Each backend keeps a rolling window of
+ * latencies and failures; healthy backends are picked by weight, scaled by how their
+ * median latency compares with the fastest one, degraded backends are only tried once
+ * the healthy ones have failed, and an optional hedge sends a duplicate request to the
+ * next backend when the first one has produced nothing after a threshold.
+ */
+class BackendRouter {
+    private static final Logger logger = LoggerFactory.getLogger(BackendRouter.class);
+    private static final int MAX_SAMPLES = 256;
+
+    /**
+     * Runs one request against a named backend, including its own retries.
+     */
+    interface BackendCall {
+        ProviderJson.Completion generate(String backend, API.StreamListener listener);
+    }
+
+    private final Map<String, Backend> backends = new LinkedHashMap<>();
+    private final long hedgeAfterMillis;
+    private final long windowNanos;
+    private final int minSamples;
+    private final double maxErrorRate;
+    private final long maxP95Millis;
+    private final ExecutorService hedgeExecutor;
+
+    /**
+     * @param weights          relative share of requests per backend, in failover order
+     * @param hedgeAfterMillis delay before a hedged duplicate is sent; 0 disables hedging
+     * @param windowSeconds    how long samples count towards latency and error rate
+     * @param maxP95Millis     p95 latency above which a backend counts as degraded; 0 disables
+     */
+    BackendRouter(Map<String, Double> weights, long hedgeAfterMillis, int windowSeconds, int minSamples,
+            double maxErrorRate, long maxP95Millis) {
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("The router needs at least one backend");
+        }
+        weights.forEach((name, weight) -> backends.put(name, new Backend(name, Math.max(0.0, weight))));
+        this.hedgeAfterMillis = hedgeAfterMillis;
+        this.windowNanos = TimeUnit.SECONDS.toNanos(Math.max(1, windowSeconds));
+        this.minSamples = Math.max(1, minSamples);
+        this.maxErrorRate = maxErrorRate;
+        this.maxP95Millis = maxP95Millis;
+        AtomicInteger threadCount = new AtomicInteger();
+        this.hedgeExecutor = hedgeAfterMillis > 0 && backends.size() > 1
+                ? Executors.newCachedThreadPool(runnable -> {
+                    Thread thread = new Thread(runnable, "router-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                })
+                : null;
+    }
+
+    List<String> getBackends() {
+        return new ArrayList<>(backends.keySet());
+    }
+
+    /**
+     * Sends the request to the best backend, failing over down the ranking until one
+     * succeeds. Once {@code listener} has received tokens the request no longer fails
+     * over, as the next backend would stream its answer from the start.
+     *
+     * @throws AIServiceException the last failure once every backend has failed, or the
+     *                            failure of a backend that had already streamed tokens
+     */
+    ProviderJson.Completion route(BackendCall call, API.StreamListener listener) {
+        Deque<String> remaining = new ArrayDeque<>(rank());
+        AtomicBoolean delivered = new AtomicBoolean();
+        API.StreamListener trackingListener = listener == null ? null : (token, textSoFar) -> {
+            delivered.set(true);
+            return listener.onToken(token, textSoFar);
+        };
+        AIServiceException failure = null;
+        while (!remaining.isEmpty()) {
+            String primary = remaining.poll();
+            try {
+                if (hedgeExecutor != null && !remaining.isEmpty()) {
+                    return hedged(primary, remaining, call, trackingListener);
+                }
+                return timed(primary, call, trackingListener);
+            } catch (AIServiceException e) {
+                if (delivered.get()) {
+                    throw e;
+                }
+                failure = e;
+                if (!remaining.isEmpty()) {
+                    logger.warn("{} failed ({}), failing over to {}", e.getProvider(), e.getMessage(),
+                            remaining.peek());
+                }
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Orders the backends for one request: healthy ones by weighted random choice
+     * without replacement, then degraded ones, least failing first.
+     */
+    List<String> rank() {
+        long now = System.nanoTime();
+        List<Backend> healthy = new ArrayList<>();
+        List<Backend> degraded = new ArrayList<>();
+        long fastestMedian = Long.MAX_VALUE;
+        for (Backend backend : backends.values()) {
+            if (isDegraded(backend, now)) {
+                degraded.add(backend);
+            } else {
+                healthy.add(backend);
+                long median = backend.percentile(0.5, now, minSamples);
+                if (median > 0) {
+                    fastestMedian = Math.min(fastestMedian, median);
+                }
+            }
+        }
+
+        List<String> order = new ArrayList<>(backends.size());
+        double[] weights = new double[healthy.size()];
+        for (int i = 0; i < healthy.size(); i++) {
+            long median = healthy.get(i).percentile(0.5, now, minSamples);
+            double latencyFactor = median > 0 && fastestMedian != Long.MAX_VALUE
+                    ? fastestMedian / (double) median : 1.0;
+            weights[i] = healthy.get(i).weight * latencyFactor;
+        }
+        while (!healthy.isEmpty()) {
+            double total = Arrays.stream(weights, 0, healthy.size()).sum();
+            int chosen = 0;
+            if (total > 0) {
+                double target = ThreadLocalRandom.current().nextDouble(total);
+                while (chosen < healthy.size() - 1 && (target -= weights[chosen]) >= 0) {
+                    chosen++;
+                }
+            }
+            order.add(healthy.remove(chosen).name);
+            System.arraycopy(weights, chosen + 1, weights, chosen, healthy.size() - chosen);
+        }
+        degraded.sort(Comparator.comparingDouble(backend -> backend.errorRate(now)));
+        degraded.forEach(backend -> order.add(backend.name));
+        return order;
+    }
+
+    private boolean isDegraded(Backend backend, long now) {
+        if (backend.sampleCount(now) < minSamples) {
+            return false;
+        }
+        if (backend.errorRate(now) > maxErrorRate) {
+            return true;
+        }
+        return maxP95Millis > 0 && backend.percentile(0.95, now, minSamples) > maxP95Millis;
+    }
+
+    private ProviderJson.Completion timed(String backend, BackendCall call, API.StreamListener listener) {
+        long start = System.nanoTime();
+        try {
+            ProviderJson.Completion response = call.generate(backend, listener);
+            backends.get(backend).record(start, true);
+            return response;
+        } catch (AIServiceException e) {
+            // Only transient failures say anything about the backend's health
+            if (e.isRetryable() && !Thread.currentThread().isInterrupted()) {
+                backends.get(backend).record(start, false);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Starts the request on {@code primary} and, if nothing has arrived after the hedge
+     * delay, a duplicate on the next backend. The first attempt to stream a token (or,
+     * without streaming, to finish) wins; the other is abandoned.
+     */
+    private ProviderJson.Completion hedged(String primary, Deque<String> remaining, BackendCall call,
+            API.StreamListener listener) {
+        CompletionService<ProviderJson.Completion> completions = new ExecutorCompletionService<>(hedgeExecutor);
+        Map<Future<ProviderJson.Completion>, String> attempts = new HashMap<>();
+        AtomicReference<String> owner = new AtomicReference<>();
+        AtomicBoolean firstToken = new AtomicBoolean();
+        // Pooled threads call as the tenant of the request they serve
+        String tenant = FairCallLimiter.currentTenant();
+        attempts.put(completions.submit(() -> FairCallLimiter.callAs(tenant, () -> timed(primary,
+                call, gate(primary, owner, firstToken, listener)))), primary);
+        AIServiceException failure = null;
+        try {
+            Future<ProviderJson.Completion> done = completions.poll(hedgeAfterMillis, TimeUnit.MILLISECONDS);
+            if (done == null && !firstToken.get()) {
+                String secondary = remaining.poll();
+                logger.info("{} has not answered after {} ms, hedging with {}", primary, hedgeAfterMillis, secondary);
+                attempts.put(completions.submit(() -> FairCallLimiter.callAs(tenant, () -> timed(secondary,
+                        call, gate(secondary, owner, firstToken, listener)))), secondary);
+            }
+            for (int pending = attempts.size(); pending > 0; pending--) {
+                if (done == null) {
+                    done = completions.take();
+                }
+                String backend = attempts.get(done);
+                try {
+                    ProviderJson.Completion response = done.get();
+                    if (owner.compareAndSet(null, backend) || backend.equals(owner.get())) {
+                        if (listener != null && !firstToken.get() && !response.text().isEmpty()) {
+                            listener.onToken(response.text(), response.text());
+                        }
+                        return response;
+                    }
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    boolean lost = cause instanceof CancellationException && owner.get() != null
+                            && !backend.equals(owner.get());
+                    if (cause instanceof AIServiceException) {
+                        failure = (AIServiceException) cause;
+                    } else if (!lost) {
+                        throw cause instanceof RuntimeException ? (RuntimeException) cause
+                                : new AIServiceException(backend, "Request failed: " + cause, -1, true, -1, cause);
+                    }
+                }
+                done = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AIServiceException(primary, "Interrupted while waiting for a response");
+        } finally {
+            attempts.keySet().forEach(future -> future.cancel(true));
+        }
+        throw failure != null ? failure : new AIServiceException(primary, "No backend produced a response");
+    }
+
+    /**
+     * Lets only the first attempt to stream a token talk to {@code listener}; any other
+     * attempt is abandoned when it produces its next token.
+     */
+    private API.StreamListener gate(String backend, AtomicReference<String> owner, AtomicBoolean firstToken,
+            API.StreamListener listener) {
+        if (listener == null) {
+            return null;
+        }
+        return (token, textSoFar) -> {
+            if (!owner.compareAndSet(null, backend) && !backend.equals(owner.get())) {
+                throw new CancellationException(backend + " lost the hedged request");
+            }
+            firstToken.set(true);
+            return listener.onToken(token, textSoFar);
+        };
+    }
+
+    /**
+     * Summarises the rolling statistics, e.g. for the end-of-run log.
+     */
+    String describe() {
+        long now = System.nanoTime();
+        StringBuilder description = new StringBuilder("Router:");
+        for (Backend backend : backends.values()) {
+            description.append(String.format(" %s p50=%dms p95=%dms errors=%.0f%% (%d samples)%s;",
+                    backend.name, backend.percentile(0.5, now, 1), backend.percentile(0.95, now, 1),
+                    backend.errorRate(now) * 100, backend.sampleCount(now),
+                    isDegraded(backend, now) ? " degraded" : ""));
+        }
+        return description.toString();
+    }
+
+    /**
+     * Rolling window of one backend's recent requests.
+     */
+    private class Backend {
+        private final String name;
+        private final double weight;
+        private final long[] timestamps = new long[MAX_SAMPLES];
+        private final long[] latencies = new long[MAX_SAMPLES];
+        private final boolean[] successes = new boolean[MAX_SAMPLES];
+        private int next;
+        private int size;
+
+        Backend(String name, double weight) {
+            this.name = name;
+            this.weight = weight;
+        }
+
+        synchronized void record(long startNanos, boolean success) {
+            long now = System.nanoTime();
+            timestamps[next] = now;
+            latencies[next] = TimeUnit.NANOSECONDS.toMillis(now - startNanos);
+            successes[next] = success;
+            next = (next + 1) % MAX_SAMPLES;
+            size = Math.min(size + 1, MAX_SAMPLES);
+        }
+
+        synchronized int sampleCount(long now) {
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (now - timestamps[i] <= windowNanos) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        synchronized double errorRate(long now) {
+            int count = 0;
+            int errors = 0;
+            for (int i = 0; i < size; i++) {
+                if (now - timestamps[i] <= windowNanos) {
+                    count++;
+                    if (!successes[i]) {
+                        errors++;
+                    }
+                }
+            }
+            return count == 0 ? 0 : errors / (double) count;
+        }
+
+        /**
+         * @return the latency percentile of successful requests in the window, or 0 with
+         *         fewer than {@code minimum} of them
+         */
+        synchronized long percentile(double percentile, long now, int minimum) {
+            long[] window = new long[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (successes[i] && now - timestamps[i] <= windowNanos) {
+                    window[count++] = latencies[i];
+                }
+            }
+            if (count < minimum || count == 0) {
+                return 0;
+            }
+            Arrays.sort(window, 0, count);
+            return window[Math.min(count - 1, (int) Math.ceil(percentile * count) - 1)];
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package software.crud;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Submits many completion requests as one offline job (OpenAI Batch, Anthropic
+ * Message Batches, or a local file-based stand-in) and collects the results later.
+ */
+interface BatchClient {
+    /**
+     * @param customId           caller-chosen identifier used to match the result, at most
+     *                           64 characters of {@code [A-Za-z0-9_-]}
+     * @param cachedPrefixLength length of the prompt's prefix shared with other requests
+     */
+    record BatchRequest(String customId, String prompt, int cachedPrefixLength, int maxTokens) {
+    }
+
+    enum Status {
+        IN_PROGRESS,
+        COMPLETED,
+        FAILED
+    }
+
+    /**
+     * @return the provider's identifier for the submitted batch
+     */
+    String submit(List<BatchRequest> requests) throws IOException;
+
+    Status poll(String batchId) throws IOException;
+
+    /**
+     * @return the completion text for every request that succeeded, keyed by custom id;
+     *         failed requests are absent
+     */
+    Map<String, String> fetchResults(String batchId) throws IOException;
+}
@@ -0,0 +1,364 @@
+package software.crud;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import okhttp3.MediaType;
+import okhttp3.MultipartBody;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * {@link BatchClient} implementations. Batch traffic is a handful of calls per run, so
+ * these use plain Jackson trees rather than the streaming codec in {@link ProviderJson}.
+ */
+final class BatchClients {
+    private static final Logger logger = LoggerFactory.getLogger(BatchClients.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final MediaType JSON = MediaType.parse("application/json");
+    private static final MediaType JSONL = MediaType.parse("application/jsonl");
+    private static final String SYSTEM_PROMPT = "You are a code conversion assistant.";
+
+    private BatchClients() {
+    }
+
+    /**
+     * OpenAI Batch API: the requests are uploaded as a JSONL file and run against
+     * {@code /v1/chat/completions} within the 24 hour completion window.
+     */
+    static class OpenAIBatchClient implements BatchClient {
+        private final OkHttpClient httpClient;
+        private final String apiBase;
+        private final String apiKey;
+        private final String model;
+
+        OpenAIBatchClient(OkHttpClient httpClient, String apiBase, String apiKey, String model) {
+            this.httpClient = httpClient;
+            this.apiBase = apiBase;
+            this.apiKey = apiKey;
+            this.model = model;
+        }
+
+        @Override
+        public String submit(List<BatchRequest> requests) throws IOException {
+            StringBuilder jsonl = new StringBuilder();
+            for (BatchRequest request : requests) {
+                jsonl.append(MAPPER.writeValueAsString(toBatchLine(request, model))).append('\n');
+            }
+            RequestBody upload = new MultipartBody.Builder()
+                    .setType(MultipartBody.FORM)
+                    .addFormDataPart("purpose", "batch")
+                    .addFormDataPart("file", "requests.jsonl", RequestBody.create(jsonl.toString(), JSONL))
+                    .build();
+            String fileId = execute(authorized(apiBase + "/files").post(upload)).path("id").asText();
+
+            ObjectNode batch = MAPPER.createObjectNode();
+            batch.put("input_file_id", fileId);
+            batch.put("endpoint", "/v1/chat/completions");
+            batch.put("completion_window", "24h");
+            RequestBody body = RequestBody.create(MAPPER.writeValueAsString(batch), JSON);
+            return execute(authorized(apiBase + "/batches").post(body)).path("id").asText();
+        }
+
+        @Override
+        public Status poll(String batchId) throws IOException {
+            String status = execute(authorized(apiBase + "/batches/" + batchId).get()).path("status").asText();
+            switch (status) {
+                case "completed":
+                    return Status.COMPLETED;
+                case "failed":
+                case "expired":
+                case "cancelled":
+                    return Status.FAILED;
+                default:
+                    return Status.IN_PROGRESS;
+            }
+        }
+
+        @Override
+        public Map<String, String> fetchResults(String batchId) throws IOException {
+            JsonNode batch = execute(authorized(apiBase + "/batches/" + batchId).get());
+            String outputFileId = batch.path("output_file_id").asText("");
+            if (outputFileId.isEmpty()) {
+                return new HashMap<>();
+            }
+            try (Response response = httpClient.newCall(
+                    authorized(apiBase + "/files/" + outputFileId + "/content").get().build()).execute()) {
+                checkSuccessful(response);
+                return parseOpenAIResults(response.body().string());
+            }
+        }
+
+        private Request.Builder authorized(String url) {
+            return new Request.Builder().url(url).addHeader("Authorization", "Bearer " + apiKey);
+        }
+
+        private JsonNode execute(Request.Builder request) throws IOException {
+            try (Response response = httpClient.newCall(request.build()).execute()) {
+                checkSuccessful(response);
+                return MAPPER.readTree(response.body().string());
+            }
+        }
+    }
+
+    /**
+     * Anthropic Message Batches API.
+     */
+    static class ClaudeBatchClient implements BatchClient {
+        private final OkHttpClient httpClient;
+        private final String batchesUrl;
+        private final String apiKey;
+        private final String apiVersion;
+        private final String model;
+
+        ClaudeBatchClient(OkHttpClient httpClient, String messagesUrl, String apiKey, String apiVersion,
+                String model) {
+            this.httpClient = httpClient;
+            this.batchesUrl = messagesUrl + "/batches";
+            this.apiKey = apiKey;
+            this.apiVersion = apiVersion;
+            this.model = model;
+        }
+
+        @Override
+        public String submit(List<BatchRequest> requests) throws IOException {
+            ObjectNode batch = MAPPER.createObjectNode();
+            ArrayNode items = batch.putArray("requests");
+            for (BatchRequest request : requests) {
+                ObjectNode item = items.addObject();
+                item.put("custom_id", request.customId());
+                ObjectNode params = item.putObject("params");
+                params.put("model", model);
+                params.put("max_tokens", request.maxTokens());
+                params.put("system", SYSTEM_PROMPT);
+                ObjectNode message = params.putArray("messages").addObject();
+                message.put("role", "user");
+                String prompt = request.prompt();
+                int prefixLength = Math.min(request.cachedPrefixLength(), prompt.length());
+                if (prefixLength > 0 && prefixLength < prompt.length()) {
+                    // Batches honour cache breakpoints too, and the shared prefix is cheaper to read back
+                    ArrayNode content = message.putArray("content");
+                    ObjectNode prefix = content.addObject();
+                    prefix.put("type", "text");
+                    prefix.put("text", prompt.substring(0, prefixLength));
+                    prefix.putObject("cache_control").put("type", "ephemeral");
+                    ObjectNode rest = content.addObject();
+                    rest.put("type", "text");
+                    rest.put("text", prompt.substring(prefixLength));
+                } else {
+                    message.put("content", prompt);
+                }
+            }
+            RequestBody body = RequestBody.create(MAPPER.writeValueAsString(batch), JSON);
+            return execute(authorized(batchesUrl).post(body)).path("id").asText();
+        }
+
+        @Override
+        public Status poll(String batchId) throws IOException {
+            JsonNode batch = execute(authorized(batchesUrl + "/" + batchId).get());
+            return "ended".equals(batch.path("processing_status").asText()) ? Status.COMPLETED : Status.IN_PROGRESS;
+        }
+
+        @Override
+        public Map<String, String> fetchResults(String batchId) throws IOException {
+            String resultsUrl = execute(authorized(batchesUrl + "/" + batchId).get()).path("results_url").asText("");
+            Map<String, String> results = new HashMap<>();
+            if (resultsUrl.isEmpty()) {
+                return results;
+            }
+            try (Response response = httpClient.newCall(authorized(resultsUrl).get().build()).execute()) {
+                checkSuccessful(response);
+                try (BufferedReader reader = new BufferedReader(new StringReader(response.body().string()))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isBlank()) {
+                            continue;
+                        }
+                        JsonNode result = MAPPER.readTree(line);
+                        JsonNode outcome = result.path("result");
+                        if (!"succeeded".equals(outcome.path("type").asText())) {
+                            logger.warn("Batch request {} did not succeed: {}", result.path("custom_id").asText(),
+                                    outcome.path("type").asText());
+                            continue;
+                        }
+                        StringBuilder text = new StringBuilder();
+                        for (JsonNode block : outcome.path("message").path("content")) {
+                            text.append(block.path("text").asText(""));
+                        }
+                        results.put(result.path("custom_id").asText(), text.toString());
+                    }
+                }
+            }
+            return results;
+        }
+
+        private Request.Builder authorized(String url) {
+            return new Request.Builder().url(url)
+                    .addHeader("x-api-key", apiKey)
+                    .addHeader("anthropic-version", apiVersion);
+        }
+
+        private JsonNode execute(Request.Builder request) throws IOException {
+            try (Response response = httpClient.newCall(request.build()).execute()) {
+                checkSuccessful(response);
+                return MAPPER.readTree(response.body().string());
+            }
+        }
+    }
+
+    /**
+     * File-based stand-in that uses the OpenAI batch file formats. Each batch is a
+     * directory holding {@code requests.jsonl}; it completes when {@code results.jsonl}
+     * appears next to it. With {@code executeLocally} the requests are run one by one
+     * through the configured provider, otherwise the results file is expected to be
+     * produced by an external tool (or a test).
+     */
+    static class LocalBatchClient implements BatchClient {
+        private final Path directory;
+        private final API api;
+        private final String model;
+        private final boolean executeLocally;
+
+        LocalBatchClient(Path directory, API api, String model, boolean executeLocally) {
+            this.directory = directory;
+            this.api = api;
+            this.model = model;
+            this.executeLocally = executeLocally;
+        }
+
+        @Override
+        public String submit(List<BatchRequest> requests) throws IOException {
+            String batchId = "local-" + UUID.randomUUID();
+            Path batchDirectory = Files.createDirectories(directory.resolve(batchId));
+            try (BufferedWriter writer = Files.newBufferedWriter(batchDirectory.resolve("requests.jsonl"),
+                    StandardCharsets.UTF_8)) {
+                for (BatchRequest request : requests) {
+                    writer.write(MAPPER.writeValueAsString(toBatchLine(request, model)));
+                    writer.newLine();
+                }
+            }
+            return batchId;
+        }
+
+        @Override
+        public Status poll(String batchId) throws IOException {
+            Path batchDirectory = directory.resolve(batchId);
+            if (Files.exists(batchDirectory.resolve("results.jsonl"))) {
+                return Status.COMPLETED;
+            }
+            if (!Files.exists(batchDirectory.resolve("requests.jsonl"))) {
+                return Status.FAILED;
+            }
+            if (executeLocally) {
+                execute(batchDirectory);
+                return Status.COMPLETED;
+            }
+            return Status.IN_PROGRESS;
+        }
+
+        @Override
+        public Map<String, String> fetchResults(String batchId) throws IOException {
+            return parseOpenAIResults(Files.readString(directory.resolve(batchId).resolve("results.jsonl"),
+                    StandardCharsets.UTF_8));
+        }
+
+        private void execute(Path batchDirectory) throws IOException {
+            List<String> lines = Files.readAllLines(batchDirectory.resolve("requests.jsonl"), StandardCharsets.UTF_8);
+            Path temp = batchDirectory.resolve("results.jsonl.tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (String line : lines) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    JsonNode request = MAPPER.readTree(line);
+                    JsonNode body = request.path("body");
+                    JsonNode messages = body.path("messages");
+                    String prompt = messages.path(messages.size() - 1).path("content").asText();
+                    ObjectNode result = MAPPER.createObjectNode();
+                    result.put("custom_id", request.path("custom_id").asText());
+                    try {
+                        String text = api.generateText(prompt,
+                                List.of(new API.Message("system", SYSTEM_PROMPT)), body.path("max_tokens").asInt());
+                        ObjectNode response = result.putObject("response");
+                        response.put("status_code", 200);
+                        ObjectNode message = response.putObject("body").putArray("choices").addObject()
+                                .putObject("message");
+                        message.put("role", "assistant");
+                        message.put("content", text);
+                    } catch (AIServiceException e) {
+                        result.putObject("error").put("message", e.getMessage());
+                    }
+                    writer.write(MAPPER.writeValueAsString(result));
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, batchDirectory.resolve("results.jsonl"));
+        }
+    }
+
+    private static ObjectNode toBatchLine(BatchClient.BatchRequest request, String model) {
+        ObjectNode line = MAPPER.createObjectNode();
+        line.put("custom_id", request.customId());
+        line.put("method", "POST");
+        line.put("url", "/v1/chat/completions");
+        ObjectNode body = line.putObject("body");
+        body.put("model", model);
+        body.put("max_tokens", request.maxTokens());
+        ArrayNode messages = body.putArray("messages");
+        ObjectNode system = messages.addObject();
+        system.put("role", "system");
+        system.put("content", SYSTEM_PROMPT);
+        ObjectNode user = messages.addObject();
+        user.put("role", "user");
+        user.put("content", request.prompt());
+        return line;
+    }
+
+    private static Map<String, String> parseOpenAIResults(String jsonl) throws IOException {
+        Map<String, String> results = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new StringReader(jsonl))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                JsonNode result = MAPPER.readTree(line);
+                String customId = result.path("custom_id").asText();
+                JsonNode response = result.path("response");
+                if (response.path("status_code").asInt() != 200) {
+                    logger.warn("Batch request {} failed: {}", customId, result.path("error"));
+                    continue;
+                }
+                JsonNode content = response.path("body").path("choices").path(0).path("message").path("content");
+                if (content.isTextual()) {
+                    results.put(customId, content.asText());
+                }
+            }
+        }
+        return results;
+    }
+
+    private static void checkSuccessful(Response response) throws IOException {
+        if (!response.isSuccessful()) {
+            String detail = response.body() != null ? response.body().string() : "";
+            throw new IOException("Batch request failed with HTTP " + response.code() + ": " + detail);
+        }
+    }
+}
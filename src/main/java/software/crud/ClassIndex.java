@@ -0,0 +1,31 @@
+package software.crud;
+
+class ClassIndex {
+    private String originalClassName;
+    private String newClassName;
+    private String packageName;
+    private String filePath;
+
+    public ClassIndex(String originalClassName, String newClassName, String packageName, String filePath) {
+        this.originalClassName = originalClassName;
+        this.newClassName = newClassName;
+        this.packageName = packageName;
+        this.filePath = filePath;
+    }
+
+    public String getOriginalClassName() {
+        return originalClassName;
+    }
+
+    public String getNewClassName() {
+        return newClassName;
+    }
+
+    public String getPackageName() {
+        return packageName;
+    }
+
+    public String getFilePath() {
+        return filePath;
+    }
+}
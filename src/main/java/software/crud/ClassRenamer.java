@@ -0,0 +1,80 @@
+package software.crud;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Applies every original-to-new class name of the class index in one linear pass: the
+ * text is split into identifier tokens and each token is looked up once. Renames are
+ * simultaneous, so chains and swaps ({@code A -> B}, {@code B -> A}) are applied exactly
+ * once instead of needing a fixpoint. Token boundaries match the {@code \bName\b}
+ * regexes this replaces.
+ */
+final class ClassRenamer {
+    private final Map<String, String> renames = new HashMap<>();
+
+    ClassRenamer(Map<String, ClassIndex> classIndex) {
+        for (ClassIndex entry : classIndex.values()) {
+            if (!entry.getOriginalClassName().equals(entry.getNewClassName())) {
+                renames.put(entry.getOriginalClassName(), entry.getNewClassName());
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return renames.isEmpty();
+    }
+
+    /**
+     * @return a hash of the renames only, which is what outputs renamed in an earlier
+     *         run depend on, unlike the rest of the class index
+     */
+    String fingerprint() {
+        List<String> parts = new ArrayList<>();
+        renames.forEach((from, to) -> parts.add(from + "=" + to));
+        parts.sort(null);
+        return ConversionManifest.hash(parts.toArray(new String[0]));
+    }
+
+    /**
+     * @return {@code content} with every indexed class name replaced, or the same
+     *         instance if nothing was renamed
+     */
+    String rename(String content) {
+        if (renames.isEmpty()) {
+            return content;
+        }
+        StringBuilder renamed = null;
+        int copied = 0;
+        int length = content.length();
+        int i = 0;
+        while (i < length) {
+            if (!isWordChar(content.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < length && isWordChar(content.charAt(i))) {
+                i++;
+            }
+            String replacement = renames.get(content.substring(start, i));
+            if (replacement != null) {
+                if (renamed == null) {
+                    renamed = new StringBuilder(length + 64);
+                }
+                renamed.append(content, copied, start).append(replacement);
+                copied = i;
+            }
+        }
+        if (renamed == null) {
+            return content;
+        }
+        return renamed.append(content, copied, length).toString();
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
@@ -0,0 +1,1762 @@
+package software.crud;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.ImportDeclaration;
+import com.github.javaparser.ast.PackageDeclaration;
+import com.github.javaparser.ast.expr.Name;
+import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
+
+/**
+ * The conversion pipeline, independent of any user interface: one instance converts
+ * an input tree into an output tree once. Front-ends supply the options and a
+ * {@link Listener} for log lines, streamed code and progress, call {@link #run} on a
+ * thread of their own, and may pause or cancel the run from any other thread.
+ */
+class ConversionEngine {
+    /**
+     * What to convert and how; the language, prompt and concurrency come from the
+     * {@link LanguageSettings}.
+     *
+     * @param refreshDependents whether files whose own source is unchanged keep their
+     *                          output when a dependency changed, with only the import
+     *                          fix-ups redone, instead of being converted again; the
+     *                          outputs of input files deleted since the last run are
+     *                          deleted too
+     * @param revisionDiff      the git changes since the revision the last run converted, or
+     *                          {@code null}; files moved unchanged keep their output, and the
+     *                          outputs of deleted files are deleted
+     */
+    record Options(File inputFolder, File outputFolder, boolean includeMeta, boolean aiFileNames,
+            boolean combineSmallFiles, boolean batchMode, boolean refreshDependents,
+            GitRevisionDiff revisionDiff) {
+    }
+
+    /**
+     * Receives the run's output. Calls come from the conversion threads, so
+     * implementations hand them over to their own thread if they need one.
+     */
+    interface Listener {
+        void log(String message);
+
+        /**
+         * @param percent the share of input files processed so far
+         */
+        void progress(int percent);
+
+        default void clearCode() {
+        }
+
+        /**
+         * Shows a converted file in full.
+         */
+        default void showCode(String code) {
+        }
+
+        /**
+         * Appends a token streamed while a file converts.
+         */
+        default void appendCode(String token) {
+        }
+    }
+
+    enum Outcome {
+        COMPLETED,
+        COMPLETED_WITH_FAILURES,
+        CANCELLED,
+        API_UNAVAILABLE,
+        FAILED
+    }
+
+    private final LanguageSettings settings;
+    private final Options options;
+    private final Listener listener;
+    private final File inputFolder;
+    private final File outputFolder;
+    private final Assistant api = new Assistant();
+    private final Map<String, String> convertedFilesMap = new ConcurrentHashMap<>();
+    private final StringBuilder metaContent = new StringBuilder();
+    private final StringBuilder combinedSmallFilesContent = new StringBuilder();
+    private final AtomicInteger processedFiles = new AtomicInteger();
+    private final AtomicInteger failedFiles = new AtomicInteger();
+    private final Map<File, FutureTask<String>> directoryContexts = new ConcurrentHashMap<>();
+    private final Map<File, String> convertedSignatures = new ConcurrentHashMap<>();
+    private volatile Map<File, List<File>> fileDependencies = Map.of();
+    private final Map<File, String> sourceHashes = new ConcurrentHashMap<>();
+    // Kept files whose dependencies changed, to have their imports fixed up again
+    private final Set<File> refreshedFiles = ConcurrentHashMap.newKeySet();
+    // Their restaged outputs, which already carry the renames
+    private final Set<Path> refreshedOutputs = ConcurrentHashMap.newKeySet();
+    // Last run's entries of files git reports as moved, by their new input key
+    private final Map<String, ConversionManifest.Entry> movedEntries = new ConcurrentHashMap<>();
+    private ConversionManifest manifest;
+    private MetaSummaryCache metaSummaries;
+    private SourceInventory inventory;
+    private ClassRenamer classRenamer;
+    private OutputStage outputStage;
+    private boolean reusePreviousOutputs;
+    private String combinedHash;
+    private volatile boolean cancelled;
+    private volatile boolean paused;
+    private volatile Thread runner;
+
+    ConversionEngine(LanguageSettings settings, Options options, Listener listener) {
+        this.settings = settings;
+        this.options = options;
+        this.listener = listener;
+        this.inputFolder = options.inputFolder();
+        this.outputFolder = options.outputFolder();
+    }
+
+    /**
+     * Converts the input tree on the calling thread and commits the outputs, unless the
+     * run is cancelled first.
+     */
+    Outcome run() {
+        runner = Thread.currentThread();
+        try {
+            log("API call started.");
+            if (!api.testApiConnection()) {
+                log("Failed to connect to the API.");
+                return Outcome.API_UNAVAILABLE;
+            }
+            log("API connection successful.");
+            inventory = scanInputs();
+            Map<String, ClassIndex> classIndex = indexClasses(inputFolder);
+            classRenamer = new ClassRenamer(classIndex);
+            metaSummaries = MetaSummaryCache.load(outputFolder.toPath());
+            prefetchMetaSummaries(inputFolder);
+            String classIndexFingerprint = fingerprintClassIndex(classIndex);
+            manifest = loadManifest(conversionFingerprint());
+            outputStage = new OutputStage(outputFolder.toPath(),
+                    API.shared().getIntProperty("output_staging_memory_mb", 256) * 1024L * 1024L);
+            if (manifest.recoveredCount() == 0) {
+                outputStage.discardLeftovers();
+            }
+            // Kept outputs carry the renames of the run that wrote them. Refreshing dependents
+            // also keeps them across other class index changes, such as an added class, which
+            // only affect the files depending on it
+            reusePreviousOutputs = isIncremental() && (manifest.isClassIndexUnchanged(classIndexFingerprint)
+                    || options.refreshDependents() && manifest.isRenamingUnchanged(classRenamer.fingerprint()));
+            if (options.revisionDiff() != null) {
+                log(options.revisionDiff().describe());
+                if (reusePreviousOutputs) {
+                    moveRenamedOutputs();
+                } else {
+                    log("The outputs of the last run cannot be reused; converting every file.");
+                }
+            }
+            if (options.batchMode()) {
+                processDirectoryInBatch(inputFolder, classIndex);
+            } else {
+                processDirectory(inputFolder, classIndex);
+            }
+            if (!isCancelled()) {
+                logClassIndexAndReplaceClassNames(classIndex);
+
+                // Save combined small files
+                if (options.combineSmallFiles()) {
+                    saveCombinedSmallFiles(classIndex);
+                }
+            }
+            if (!isCancelled()) {
+                commitOutputs();
+                if (options.refreshDependents()) {
+                    deleteRemovedOutputs();
+                }
+                saveManifest(classIndexFingerprint);
+            }
+            log(metaSummaries.describe());
+            log(API.shared().describeResponseCache());
+            log(API.shared().describePromptCache());
+            String routerStats = API.shared().describeRouter();
+            if (routerStats != null) {
+                log(routerStats);
+            }
+            if (isCancelled()) {
+                return Outcome.CANCELLED;
+            }
+            return failedFiles.get() > 0 ? Outcome.COMPLETED_WITH_FAILURES : Outcome.COMPLETED;
+        } catch (IOException e) {
+            log("IO Exception: " + e.getMessage());
+            e.printStackTrace();
+            return isCancelled() ? Outcome.CANCELLED : Outcome.FAILED;
+        } catch (Exception e) {
+            log("General Exception: " + e.getMessage());
+            e.printStackTrace();
+            return isCancelled() ? Outcome.CANCELLED : Outcome.FAILED;
+        } finally {
+            if (manifest != null) {
+                manifest.close();
+            }
+            saveMetaSummaries();
+            runner = null;
+        }
+    }
+
+    /**
+     * Stops the run: no further files are started, requests in flight are abandoned and
+     * nothing is committed. {@link #run} returns {@link Outcome#CANCELLED}.
+     */
+    void cancel() {
+        cancelled = true;
+        Thread thread = runner;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Holds back files not yet started until the run is resumed; files in progress
+     * finish.
+     */
+    void setPaused(boolean paused) {
+        this.paused = paused;
+        if (!paused) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return how many files could not be converted so far
+     */
+    int failedFiles() {
+        return failedFiles.get();
+    }
+
+    private void log(String message) {
+        listener.log(message);
+    }
+
+    /**
+     * Walks and reads the input tree once; every later stage queries the inventory.
+     */
+    private SourceInventory scanInputs() throws IOException {
+        long started = System.nanoTime();
+        SourceInventory scanned = SourceInventory.scan(inputFolder.toPath(), settings.getInputExtension(),
+                settings.getPackagePattern(), !usesLlmMeta());
+        log("Scanned " + scanned.files().size() + " source files in "
+                + (System.nanoTime() - started) / 1_000_000 + " ms.");
+        return scanned;
+    }
+
+    private Map<String, ClassIndex> indexClasses(File directory) throws IOException {
+        Map<String, ClassIndex> classIndex = new ConcurrentHashMap<>();
+        for (SourceInventory.SourceFile source : inventory.filesUnder(directory.toPath())) {
+            log("Indexing classes in file: " + source.path());
+            String originalClassName = source.baseName();
+            String newClassName = originalClassName;
+            if (options.aiFileNames()) {
+                newClassName = generateNewFileName(originalClassName, readFileContent(source.path().toFile()), api);
+            }
+            String packageName = source.declaredPackage();
+            ClassIndex classIndexEntry = new ClassIndex(originalClassName, newClassName, packageName,
+                    source.path().toString());
+            classIndex.put(originalClassName, classIndexEntry);
+            log("Added to classIndex: " + originalClassName + " -> " + newClassName + " in package "
+                    + packageName);
+        }
+        return classIndex;
+    }
+
+    private boolean processFile(File file, String fileContent, Map<String, ClassIndex> classIndex,
+            String originalFileName, Assistant assistant) {
+        try {
+            log("Processing file: " + file.getAbsolutePath());
+            JavaConversion javaConversion = new JavaConversion(assistant, settings);
+            if (fileContent.isEmpty()) {
+                log("File content is empty, skipping conversion.");
+                return false;
+            }
+    
+            String fullPrompt = buildConversionPrompt(file, assistant);
+            if (isSequential()) {
+                javaConversion.setStreamListener(this::streamCode);
+            }
+            javaConversion.setDependencySignatures(dependencySignatures(file));
+            List<String> parts = splitLargeFile(fileContent, assistant);
+            String convertedContent = parts != null
+                    ? convertInParts(file, fileContent, parts, fullPrompt)
+                    : javaConversion.convertCode(fileContent, fullPrompt, "");
+            return finishConversion(file, fileContent, convertedContent, classIndex, originalFileName, assistant);
+        } catch (Exception e) {
+            log("Error processing file: " + file.getAbsolutePath() + " - " + e.getMessage());
+            failedFiles.incrementAndGet();
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * @return the parts to convert a file over {@code chunk_threshold_tokens} in, or
+     *         {@code null} to convert it whole
+     */
+    private List<String> splitLargeFile(String fileContent, Assistant assistant) {
+        if (!API.shared().getBooleanProperty("chunk_large_files", true)) {
+            return null;
+        }
+        int threshold = API.shared().getIntProperty("chunk_threshold_tokens", 6000);
+        int tokens = assistant.estimateTokens(fileContent);
+        if (tokens <= threshold) {
+            return null;
+        }
+        int maxChars = (int) ((long) fileContent.length() * threshold / tokens);
+        return SourceChunker.split(fileContent, settings.getInputExtension(), maxChars);
+    }
+
+    /**
+     * Converts the parts of a large file in parallel, each with the declarations of the
+     * whole file, and stitches the results into one compilation unit. The parts' requests
+     * count towards {@code llm_max_concurrent_calls} like any other, so the run as a
+     * whole stays within that cap.
+     */
+    private String convertInParts(File file, String fileContent, List<String> parts, String prompt)
+            throws IOException {
+        log("Converting " + file.getName() + " in " + parts.size() + " parts...");
+        String outline = SourceSignatures.extract(fileContent, settings.getInputExtension());
+        String dependencies = dependencySignatures(file);
+        String[] converted = new String[parts.size()];
+        runConcurrently(parts.size(), API.shared().getIntProperty("chunk_concurrency", 4), index -> {
+            if (isCancelled()) {
+                throw new CancellationException("Conversion cancelled");
+            }
+            JavaConversion javaConversion = new JavaConversion(new Assistant(), settings);
+            javaConversion.setDependencySignatures(dependencies);
+            javaConversion.setPartOfFile(index + 1, parts.size(), outline);
+            converted[index] = javaConversion.convertCode(parts.get(index), prompt, "");
+        });
+        for (int i = 0; i < converted.length; i++) {
+            if (converted[i] == null || converted[i].trim().isEmpty()) {
+                throw new IOException("Part " + (i + 1) + " of " + file.getName() + " was not converted");
+            }
+        }
+        return SourceChunker.stitch(Arrays.asList(converted));
+    }
+
+    private String buildConversionPrompt(File file, Assistant assistant) throws IOException {
+        return directoryContext(file.getParentFile(), assistant);
+    }
+
+    /**
+     * Builds the prompt shared by every file in {@code directory} (guidelines, project
+     * structure and the meta content of all its files) once per run, so the prefix is
+     * byte-for-byte identical across requests and can be served from the provider's
+     * prompt cache.
+     */
+    private String directoryContext(File directory, Assistant assistant) throws IOException {
+        FutureTask<String> task = new FutureTask<>(() -> {
+            // Generate directory structure and meta content
+            String directoryStructure = generateDirectoryStructure(directory);
+            String directoryMetaContent = generateMetaContent(directory, null, assistant);
+
+            return settings.getPrompt() + "\nProject structure:\n" + directoryStructure
+                    + "The following is the meta content of the classes in this directory to give more context. Please only use it as a reference for creating packages, imports and invoking other methods:\n"
+                    + directoryMetaContent;
+        });
+        FutureTask<String> context = directoryContexts.putIfAbsent(directory, task);
+        if (context == null) {
+            context = task;
+            task.run();
+        }
+        try {
+            return context.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while building the context for " + directory, e);
+        } catch (ExecutionException e) {
+            directoryContexts.remove(directory, context);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * Post-processes converted code (packages, imports, class names, syntax) and saves it.
+     */
+    private boolean finishConversion(File file, String fileContent, String convertedContent,
+            Map<String, ClassIndex> classIndex, String originalFileName, Assistant assistant) {
+        try {
+            if (convertedContent.trim().isEmpty()) {
+                log("Initial conversion failed or resulted in empty content.");
+                failedFiles.incrementAndGet();
+                return false;
+            }
+    
+            listener.clearCode();
+            listener.showCode(convertedContent);
+    
+            // Update package and import statements
+            log("Updating package and import statements...");
+            convertedContent = updatePackageAndImports(file, convertedContent, classIndex);
+    
+            // Extract the original class/struct name or fallback to file name
+            log("Extracting original class name...");
+            String originalClassName = extractOriginalClassName(fileContent, originalFileName);
+            log("Extracted original class name: " + originalClassName);
+    
+            // Always use the original class name unless AI file naming is enabled
+            log("Retrieving new class name from classIndex...");
+            String newClassName = originalClassName; // Default to the original class name
+            if (options.aiFileNames()) {
+                newClassName = classIndex.containsKey(originalClassName)
+                        ? classIndex.get(originalClassName).getNewClassName()
+                        : generateNewFileName(originalClassName, fileContent, assistant); // Use AI to generate new name only if option is selected
+            }
+            log("Final class name to use: " + newClassName);
+            // The class itself is renamed along with its references by the ClassRenamer pass at the end
+    
+            // Check and fix syntax errors
+            log("Checking and fixing syntax errors...");
+            convertedContent = checkAndFixSyntax(convertedContent, assistant);
+    
+            // Ensure the package declaration is present and correct
+            log("Extracting package name from file path...");
+            String packageName = getPackageNameFromFilePath(file.getAbsolutePath());
+            log("Package name: " + packageName);
+            Pattern packagePattern = Pattern.compile("^\\s*package\\s+.+;", Pattern.MULTILINE);
+            Matcher packageMatcher = packagePattern.matcher(convertedContent);
+            if (!packageMatcher.find() && !packageName.isEmpty()) {
+                convertedContent = "package " + packageName + ";\n\n" + convertedContent;
+            }
+    
+            // Generate the final file name with the correct extension
+            log("Generating final file name...");
+            String newFileName = newClassName + settings.getOutputExtension();
+            log("Generated new file name: " + newFileName);
+    
+            File outputFile = saveConvertedFile(file, convertedContent, newFileName, assistant);
+            convertedFilesMap.put(file.getAbsolutePath(), newFileName);
+            convertedSignatures.put(file, JavaSignatures.extract(convertedContent));
+            if (outputFile != null) {
+                recordConversion(file, outputFile, null);
+            }
+            return true;
+        } catch (Exception e) {
+            log("Error processing file: " + file.getAbsolutePath() + " - " + e.getMessage());
+            failedFiles.incrementAndGet();
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private boolean isSequential() {
+        return settings.getConversionConcurrency() == 1;
+    }
+
+    private boolean streamCode(String token, CharSequence textSoFar) {
+        if (isCancelled()) {
+            // Abandon the request rather than stop it, so the partial text is not cached
+            throw new CancellationException("Conversion cancelled");
+        }
+        listener.appendCode(token);
+        return true;
+    }
+
+    private String getPackageNameFromFilePath(String filePath) {
+        Path inputDirPath = Paths.get(inputFolder.getAbsolutePath());
+        Path fullPath = Paths.get(filePath).normalize();
+        Path relativePath = inputDirPath.relativize(fullPath.getParent()).normalize();
+        log("Normalized relative path: " + relativePath.toString());
+
+        // Convert the relative path to package name format (excluding the file name)
+        String packageName = relativePath.toString().replace(File.separatorChar, '.');
+
+        // Remove leading, trailing, and consecutive dots
+        packageName = packageName.replaceAll("^\\.|\\.$", "");
+        packageName = packageName.replaceAll("\\.{2,}", ".");
+
+        return packageName.isEmpty() ? "" : packageName;
+    }
+
+    private String checkAndFixSyntax(String fileContent, Assistant assistant) {
+        JavaParser parser = new JavaParser();
+        ParseResult<CompilationUnit> parseResult = parser.parse(fileContent);
+        if (parseResult.isSuccessful() && parseResult.getResult().isPresent()) {
+            CompilationUnit cu = parseResult.getResult().get();
+            SyntaxChecker syntaxChecker = new SyntaxChecker(assistant, settings);
+            return syntaxChecker.checkAndFixSyntax(cu);
+        }
+        return fileContent;
+    }
+
+    private String updatePackageAndImports(File file, String fileContent, Map<String, ClassIndex> classIndex) {
+        JavaParser parser = new JavaParser();
+        ParseResult<CompilationUnit> parseResult = parser.parse(fileContent);
+        if (parseResult.isSuccessful() && parseResult.getResult().isPresent()) {
+            CompilationUnit cu = parseResult.getResult().get();
+
+            // Ensure the package declaration is present
+            ClassIndex currentClassIndex = getCurrentClassIndex(file.getName(), classIndex);
+            if (currentClassIndex != null && !cu.getPackageDeclaration().isPresent()) {
+                cu.setPackageDeclaration(new PackageDeclaration(new Name(currentClassIndex.getPackageName())));
+            }
+
+            cu.accept(new PackageAndImportVisitor(file, classIndex), null);
+            return cu.toString();
+        }
+        return fileContent;
+    }
+
+    private ClassIndex getCurrentClassIndex(String currentFileName, Map<String, ClassIndex> classIndex) {
+        String currentClassName = currentFileName.substring(0, currentFileName.lastIndexOf("."));
+        return classIndex.get(currentClassName);
+    }
+
+    private String generateNewFileName(String currentClassName, String fileContent, Assistant assistant) {
+        String prompt = "Create a new name for the Java class '" + currentClassName
+                + "'. It must be in English. Respond with XML, containing the new <filename>{filename}</filename> only. File Content: "
+                + fileContent;
+        String newFileName;
+        try {
+            int maxTokens = assistant.chooseMaxTokens(prompt, 64, settings.getMaxTokens());
+            String response = assistant.generateText(prompt, maxTokens, false);
+            // Extracting the new file name from the AI response
+            newFileName = extractFromXml(response, "filename");
+        } catch (AIServiceException e) {
+            log("Failed to generate a new name for " + currentClassName + ": " + e.getMessage());
+            newFileName = null;
+        }
+        if (newFileName == null || newFileName.isEmpty()) {
+            newFileName = currentClassName; // Fallback to the current class name if AI fails to generate a new name
+        }
+        newFileName = sanitizeFileName(newFileName.trim());
+
+        // Remove any trailing extension if present
+        int extensionIndex = newFileName.lastIndexOf('.');
+        if (extensionIndex != -1) {
+            newFileName = newFileName.substring(0, extensionIndex);
+        }
+
+        return newFileName;
+    }
+
+    private String extractFromXml(String xml, String tagName) {
+        String regex = "<" + tagName + ">(.+?)</" + tagName + ">";
+        Pattern pattern = Pattern.compile(regex);
+        Matcher matcher = pattern.matcher(xml);
+        if (matcher.find()) {
+            return matcher.group(1);
+        }
+        return "";
+    }
+
+    private String sanitizeFileName(String fileName) {
+        // Remove invalid characters for a Windows file path
+        return fileName.replaceAll("[<>:\"/\\|?*]", "").trim();
+    }
+
+    /**
+     * @return the staged output file, or {@code null} if it could not be staged
+     */
+    private File saveConvertedFile(File originalFile, String convertedContent, String newFileName,
+            Assistant assistant) throws IOException {
+        log("Saving converted file: " + newFileName);
+
+        // Extract the package name
+        String packageName = getPackageNameFromFilePath(originalFile.getPath());
+        log("Extracted package name: " + packageName);
+
+        // Mirror the package in the folder structure
+        Path outputDirPath = outputFolder.toPath();
+        if (!packageName.isEmpty()) {
+            Path packagePath = Paths.get(packageName.replace('.', File.separatorChar));
+            outputDirPath = outputDirPath.resolve(packagePath);
+        }
+
+        // Stage the converted file; it reaches the output directory when the run commits
+        Path outputFilePath = outputDirPath.resolve(newFileName);
+        if (!newFileName.endsWith(".java")) {
+            outputFilePath = Path.of(outputFilePath.toString() + ".java");
+        }
+        File outputFile = outputFilePath.toFile();
+
+        try {
+            outputStage.stage(outputFilePath, convertedContent);
+            assistant.clearHistory();
+            log("Converted and staged: " + outputFile.getAbsolutePath());
+        } catch (IOException e) {
+            log("Error staging file: " + outputFile.getAbsolutePath());
+            e.printStackTrace();
+            return null;
+        }
+        return outputFile;
+    }
+
+    /**
+     * Converts every input file under {@code directory} on a fixed pool of
+     * {@code conversion_concurrency} workers. Each file gets its own {@link Assistant}
+     * so conversation history never leaks between files, and per-file results are
+     * collected by position so the combined output does not depend on completion order.
+     */
+    private void processDirectory(File directory, Map<String, ClassIndex> classIndex) throws IOException {
+        if (!directory.toPath().startsWith(inputFolder.toPath())) {
+            return;
+        }
+
+        List<File> files = collectInputFiles(directory);
+        int totalFiles = files.size();
+        String[] combinedResults = new String[totalFiles];
+        String[] metaResults = new String[totalFiles];
+
+        DependencyGraph graph = buildDependencyGraph(files);
+        boolean[] upToDate = findUpToDateFiles(files, graph);
+        boolean[] packed = convertPackedFiles(files, graph, upToDate, classIndex, combinedResults, metaResults);
+        forEachFileInDependencyOrder(files, graph, failingAlone(files, index -> {
+            if (packed[index]) {
+                return;
+            }
+            if (upToDate[index]) {
+                reuseConversion(files.get(index), totalFiles, index, combinedResults, classIndex);
+            } else {
+                convertInputFile(files.get(index), index, totalFiles, classIndex, combinedResults, metaResults);
+            }
+        }));
+
+        Arrays.stream(combinedResults).filter(result -> result != null).forEach(combinedSmallFilesContent::append);
+        Arrays.stream(metaResults).filter(result -> result != null).forEach(metaContent::append);
+
+    }
+
+    /**
+     * Converts the directory through the provider's batch API: every prompt is built
+     * up front and submitted as one job, and once the job finishes each response goes
+     * through the same post-processing as an interactive conversion. Files whose
+     * request failed in the batch are converted interactively instead.
+     */
+    private void processDirectoryInBatch(File directory, Map<String, ClassIndex> classIndex)
+            throws IOException, InterruptedException {
+        List<File> files = collectInputFiles(directory);
+        int totalFiles = files.size();
+        String[] contents = new String[totalFiles];
+        JavaConversion.PreparedConversion[] prepared = new JavaConversion.PreparedConversion[totalFiles];
+        String[] combinedResults = new String[totalFiles];
+        boolean[] upToDate = findUpToDateFiles(files, buildDependencyGraph(files));
+
+        log("Preparing " + totalFiles + " conversion requests for batch submission...");
+        forEachFileConcurrently(totalFiles, failingAlone(files, index -> {
+            File file = files.get(index);
+            if (upToDate[index]) {
+                reuseConversion(file, totalFiles, index, combinedResults, classIndex);
+                return;
+            }
+            String fileContent = readFileContent(file);
+            if (fileContent.isEmpty()) {
+                return;
+            }
+            Assistant assistant = new Assistant();
+            String prompt = isCombinedSmallFile(file) ? settings.getPrompt() : buildConversionPrompt(file, assistant);
+            contents[index] = fileContent;
+            prepared[index] = new JavaConversion(assistant, settings).prepareConversion(fileContent, prompt, "");
+        }));
+
+        List<BatchClient.BatchRequest> requests = new ArrayList<>();
+        for (int i = 0; i < totalFiles; i++) {
+            if (prepared[i] != null) {
+                requests.add(new BatchClient.BatchRequest(batchRequestId(i), prepared[i].requestBody(),
+                        prepared[i].cachedPrefixLength(), prepared[i].maxTokens()));
+            }
+        }
+        if (requests.isEmpty()) {
+            log("Nothing to submit; every file is up to date.");
+            Arrays.stream(combinedResults).filter(result -> result != null)
+                    .forEach(combinedSmallFilesContent::append);
+            return;
+        }
+        BatchClient batchClient = API.shared().getBatchClient();
+        String batchId = batchClient.submit(requests);
+        log("Submitted batch " + batchId + " with " + requests.size() + " requests.");
+
+        long pollMillis = API.shared().getIntProperty("batch_poll_interval_seconds", 60) * 1000L;
+        BatchClient.Status status;
+        while ((status = batchClient.poll(batchId)) == BatchClient.Status.IN_PROGRESS) {
+            if (isCancelled()) {
+                log("Stopped waiting for batch " + batchId + "; it keeps running on the provider.");
+                return;
+            }
+            log("Batch " + batchId + " is still in progress...");
+            Thread.sleep(pollMillis);
+        }
+        if (status == BatchClient.Status.FAILED) {
+            throw new IOException("Batch " + batchId + " failed.");
+        }
+
+        Map<String, String> results = batchClient.fetchResults(batchId);
+        log("Batch " + batchId + " completed with " + results.size() + " results.");
+        forEachFileConcurrently(totalFiles, failingAlone(files, index -> {
+            if (prepared[index] == null) {
+                return;
+            }
+            File file = files.get(index);
+            String response = results.get(batchRequestId(index));
+            Assistant assistant = new Assistant();
+            if (response == null) {
+                log("No batch result for " + file.getName() + ", converting interactively.");
+                if (isCombinedSmallFile(file)) {
+                    combinedResults[index] = combineSmallFile(contents[index], file.getName(), classIndex,
+                            assistant, dependencySignatures(file));
+                    recordConversion(file, null, combinedResults[index]);
+                } else {
+                    processFile(file, contents[index], classIndex, file.getName(), assistant);
+                }
+            } else {
+                String convertedContent = new JavaConversion(assistant, settings)
+                        .completeConversion(response, prepared[index]);
+                if (isCombinedSmallFile(file)) {
+                    combinedResults[index] = toCombinedFragment(convertedContent, file.getName(), classIndex);
+                    recordConversion(file, null, combinedResults[index]);
+                } else {
+                    finishConversion(file, contents[index], convertedContent, classIndex, file.getName(),
+                            assistant);
+                }
+            }
+            int progress = (int) ((processedFiles.incrementAndGet() / (double) totalFiles) * 100);
+            listener.progress(Math.min(progress, 100));
+        }));
+
+        Arrays.stream(combinedResults).filter(result -> result != null).forEach(combinedSmallFilesContent::append);
+    }
+
+    private String batchRequestId(int index) {
+        return "file-" + index;
+    }
+
+    private boolean isCombinedSmallFile(File file) {
+        return file.length() <= 10 * 1024 && options.combineSmallFiles();
+    }
+
+    private interface FileTask {
+        void run(int index) throws Exception;
+    }
+
+    /**
+     * Makes a failure of {@code task} fail only its file: the error is logged and counted
+     * in {@link #failedFiles}, and the other files carry on. Cancellation still ends the
+     * run.
+     */
+    private FileTask failingAlone(List<File> files, FileTask task) {
+        return index -> {
+            try {
+                task.run(index);
+            } catch (Exception e) {
+                if (isCancelled() || e instanceof CancellationException || e instanceof InterruptedException) {
+                    throw e;
+                }
+                log("Error processing file: " + files.get(index).getAbsolutePath() + " - " + e.getMessage());
+                failedFiles.incrementAndGet();
+                e.printStackTrace();
+            }
+        };
+    }
+
+    /**
+     * Runs {@code task} for indexes {@code 0..count-1} on a fixed pool of
+     * {@code conversion_concurrency} workers and waits for all of them.
+     */
+    private void forEachFileConcurrently(int count, FileTask task) throws IOException {
+        runConcurrently(count, settings.getConversionConcurrency(), task);
+    }
+
+    private void runConcurrently(int count, int workers, FileTask task) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(count, workers)),
+                conversionThreadFactory());
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                int index = i;
+                futures.add(executor.submit(() -> {
+                    task.run(index);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log("Conversion interrupted.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Links each file to the files whose class names it mentions, and remembers the
+     * links so conversions can be given their dependencies' converted signatures.
+     */
+    private DependencyGraph buildDependencyGraph(List<File> files) throws IOException {
+        List<String> classNames = new ArrayList<>(files.size());
+        List<String> sources = new ArrayList<>(files.size());
+        for (File file : files) {
+            String fileName = file.getName();
+            classNames.add(fileName.substring(0, fileName.lastIndexOf('.')));
+            sources.add(readFileContent(file));
+            sourceHashes.put(file, inventory.get(file.toPath()).hash());
+        }
+        DependencyGraph graph = DependencyGraph.build(classNames, sources);
+        Map<File, List<File>> dependencies = new HashMap<>();
+        for (int i = 0; i < files.size(); i++) {
+            List<File> fileDependencyList = new ArrayList<>();
+            for (int dependency : graph.dependenciesOf(i)) {
+                fileDependencyList.add(files.get(dependency));
+            }
+            dependencies.put(files.get(i), fileDependencyList);
+        }
+        fileDependencies = dependencies;
+        long independentFiles = dependencies.values().stream().filter(List::isEmpty).count();
+        log("Dependency graph: " + graph.size() + " files, " + graph.edgeCount() + " dependencies, "
+                + independentFiles + " files without dependencies.");
+        return graph;
+    }
+
+    private String dependencySignatures(File file) {
+        StringBuilder signatures = new StringBuilder();
+        for (File dependency : fileDependencies.getOrDefault(file, List.of())) {
+            String dependencySignatures = convertedSignatures.get(dependency);
+            if (dependencySignatures != null && !dependencySignatures.isEmpty()) {
+                signatures.append("// ").append(dependency.getName()).append("\n")
+                        .append(dependencySignatures).append("\n\n");
+            }
+        }
+        return signatures.toString();
+    }
+
+    /**
+     * Runs {@code task} for every node of {@code graph}, starting a file only once the
+     * files it depends on have finished, with at most {@code conversion_concurrency}
+     * running at a time. Among ready files, those with the most dependents go first so
+     * the rest of the graph opens up sooner.
+     */
+    private void forEachFileInDependencyOrder(List<File> files, DependencyGraph graph, FileTask task)
+            throws IOException {
+        int concurrency = settings.getConversionConcurrency();
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, conversionThreadFactory());
+        CompletionService<Integer> completions = new ExecutorCompletionService<>(executor);
+        PriorityQueue<Integer> ready = new PriorityQueue<>(
+                Comparator.comparingInt(graph::dependentCount).reversed().thenComparingInt(node -> node));
+        ready.addAll(graph.start());
+        try {
+            int running = 0;
+            for (int remaining = graph.size(); remaining > 0;) {
+                while (!ready.isEmpty() && running < concurrency) {
+                    int node = ready.poll();
+                    completions.submit(() -> {
+                        task.run(node);
+                        return node;
+                    });
+                    running++;
+                }
+                if (running == 0) {
+                    int released = graph.releaseCycle();
+                    if (released < 0) {
+                        break;
+                    }
+                    log("Dependency cycle detected, converting " + files.get(released).getName()
+                            + " before its dependencies.");
+                    ready.add(released);
+                    continue;
+                }
+                int finished = completions.take().get();
+                running--;
+                remaining--;
+                ready.addAll(graph.complete(finished));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log("Conversion interrupted.");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private boolean isIncremental() {
+        return API.shared().getBooleanProperty("incremental_conversion", true);
+    }
+
+    /**
+     * Everything besides the sources that shapes the output; a manifest written under a
+     * different fingerprint is ignored.
+     */
+    private String conversionFingerprint() {
+        return ConversionManifest.hash(settings.getPrompt(), settings.getTargetLanguage(),
+                settings.getInputExtension(), settings.getOutputExtension(),
+                Integer.toString(settings.getMaxTokens()),
+                Boolean.toString(API.shared().getBooleanProperty("adaptive_max_tokens", true)),
+                API.shared().getModelFingerprint(),
+                Boolean.toString(options.aiFileNames()),
+                Boolean.toString(options.combineSmallFiles()));
+    }
+
+    /**
+     * Loads the manifest of the last completed run together with the journal of an
+     * interrupted one, which is resumed when {@code resume_interrupted_runs} is set.
+     */
+    private ConversionManifest loadManifest(String fingerprint) {
+        ProgressJournal journal = null;
+        try {
+            journal = ProgressJournal.open(outputFolder.toPath(), fingerprint,
+                    API.shared().getBooleanProperty("resume_interrupted_runs", true),
+                    API.shared().getIntProperty("journal_sync_batch", 32),
+                    API.shared().getIntProperty("journal_sync_interval_ms", 1000));
+        } catch (IOException e) {
+            log("Progress journal unavailable, an interrupted run will start over: " + e.getMessage());
+        }
+        ConversionManifest loaded = ConversionManifest.load(outputFolder.toPath(), fingerprint, journal);
+        if (loaded.recoveredCount() > 0) {
+            log("Resuming an interrupted run: " + loaded.recoveredCount()
+                    + " files were already converted.");
+        }
+        return loaded;
+    }
+
+    private String fingerprintClassIndex(Map<String, ClassIndex> classIndex) {
+        List<String> parts = new ArrayList<>();
+        for (ClassIndex ci : classIndex.values()) {
+            parts.add(ci.getOriginalClassName() + "=" + ci.getPackageName() + "." + ci.getNewClassName());
+        }
+        parts.sort(null);
+        return ConversionManifest.hash(parts.toArray(new String[0]));
+    }
+
+    private String inputKey(File file) {
+        return relativeKey(inputFolder, file);
+    }
+
+    private String outputKey(File file) {
+        return relativeKey(outputFolder, file);
+    }
+
+    private String relativeKey(File root, File file) {
+        Path relative = root.toPath().toAbsolutePath().normalize()
+                .relativize(file.toPath().toAbsolutePath().normalize());
+        return relative.toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Marks the files that can keep last run's output: same source hash, same
+     * dependencies, outputs still present, and every dependency, directly or not,
+     * up to date as well. With {@link Options#refreshDependents} a changed dependency,
+     * or dependency list, only queues the file for {@link #refreshedFiles}, as does a move.
+     */
+    private boolean[] findUpToDateFiles(List<File> files, DependencyGraph graph) {
+        boolean[] upToDate = new boolean[files.size()];
+        boolean[] unchangedItself = new boolean[files.size()];
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            ConversionManifest.Entry entry = reusableEntry(file);
+            unchangedItself[i] = entry != null && entry.sourceHash().equals(sourceHashes.get(file))
+                    && outputsExist(entry);
+            upToDate[i] = unchangedItself[i] && entry.dependencies().equals(dependencyKeys(file));
+        }
+        // A changed file invalidates everything that depends on it
+        boolean changed;
+        do {
+            changed = false;
+            for (int i = 0; i < files.size(); i++) {
+                if (upToDate[i] && graph.dependenciesOf(i).stream().anyMatch(dependency -> !upToDate[dependency])) {
+                    upToDate[i] = false;
+                    changed = true;
+                }
+            }
+        } while (changed);
+        if (options.refreshDependents()) {
+            for (int i = 0; i < files.size(); i++) {
+                if (unchangedItself[i] && (!upToDate[i] || movedEntries.containsKey(inputKey(files.get(i))))) {
+                    upToDate[i] = true;
+                    refreshedFiles.add(files.get(i));
+                }
+            }
+        }
+
+        int unchanged = 0;
+        for (boolean fileUpToDate : upToDate) {
+            unchanged += fileUpToDate ? 1 : 0;
+        }
+        log(unchanged + " of " + files.size() + " files are unchanged since the last run.");
+        return upToDate;
+    }
+
+    /**
+     * @return the entry of an interrupted run of the same settings, else, when
+     *         incremental, that of the last completed run, moved along with the file
+     */
+    private ConversionManifest.Entry reusableEntry(File file) {
+        String key = inputKey(file);
+        ConversionManifest.Entry entry = manifest.recoveredEntry(key);
+        if (entry != null || !reusePreviousOutputs) {
+            return entry;
+        }
+        ConversionManifest.Entry moved = movedEntries.get(key);
+        return moved != null ? moved : manifest.previousEntry(key);
+    }
+
+    /**
+     * Stages the outputs of files git reports as moved to another directory without
+     * changes under the same name, so they are kept there instead of converted again.
+     * Output folders mirror the input folders and the class name is the file name, so
+     * only the package and imports can differ, and those are refreshed. Other renames are
+     * converted as new files.
+     */
+    private void moveRenamedOutputs() throws IOException {
+        int moved = 0;
+        for (GitRevisionDiff.Rename rename : options.revisionDiff().renames()) {
+            ConversionManifest.Entry entry = manifest.previousEntry(rename.from());
+            if (!rename.isExact() || entry == null || entry.combinedFragment() != null || entry.outputs() == null
+                    || !fileNameOf(rename.from()).equals(fileNameOf(rename.to()))) {
+                continue;
+            }
+            List<String> outputs = new ArrayList<>();
+            for (String output : entry.outputs()) {
+                if (!directoryOf(output).equals(directoryOf(rename.from()))
+                        || !outputStage.exists(outputFolder.toPath().resolve(output))) {
+                    outputs = null;
+                    break;
+                }
+                outputs.add(directoryOf(rename.to()) + fileNameOf(output));
+            }
+            if (outputs == null) {
+                continue;
+            }
+            for (int i = 0; i < outputs.size(); i++) {
+                Path target = outputFolder.toPath().resolve(outputs.get(i));
+                outputStage.stage(target, outputStage.read(outputFolder.toPath().resolve(entry.outputs().get(i))));
+                refreshedOutputs.add(target.toAbsolutePath().normalize());
+            }
+            movedEntries.put(rename.to(), new ConversionManifest.Entry(entry.sourceHash(), outputs,
+                    entry.outputHash(), entry.dependencies(), null));
+            moved++;
+        }
+        if (moved > 0) {
+            log("Moved the outputs of " + moved + " files that were moved without changes.");
+        }
+    }
+
+    /**
+     * Deletes the outputs of input files that were deleted or renamed away since the last
+     * run, unless a file of this run has an output of the same name.
+     */
+    private void deleteRemovedOutputs() throws IOException {
+        Set<String> currentOutputs = new HashSet<>();
+        for (ConversionManifest.Entry entry : manifest.entries().values()) {
+            if (entry.outputs() != null) {
+                currentOutputs.addAll(entry.outputs());
+            }
+        }
+        int deleted = 0;
+        for (Map.Entry<String, ConversionManifest.Entry> previous : manifest.previousEntries().entrySet()) {
+            List<String> outputs = previous.getValue().outputs();
+            if (outputs == null || manifest.get(previous.getKey()) != null || !isRemovedInput(previous.getKey())) {
+                continue;
+            }
+            for (String output : outputs) {
+                Path path = outputFolder.toPath().resolve(output);
+                if (!currentOutputs.contains(output) && Files.deleteIfExists(path)) {
+                    deleted++;
+                    deleteEmptyDirectories(path.getParent());
+                }
+            }
+        }
+        if (deleted > 0) {
+            log("Deleted " + deleted + " outputs of input files that were deleted or renamed.");
+        }
+    }
+
+    /**
+     * @return whether the input file at {@code key} is gone for good: git reports it as
+     *         deleted or renamed away, or, when refreshing dependents as watch mode does,
+     *         it no longer exists
+     */
+    private boolean isRemovedInput(String key) {
+        return options.revisionDiff() != null && options.revisionDiff().isRemoved(key)
+                || options.refreshDependents() && !Files.exists(inputFolder.toPath().resolve(key));
+    }
+
+    private void deleteEmptyDirectories(Path directory) throws IOException {
+        Path root = outputFolder.toPath().toAbsolutePath().normalize();
+        Path current = directory.toAbsolutePath().normalize();
+        while (current.startsWith(root) && !current.equals(root)) {
+            try (var entries = Files.list(current)) {
+                if (entries.findAny().isPresent()) {
+                    return;
+                }
+            }
+            Files.delete(current);
+            current = current.getParent();
+        }
+    }
+
+    private static String directoryOf(String key) {
+        return key.substring(0, key.lastIndexOf('/') + 1);
+    }
+
+    private static String fileNameOf(String key) {
+        return key.substring(key.lastIndexOf('/') + 1);
+    }
+
+    private boolean outputsExist(ConversionManifest.Entry entry) {
+        if (entry.combinedFragment() != null) {
+            return true;
+        }
+        if (entry.outputs() == null || entry.outputs().isEmpty() || !entry.outputs().stream()
+                .allMatch(output -> outputStage.exists(outputFolder.toPath().resolve(output)))) {
+            return false;
+        }
+        if (entry.outputHash() == null) {
+            return true;
+        }
+        // An output edited or torn since it was recorded is converted again
+        try {
+            Path output = outputFolder.toPath().resolve(entry.outputs().get(0));
+            return entry.outputHash().equals(ConversionManifest.hash(outputStage.read(output)));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private List<String> dependencyKeys(File file) {
+        List<String> keys = new ArrayList<>();
+        for (File dependency : fileDependencies.getOrDefault(file, List.of())) {
+            keys.add(inputKey(dependency));
+        }
+        keys.sort(null);
+        return keys;
+    }
+
+    /**
+     * Takes a file's result from the last run instead of converting it again.
+     */
+    private void reuseConversion(File file, int totalFiles, int index, String[] combinedResults,
+            Map<String, ClassIndex> classIndex) throws IOException {
+        String key = inputKey(file);
+        boolean recovered = manifest.recoveredEntry(key) != null;
+        ConversionManifest.Entry entry = reusableEntry(file);
+        log((recovered ? "Already converted before the interruption, skipping: "
+                : "Unchanged since the last run, skipping: ") + file.getName());
+        if (entry.combinedFragment() != null) {
+            combinedResults[index] = entry.combinedFragment();
+            convertedSignatures.put(file, JavaSignatures.extract(entry.combinedFragment()));
+        } else {
+            Path output = outputFolder.toPath().resolve(entry.outputs().get(0));
+            convertedFilesMap.put(file.getAbsolutePath(), output.getFileName().toString());
+            // An output the interrupted run left staged is taken over and renamed with this run's
+            String content = outputStage.read(output);
+            if (refreshedFiles.contains(file)) {
+                String refreshed = updatePackageAndImports(file, content, classIndex);
+                if (!refreshed.equals(content)) {
+                    log("Refreshed the imports of " + output.getFileName() + " after a dependency changed.");
+                    outputStage.stage(output, refreshed);
+                    refreshedOutputs.add(output.toAbsolutePath().normalize());
+                    content = refreshed;
+                    entry = entry.withOutputHash(ConversionManifest.hash(refreshed));
+                }
+            }
+            convertedSignatures.put(file, JavaSignatures.extract(content));
+        }
+        manifest.keep(key, entry);
+        int progress = (int) ((processedFiles.incrementAndGet() / (double) totalFiles) * 100);
+        listener.progress(Math.min(progress, 100));
+    }
+
+    private void recordConversion(File file, File outputFile, String combinedFragment) {
+        String sourceHash = sourceHashes.get(file);
+        if (manifest == null || sourceHash == null) {
+            return;
+        }
+        List<String> outputs = List.of();
+        String outputHash = null;
+        if (outputFile != null) {
+            outputs = List.of(outputKey(outputFile));
+            try {
+                outputHash = ConversionManifest.hash(outputStage.read(outputFile.toPath()));
+            } catch (IOException e) {
+                log("Could not hash " + outputFile.getName() + ": " + e.getMessage());
+            }
+        }
+        manifest.put(inputKey(file), new ConversionManifest.Entry(sourceHash, outputs, outputHash,
+                dependencyKeys(file), combinedFragment));
+    }
+
+    private void saveManifest(String classIndexFingerprint) {
+        long removed = manifest.previousEntries().keySet().stream()
+                .filter(key -> manifest.get(key) == null && !Files.exists(inputFolder.toPath().resolve(key)))
+                .filter(key -> !isRemovedInput(key))
+                .count();
+        if (removed > 0) {
+            log(removed + " input files were removed since the last run; their outputs were kept.");
+        }
+        try {
+            String revision = options.revisionDiff() != null ? options.revisionDiff().toRevision()
+                    : GitRevisionDiff.head(inputFolder);
+            manifest.save(classIndexFingerprint, classRenamer.fingerprint(), combinedHash, revision);
+        } catch (IOException e) {
+            log("Failed to save the conversion manifest: " + e.getMessage());
+        }
+    }
+
+    private void logClassIndexAndReplaceClassNames(Map<String, ClassIndex> classIndex) throws IOException {
+        log("Class index before replaceClassNamesAcrossAllFiles:");
+        for (Map.Entry<String, ClassIndex> entry : classIndex.entrySet()) {
+            String className = entry.getKey();
+            ClassIndex classIndexValue = entry.getValue();
+            log("- Class: " + className);
+            log("  Original Name: " + classIndexValue.getOriginalClassName());
+            log("  New Name: " + classIndexValue.getNewClassName());
+            log("  Package: " + classIndexValue.getPackageName());
+            log("  File Path: " + classIndexValue.getFilePath());
+        }
+        replaceClassNamesAcrossAllFiles();
+    }
+
+    private void convertInputFile(File file, int index, int totalFiles, Map<String, ClassIndex> classIndex,
+            String[] combinedResults, String[] metaResults) throws IOException, InterruptedException {
+        awaitResume();
+        if (isCancelled()) {
+            return;
+        }
+        Assistant assistant = new Assistant();
+        if (isSequential()) {
+            listener.clearCode();
+        }
+        String fileContent = readFileContent(file);
+        if (isCombinedSmallFile(file)) {
+            combinedResults[index] = combineSmallFile(fileContent, file.getName(), classIndex, assistant,
+                    dependencySignatures(file));
+            if (combinedResults[index] != null) {
+                convertedSignatures.put(file, JavaSignatures.extract(combinedResults[index]));
+                recordConversion(file, null, combinedResults[index]);
+            }
+        } else {
+            boolean isProcessed = processFile(file, fileContent, classIndex, file.getName(), assistant);
+            if (isProcessed) {
+                collectMetaContent(file, index, metaResults, assistant);
+            }
+        }
+        int progress = (int) ((processedFiles.incrementAndGet() / (double) totalFiles) * 100);
+        listener.progress(Math.min(progress, 100));
+    }
+
+    private void collectMetaContent(File file, int index, String[] metaResults, Assistant assistant)
+            throws IOException {
+        if (!options.includeMeta()) {
+            return;
+        }
+        try {
+            metaResults[index] = generateMetaContent(file.getParentFile(), file, assistant);
+        } catch (AIServiceException e) {
+            log("Failed to generate meta content for " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Converts the small files that need converting in packs, several files per
+     * request: files of one directory are binned up to {@code pack_max_tokens} and
+     * {@code pack_max_files}, and every file the response returns as valid Java goes
+     * through the usual post-processing. Files a pack did not return, or returned
+     * invalid, are left to be converted on their own.
+     *
+     * <p>Packs run before the dependency-ordered pass, so only files whose dependencies
+     * in the directory are all up to date are packed; the others wait for their
+     * dependencies to be converted first.
+     *
+     * @return which files were converted here
+     */
+    private boolean[] convertPackedFiles(List<File> files, DependencyGraph graph, boolean[] upToDate,
+            Map<String, ClassIndex> classIndex, String[] combinedResults, String[] metaResults) throws IOException {
+        boolean[] packed = new boolean[files.size()];
+        if (!API.shared().getBooleanProperty("pack_small_files", false) || isCancelled()) {
+            return packed;
+        }
+        List<List<Integer>> bins = binSmallFiles(files, graph, upToDate);
+        if (bins.isEmpty()) {
+            return packed;
+        }
+        log("Converting " + bins.stream().mapToInt(List::size).sum() + " small files in " + bins.size()
+                + " packed requests...");
+        forEachFileConcurrently(bins.size(), bin -> {
+            awaitResume();
+            if (isCancelled()) {
+                return;
+            }
+            try {
+                convertPack(files, bins.get(bin), classIndex, combinedResults, metaResults, packed);
+            } catch (IOException | RuntimeException e) {
+                if (isCancelled() || e instanceof CancellationException) {
+                    throw e;
+                }
+                // Files the pack did not finish are converted on their own
+                log("Packed request failed (" + e + "), converting its remaining files one by one.");
+            }
+        });
+        return packed;
+    }
+
+    private List<List<Integer>> binSmallFiles(List<File> files, DependencyGraph graph, boolean[] upToDate)
+            throws IOException {
+        int fileLimit = API.shared().getIntProperty("pack_file_max_tokens", 1500);
+        TokenEstimator estimator = API.shared().getTokenEstimator();
+        int[] tokens = new int[files.size()];
+        List<File> directories = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            directories.add(file.getParentFile());
+            tokens[i] = -1;
+            SourceInventory.SourceFile source = inventory.get(file.toPath());
+            // No tokenizer packs more than a few bytes into a token, so larger files are not read
+            if (upToDate[i] || source == null || source.size() == 0 || source.size() > fileLimit * 8L) {
+                continue;
+            }
+            if (graph.dependenciesOf(i).stream().anyMatch(dependency -> !upToDate[dependency])) {
+                continue;
+            }
+            int estimate = estimator.estimate(readFileContent(file));
+            if (estimate <= fileLimit) {
+                tokens[i] = estimate;
+            }
+        }
+        return binByDirectory(directories, tokens, API.shared().getIntProperty("pack_max_tokens", 6000),
+                API.shared().getIntProperty("pack_max_files", 16));
+    }
+
+    /**
+     * Bins files of the same directory in order, starting a new bin whenever the next
+     * file would take the open one over {@code binLimit} tokens or {@code maxFiles}
+     * files. Bins of a single file are dropped, since a pack of one saves nothing.
+     *
+     * @param tokens the estimated size of each file, or a negative value to leave it out
+     */
+    static List<List<Integer>> binByDirectory(List<File> directories, int[] tokens, int binLimit, int maxFiles) {
+        List<List<Integer>> bins = new ArrayList<>();
+        Map<File, List<Integer>> open = new HashMap<>();
+        Map<File, Integer> openTokens = new HashMap<>();
+        for (int i = 0; i < tokens.length; i++) {
+            if (tokens[i] < 0) {
+                continue;
+            }
+            File directory = directories.get(i);
+            List<Integer> bin = open.get(directory);
+            if (bin == null || bin.size() >= maxFiles || openTokens.get(directory) + tokens[i] > binLimit) {
+                bin = new ArrayList<>();
+                bins.add(bin);
+                open.put(directory, bin);
+                openTokens.put(directory, 0);
+            }
+            bin.add(i);
+            openTokens.merge(directory, tokens[i], Integer::sum);
+        }
+        bins.removeIf(bin -> bin.size() < 2);
+        return bins;
+    }
+
+    private void convertPack(List<File> files, List<Integer> bin, Map<String, ClassIndex> classIndex,
+            String[] combinedResults, String[] metaResults, boolean[] packed) throws IOException {
+        Assistant assistant = new Assistant();
+        Map<String, String> sources = new LinkedHashMap<>();
+        Map<String, Integer> indexes = new HashMap<>();
+        Set<String> dependencies = new LinkedHashSet<>();
+        for (int index : bin) {
+            File file = files.get(index);
+            String key = inputKey(file);
+            sources.put(key, readFileContent(file));
+            indexes.put(key, index);
+            String signatures = dependencySignatures(file);
+            if (!signatures.isEmpty()) {
+                dependencies.add(signatures);
+            }
+        }
+        File first = files.get(bin.get(0));
+        String prompt = isCombinedSmallFile(first) ? settings.getPrompt() : buildConversionPrompt(first, assistant);
+        JavaConversion javaConversion = new JavaConversion(assistant, settings);
+        javaConversion.setDependencySignatures(String.join("\n\n", dependencies));
+        Map<String, String> converted;
+        try {
+            converted = javaConversion.convertPacked(sources, prompt);
+        } catch (AIServiceException e) {
+            log("Packed request failed (" + e.getMessage() + "), converting its " + bin.size()
+                    + " files one by one.");
+            return;
+        }
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            int index = indexes.get(source.getKey());
+            File file = files.get(index);
+            String convertedContent = converted.get(source.getKey());
+            if (convertedContent == null || !isValidJava(convertedContent)) {
+                log((convertedContent == null ? "Pack did not return " : "Pack returned invalid Java for ")
+                        + file.getName() + ", converting it on its own.");
+                continue;
+            }
+            if (isCombinedSmallFile(file)) {
+                combinedResults[index] = toCombinedFragment(convertedContent, file.getName(), classIndex);
+                convertedSignatures.put(file, JavaSignatures.extract(combinedResults[index]));
+                recordConversion(file, null, combinedResults[index]);
+                packed[index] = true;
+            } else if (finishConversion(file, source.getValue(), convertedContent, classIndex, file.getName(),
+                    assistant)) {
+                collectMetaContent(file, index, metaResults, assistant);
+                packed[index] = true;
+            }
+            if (packed[index]) {
+                int progress = (int) ((processedFiles.incrementAndGet() / (double) files.size()) * 100);
+                listener.progress(Math.min(progress, 100));
+            }
+        }
+    }
+
+    static boolean isValidJava(String content) {
+        ParseResult<CompilationUnit> result = new JavaParser().parse(content);
+        return result.isSuccessful() && result.getResult().isPresent()
+                && !result.getResult().get().getTypes().isEmpty();
+    }
+
+    private void awaitResume() throws InterruptedException {
+        synchronized (this) {
+            while (paused && !isCancelled()) {
+                wait();
+            }
+        }
+    }
+
+    private List<File> collectInputFiles(File directory) {
+        List<File> inputFiles = new ArrayList<>();
+        for (SourceInventory.SourceFile source : inventory.filesUnder(directory.toPath())) {
+            if (!source.fileName().contains("Operations")) {
+                inputFiles.add(source.path().toFile());
+            }
+        }
+        return inputFiles;
+    }
+
+    private ThreadFactory conversionThreadFactory() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "conversion-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Renames indexed classes in the files written by this run, once each, at the end
+     * of the conversion. Renaming is a single simultaneous pass per file, so applying
+     * it again could rename a new name that is also another class's old one; outputs
+     * kept from earlier runs, refreshed ones included, were renamed when they were written.
+     */
+    private void replaceClassNamesAcrossAllFiles() throws IOException {
+        if (classRenamer.isEmpty()) {
+            return;
+        }
+        List<Path> targets = outputStage.stagedTargets();
+        targets.removeAll(refreshedOutputs);
+        AtomicInteger renamedFiles = new AtomicInteger();
+        forEachFileConcurrently(targets.size(), index -> {
+            if (replaceClassNamesInFile(targets.get(index))) {
+                renamedFiles.incrementAndGet();
+            }
+        });
+        log("Renamed class references in " + renamedFiles.get() + " of " + targets.size()
+                + " output files.");
+    }
+
+    private boolean replaceClassNamesInFile(Path file) throws IOException {
+        String fileContent = outputStage.read(file);
+        String updatedContent = classRenamer.rename(fileContent);
+        if (updatedContent.equals(fileContent)) {
+            return false;
+        }
+        outputStage.update(file, updatedContent);
+        log("Renamed class references in " + file.getFileName());
+        return true;
+    }
+
+    /**
+     * Publishes the staged outputs, skipping files whose content is already on disk.
+     */
+    private void commitOutputs() throws IOException {
+        OutputStage.CommitResult result = outputStage.commit();
+        log("Committed outputs: " + result.written() + " written, " + result.unchanged()
+                + " already up to date.");
+    }
+
+    private String combineSmallFile(String content, String fileName, Map<String, ClassIndex> classIndex,
+            Assistant assistant, String dependencySignatures) {
+        try {
+            log("Combining small file: " + fileName);
+            JavaConversion javaConversion = new JavaConversion(assistant, settings);
+            if (isSequential()) {
+                javaConversion.setStreamListener(this::streamCode);
+            }
+            javaConversion.setDependencySignatures(dependencySignatures);
+            String convertedContent = javaConversion.convertCode(content, settings.getPrompt(), "");
+            return toCombinedFragment(convertedContent, fileName, classIndex);
+        } catch (IOException | AIServiceException e) {
+            log("Error combining small file: " + fileName + " - " + e.getMessage());
+            failedFiles.incrementAndGet();
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private String toCombinedFragment(String convertedContent, String fileName, Map<String, ClassIndex> classIndex) {
+        // Replace class names in the combined content
+        convertedContent = classRenamer.rename(convertedContent);
+        return "// File: " + fileName + "\n" + convertedContent + "\n\n";
+    }
+
+    private String extractPrimaryClassName() {
+        // Assuming the primary class name is the first class name in the combined
+        // content
+        Pattern pattern = Pattern.compile("\\b(class|enum|interface)\\s+(\\w+)");
+        Matcher matcher = pattern.matcher(combinedSmallFilesContent);
+        if (matcher.find()) {
+            return matcher.group(2); // Group 2 contains the class name
+        }
+        return "CombinedSmallFiles"; // Default name if no class name is found
+    }
+
+    private void saveCombinedSmallFiles(Map<String, ClassIndex> classIndex) throws IOException {
+        if (combinedSmallFilesContent.length() > 0) {
+            // Use classIndex to extract the package name
+            String packageName = "";
+            if (!classIndex.isEmpty()) {
+                ClassIndex firstClassIndex = classIndex.values().iterator().next();
+                packageName = firstClassIndex.getPackageName();
+            }
+            String primaryClassName = extractPrimaryClassName();
+            String combinedFileName = primaryClassName + ".java";
+    
+            // Mirror the package in the folder structure; the commit creates the folders
+            Path outputDirPath = outputFolder.toPath();
+            if (!packageName.isEmpty()) {
+                Path packagePath = Paths.get(packageName.replace('.', File.separatorChar));
+                outputDirPath = outputDirPath.resolve(packagePath);
+            }
+            File outputDir = outputDirPath.toFile();
+    
+            // Ensure the package declaration is included
+            String combinedContent = combinedSmallFilesContent.toString();
+            if (!packageName.isEmpty() && !combinedContent.contains("package " + packageName)) {
+                combinedContent = "package " + packageName + ";\n\n" + combinedContent;
+            }
+    
+            combinedHash = ConversionManifest.hash(combinedContent);
+            File combinedFile = new File(outputDir, combinedFileName);
+            if (isIncremental() && outputStage.exists(combinedFile.toPath())
+                    && manifest.isCombinedOutputUnchanged(combinedHash)) {
+                log("Combined small files are unchanged, keeping " + combinedFile.getAbsolutePath());
+                return;
+            }
+
+            // Convert the combined content
+            log("Converting combined small files content...");
+            JavaConversion javaConversion = new JavaConversion(api, settings);
+            String convertedCombinedContent = javaConversion.convertCode(combinedContent,
+                    "Merge this Java code together, outputting a public class with everything embedded.", "");
+    
+            // Replace class names in the combined content
+            convertedCombinedContent = classRenamer.rename(convertedCombinedContent);
+    
+            // Stage the combined content under the new name
+            outputStage.stage(combinedFile.toPath(), convertedCombinedContent);
+            log("Combined small files staged as: " + combinedFile.getAbsolutePath());
+        }
+    }
+
+    private String generateMetaContent(File parentDirectory, File currentFile, Assistant assistant)
+            throws IOException {
+        StringBuilder metaContent = new StringBuilder();
+        Path current = currentFile != null ? currentFile.toPath().toAbsolutePath().normalize() : null;
+        // Listing order is stable, which keeps the prompt prefix identical between requests
+        for (SourceInventory.SourceFile file : inventory.filesIn(parentDirectory.toPath())) {
+            if (!file.path().equals(current)) {
+                String fileMetaContent = summarizeSignatures(file, assistant);
+                metaContent.append("File: ").append(file.fileName()).append("\n");
+                metaContent.append(fileMetaContent).append("\n\n");
+            }
+        }
+        return metaContent.toString();
+    }
+
+    /**
+     * Summarizes a file's declarations locally, asking the LLM only when
+     * {@code meta_generation} is {@code llm} or the input language has no local extractor.
+     * LLM summaries go through {@link #metaSummaries}, so each file is summarized once.
+     */
+    private String summarizeSignatures(SourceInventory.SourceFile file, Assistant assistant) throws IOException {
+        if (!usesLlmMeta()) {
+            // Extracted while scanning
+            return file.signatures();
+        }
+        String key = ConversionManifest.hash("llm", settings.getInputExtension(),
+                API.shared().getModelFingerprint(), file.hash());
+        return metaSummaries.get(key, () -> new JavaConversion(assistant, settings)
+                .generateMetaContent(readFileContent(file.path().toFile())));
+    }
+
+    private boolean usesLlmMeta() {
+        return "llm".equalsIgnoreCase(API.shared().getProperty("meta_generation", "local"))
+                || SourceSignatures.extract("", settings.getInputExtension()) == null;
+    }
+
+    /**
+     * Summarizes every input file up front on the conversion pool, so the directory
+     * contexts built later find their summaries ready.
+     */
+    private void prefetchMetaSummaries(File directory) throws IOException {
+        if (!usesLlmMeta() || !API.shared().getBooleanProperty("meta_prefetch", true)) {
+            return;
+        }
+        List<SourceInventory.SourceFile> files = inventory.filesUnder(directory.toPath());
+        log("Summarizing " + files.size() + " files for meta content...");
+        forEachFileConcurrently(files.size(), index -> {
+            try {
+                summarizeSignatures(files.get(index), new Assistant());
+            } catch (IOException | AIServiceException e) {
+                // Retried when the summary is actually needed
+                log("Could not summarize " + files.get(index).fileName() + ": " + e.getMessage());
+            }
+        });
+    }
+
+    private void saveMetaSummaries() {
+        if (metaSummaries == null) {
+            return;
+        }
+        try {
+            metaSummaries.save(!isCancelled());
+        } catch (IOException e) {
+            log("Failed to save meta summaries: " + e.getMessage());
+        }
+    }
+
+    private String generateDirectoryStructure(File directory) {
+        if (!directory.toPath().startsWith(inputFolder.toPath())) {
+            return "";
+        }
+        return inventory.renderTree(directory.toPath(), name -> name.contains("Operations"));
+    }
+
+    private String extractOriginalClassName(String fileContent, String fileName) {
+        Matcher matcher = SourceInventory.TYPE_DECLARATION.matcher(fileContent);
+        if (matcher.find()) {
+            return matcher.group(2); // Group 2 contains the class/struct name
+        } else {
+            // Fallback to using the file name without extension, converted to CamelCase
+            String baseName = fileName.substring(0, fileName.lastIndexOf('.'));
+            return toCamelCase(baseName);
+        }
+    }
+
+    private String toCamelCase(String input) {
+        if (input == null || input.isEmpty()) {
+            return input;
+        }
+        StringBuilder camelCase = new StringBuilder();
+        boolean nextUpperCase = false;
+        for (char c : input.toCharArray()) {
+            if (c == '_' || c == '-' || c == ' ') {
+                nextUpperCase = true;
+            } else {
+                if (nextUpperCase) {
+                    camelCase.append(Character.toUpperCase(c));
+                    nextUpperCase = false;
+                } else {
+                    camelCase.append(c);
+                }
+            }
+        }
+        return camelCase.toString();
+    }
+
+    private String readFileContent(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()));
+    }
+
+    private static class PackageAndImportVisitor extends VoidVisitorAdapter<Void> {
+        private final File currentFile;
+        private final Map<String, ClassIndex> classIndex;
+
+        public PackageAndImportVisitor(File currentFile, Map<String, ClassIndex> classIndex) {
+            this.currentFile = currentFile;
+            this.classIndex = classIndex;
+        }
+
+        @Override
+        public void visit(PackageDeclaration n, Void arg) {
+            ClassIndex currentClassIndex = getCurrentClassIndex();
+            if (currentClassIndex != null) {
+                n.setName(new Name(currentClassIndex.getPackageName()));
+            }
+            super.visit(n, arg);
+        }
+
+        @Override
+        public void visit(ImportDeclaration n, Void arg) {
+            String importedType = n.getNameAsString();
+            ClassIndex importedClassIndex = classIndex.get(getSimpleName(importedType));
+            if (importedClassIndex != null) {
+                n.setName(new Name(importedClassIndex.getPackageName() + "." + importedClassIndex.getNewClassName()));
+            }
+            super.visit(n, arg);
+        }
+
+        private ClassIndex getCurrentClassIndex() {
+            String currentFileName = currentFile.getName();
+            String currentClassName = currentFileName.substring(0, currentFileName.lastIndexOf("."));
+            return classIndex.get(currentClassName);
+        }
+
+        private String getSimpleName(String fullName) {
+            int lastDotIndex = fullName.lastIndexOf(".");
+            if (lastDotIndex != -1) {
+                return fullName.substring(lastDotIndex + 1);
+            }
+            return fullName;
+        }
+    }
+}
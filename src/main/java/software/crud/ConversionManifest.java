@@ -0,0 +1,247 @@
+package software.crud;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Record of the previous run kept in the output directory: for each input file (keyed
+ * by its path relative to the input root) the hash of the source that was converted,
+ * the files it depended on, and the outputs it produced. A run whose settings
+ * fingerprint matches can skip every file whose source and dependencies are unchanged.
+ *
+ * <p>Entries of the current run also go to a {@link ProgressJournal} as they are made,
+ * so a run that is killed before {@link #save} can be resumed from them.
+ */
+class ConversionManifest {
+    private static final Logger logger = LoggerFactory.getLogger(ConversionManifest.class);
+    static final String FILE_NAME = ".reprogrammer-manifest.json";
+    private static final int VERSION = 1;
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .enable(SerializationFeature.INDENT_OUTPUT)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    /**
+     * @param outputs          output files relative to the output directory
+     * @param outputHash       hash of the first output's content, checked before it is reused
+     * @param dependencies     input files this one depended on, relative to the input root
+     * @param combinedFragment the converted fragment, for files merged into the combined output
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record Entry(String sourceHash, List<String> outputs, String outputHash, List<String> dependencies,
+            String combinedFragment) {
+        Entry withOutputHash(String hash) {
+            return new Entry(sourceHash, outputs, hash, dependencies, combinedFragment);
+        }
+    }
+
+    /**
+     * @param revision the git commit the input had checked out, if it is in a git work tree
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record Document(int version, String fingerprint, String classIndexFingerprint, String renameFingerprint,
+            String combinedHash, String revision, Map<String, Entry> files) {
+    }
+
+    private final Path file;
+    private final String fingerprint;
+    private final Document previous;
+    private final ProgressJournal journal;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private ConversionManifest(Path file, String fingerprint, Document previous, ProgressJournal journal) {
+        this.file = file;
+        this.fingerprint = fingerprint;
+        this.previous = previous;
+        this.journal = journal;
+    }
+
+    /**
+     * Loads the manifest in {@code outputDirectory}. A missing or unreadable manifest, or
+     * one written with a different settings fingerprint, is treated as empty.
+     *
+     * @param journal where this run's entries are journaled, or {@code null}
+     */
+    static ConversionManifest load(Path outputDirectory, String fingerprint, ProgressJournal journal) {
+        Path file = outputDirectory.resolve(FILE_NAME);
+        Document previous = null;
+        if (Files.isRegularFile(file)) {
+            try {
+                Document document = MAPPER.readValue(file.toFile(), Document.class);
+                if (document.version() == VERSION && fingerprint.equals(document.fingerprint())
+                        && document.files() != null) {
+                    previous = document;
+                } else {
+                    logger.info("Conversion settings changed since the last run; converting everything");
+                }
+            } catch (IOException e) {
+                logger.warn("Ignoring unreadable manifest {}: {}", file, e.getMessage());
+            }
+        }
+        return new ConversionManifest(file, fingerprint, previous, journal);
+    }
+
+    /**
+     * @return the git commit the manifest in {@code outputDirectory} was converted from,
+     *         whatever its settings, or {@code null} if there is none
+     */
+    static String recordedRevision(Path outputDirectory) {
+        Path file = outputDirectory.resolve(FILE_NAME);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            return MAPPER.readValue(file.toFile(), Document.class).revision();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the previous run's entry for {@code inputKey}, or {@code null}
+     */
+    Entry previousEntry(String inputKey) {
+        return previous != null ? previous.files().get(inputKey) : null;
+    }
+
+    /**
+     * @return the entry an interrupted run with the same settings journaled for
+     *         {@code inputKey}, or {@code null}
+     */
+    Entry recoveredEntry(String inputKey) {
+        return journal != null ? journal.recovered().get(inputKey) : null;
+    }
+
+    int recoveredCount() {
+        return journal != null ? journal.recovered().size() : 0;
+    }
+
+    Map<String, Entry> previousEntries() {
+        return previous != null ? previous.files() : Map.of();
+    }
+
+    boolean isClassIndexUnchanged(String classIndexFingerprint) {
+        return previous != null && classIndexFingerprint.equals(previous.classIndexFingerprint());
+    }
+
+    boolean isRenamingUnchanged(String renameFingerprint) {
+        return previous != null && renameFingerprint.equals(previous.renameFingerprint());
+    }
+
+    boolean isCombinedOutputUnchanged(String combinedHash) {
+        return previous != null && combinedHash.equals(previous.combinedHash());
+    }
+
+    /**
+     * Records a file converted in this run and journals it.
+     */
+    void put(String inputKey, Entry entry) {
+        entries.put(inputKey, entry);
+        if (journal != null) {
+            try {
+                journal.append(inputKey, entry);
+            } catch (IOException e) {
+                logger.warn("Failed to journal {}: {}", inputKey, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Carries over an entry reused from the previous run or the journal, which is
+     * already durable and so is not journaled again.
+     */
+    void keep(String inputKey, Entry entry) {
+        entries.put(inputKey, entry);
+    }
+
+    Entry get(String inputKey) {
+        return entries.get(inputKey);
+    }
+
+    Map<String, Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * Writes this run's entries, replacing the previous manifest atomically, and then
+     * drops the journal they supersede. Output hashes are refreshed first, since the
+     * class rename passes rewrite outputs after they were recorded.
+     *
+     * @param revision the git commit the input had checked out, or {@code null}
+     */
+    void save(String classIndexFingerprint, String renameFingerprint, String combinedHash, String revision)
+            throws IOException {
+        Map<String, Entry> files = new TreeMap<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            files.put(entry.getKey(), refreshOutputHash(entry.getValue()));
+        }
+        Document document = new Document(VERSION, fingerprint, classIndexFingerprint, renameFingerprint,
+                combinedHash, revision, files);
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(FILE_NAME + ".tmp");
+        MAPPER.writeValue(temp.toFile(), document);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (journal != null) {
+            journal.delete();
+        }
+    }
+
+    /**
+     * Closes the journal, leaving it in place for the next run to resume from.
+     */
+    void close() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close the progress journal: {}", e.getMessage());
+            }
+        }
+    }
+
+    private Entry refreshOutputHash(Entry entry) throws IOException {
+        if (entry.outputs() == null || entry.outputs().isEmpty()) {
+            return entry;
+        }
+        Path output = file.resolveSibling(entry.outputs().get(0));
+        return Files.isRegularFile(output) ? entry.withOutputHash(hash(Files.readString(output))) : entry;
+    }
+
+    /**
+     * @return the hex SHA-256 of the given parts, each length-prefixed so that
+     *         different splits of the same text hash differently
+     */
+    static String hash(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                byte[] bytes = (part == null ? "" : part).getBytes(StandardCharsets.UTF_8);
+                digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) ':');
+                digest.update(bytes);
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
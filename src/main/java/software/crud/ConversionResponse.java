@@ -0,0 +1,25 @@
+package software.crud;
+
+class ConversionResponse {
+    private final String convertedCode;
+    private final boolean isIncomplete;
+    private final boolean redoSuggested;
+
+    public ConversionResponse(String convertedCode, boolean isIncomplete, boolean redoSuggested) {
+        this.convertedCode = convertedCode;
+        this.isIncomplete = isIncomplete;
+        this.redoSuggested = redoSuggested;
+    }
+
+    public String getConvertedCode() {
+        return convertedCode;
+    }
+
+    public boolean isIncomplete() {
+        return isIncomplete;
+    }
+
+    public boolean isRedoSuggested() {
+        return redoSuggested;
+    }
+}
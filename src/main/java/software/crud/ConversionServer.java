@@ -0,0 +1,305 @@
+package software.crud;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+/**
+ * Local HTTP API over a {@link JobQueue}, so several teams can share one warm
+ * instance instead of each starting the application:
+ *
+ * <pre>
+ * POST   /jobs                 submit: a JSON {@link JobQueue.Request}, or a zip of the
+ *                              input tree (Content-Type: application/zip) with the
+ *                              request fields as query parameters
+ * GET    /jobs                 list all jobs
+ * GET    /jobs/{id}            job status and progress
+ * GET    /jobs/{id}/log        log from ?offset=N bytes on; ?follow=true streams it
+ *                              until the job finishes
+ * GET    /jobs/{id}/result     the converted files as a zip, once the job has finished
+ * DELETE /jobs/{id}            cancel the job
+ * </pre>
+ *
+ * The server binds to {@code server_host}, the loopback interface by default. With
+ * {@code server_token} set every request needs an {@code Authorization: Bearer}
+ * header carrying it. Requests naming another host in their {@code Host} or
+ * {@code Origin} header are refused, so a web page cannot reach a local server
+ * through the browser, and submissions have to be {@code application/json} or
+ * {@code application/zip}, which a page cannot send without the server's consent.
+ */
+class ConversionServer {
+    private static final Logger logger = LoggerFactory.getLogger(ConversionServer.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    // How often a followed log is checked when nothing signals a change
+    private static final long FOLLOW_POLL_MILLIS = 1000;
+
+    private final JobQueue queue;
+    private final HttpServer server;
+    private final ExecutorService handlers;
+    private final byte[] token;
+    private final Set<String> hostNames;
+
+    private ConversionServer(JobQueue queue, HttpServer server, ExecutorService handlers, String token,
+            Set<String> hostNames) {
+        this.queue = queue;
+        this.server = server;
+        this.handlers = handlers;
+        this.token = token == null || token.isEmpty() ? null : token.getBytes(StandardCharsets.UTF_8);
+        this.hostNames = hostNames;
+    }
+
+    /**
+     * Starts serving {@code queue} on {@code host}:{@code port}.
+     *
+     * @param token the bearer token requests have to carry, or {@code null} or empty to
+     *              accept requests without one
+     */
+    static ConversionServer start(JobQueue queue, String host, int port, String token) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(host, port), 0);
+        // Followed logs hold their connection, so handlers are not pooled to a fixed size
+        ExecutorService handlers = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "http-handler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Set<String> hostNames = new HashSet<>(Set.of("localhost", "127.0.0.1", "[::1]"));
+        hostNames.add(host.contains(":") && !host.startsWith("[") ? "[" + host + "]" : host);
+        ConversionServer conversionServer = new ConversionServer(queue, server, handlers, token,
+                hostNames.stream().map(name -> name.toLowerCase(Locale.ROOT)).collect(Collectors.toSet()));
+        server.createContext("/jobs", conversionServer::handle);
+        server.setExecutor(handlers);
+        server.start();
+        return conversionServer;
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting requests, then stops the queue; running jobs are queued again for
+     * the next start.
+     */
+    void stop() {
+        server.stop(1);
+        queue.close();
+        handlers.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            try {
+                if (accept(exchange)) {
+                    route(exchange);
+                }
+            } catch (JsonProcessingException | IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+            } catch (IllegalStateException e) {
+                sendError(exchange, 503, e.getMessage());
+            } catch (IOException | RuntimeException e) {
+                logger.warn("{} {} failed", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+                sendError(exchange, 500, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Sends the error response and returns {@code false} for requests that are not
+     * authorized or come from a web page.
+     */
+    private boolean accept(HttpExchange exchange) throws IOException {
+        String origin = exchange.getRequestHeaders().getFirst("Origin");
+        if (!isServerHost(exchange.getRequestHeaders().getFirst("Host"))
+                || origin != null && !isServerHost(hostOf(origin))) {
+            sendError(exchange, 403, "Cross-origin requests are not allowed");
+            return false;
+        }
+        if (token != null) {
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            byte[] presented = authorization != null && authorization.startsWith("Bearer ")
+                    ? authorization.substring("Bearer ".length()).trim().getBytes(StandardCharsets.UTF_8)
+                    : new byte[0];
+            if (!MessageDigest.isEqual(token, presented)) {
+                exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                sendError(exchange, 401, "Missing or wrong server token");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether {@code host}, a {@code Host} header value, names this server; a
+     *         server bound to every interface accepts any name
+     */
+    private boolean isServerHost(String host) {
+        if (host == null) {
+            return false;
+        }
+        if (hostNames.contains("0.0.0.0") || hostNames.contains("[::]")) {
+            return true;
+        }
+        // Drop the port
+        int colon = host.lastIndexOf(':');
+        String name = colon > host.lastIndexOf(']') ? host.substring(0, colon) : host;
+        return hostNames.contains(name.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return the host and port of an {@code Origin} header, or {@code null} for
+     *         {@code null} and other opaque origins
+     */
+    private static String hostOf(String origin) {
+        int scheme = origin.indexOf("://");
+        return scheme < 0 ? null : origin.substring(scheme + 3);
+    }
+
+    private void route(HttpExchange exchange) throws IOException {
+        String[] path = exchange.getRequestURI().getPath().replaceAll("/+$", "").split("/");
+        String method = exchange.getRequestMethod();
+        // path[0] is empty and path[1] is "jobs"
+        if (path.length == 2) {
+            if (method.equals("POST")) {
+                submit(exchange);
+            } else if (method.equals("GET")) {
+                sendJson(exchange, 200, queue.list());
+            } else {
+                sendError(exchange, 405, "Use GET or POST");
+            }
+            return;
+        }
+        JobQueue.Job job = queue.get(path[2]);
+        if (job == null || path.length > 4) {
+            sendError(exchange, 404, "No such job");
+            return;
+        }
+        String resource = path.length == 4 ? path[3] : "";
+        if (method.equals("GET") && resource.isEmpty()) {
+            sendJson(exchange, 200, job);
+        } else if (method.equals("DELETE") && resource.isEmpty()) {
+            sendJson(exchange, 200, queue.cancel(job.id()));
+        } else if (method.equals("GET") && resource.equals("log")) {
+            sendLog(exchange, job.id());
+        } else if (method.equals("GET") && resource.equals("result")) {
+            sendResults(exchange, job);
+        } else {
+            sendError(exchange, 404, "Unknown resource");
+        }
+    }
+
+    private void submit(HttpExchange exchange) throws IOException {
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        String mediaType = contentType == null ? "" : contentType.split(";")[0].trim().toLowerCase(Locale.ROOT);
+        JobQueue.Job job;
+        try (InputStream body = exchange.getRequestBody()) {
+            if (mediaType.equals("application/zip")) {
+                JobQueue.Request request = MAPPER.convertValue(query(exchange), JobQueue.Request.class);
+                job = queue.submit(request, body);
+            } else if (mediaType.equals("application/json")) {
+                job = queue.submit(MAPPER.readValue(body, JobQueue.Request.class), null);
+            } else {
+                sendError(exchange, 415, "Submit application/json or application/zip");
+                return;
+            }
+        }
+        sendJson(exchange, 201, job);
+    }
+
+    private void sendLog(HttpExchange exchange, String id) throws IOException {
+        Map<String, String> query = query(exchange);
+        long offset;
+        try {
+            offset = Long.parseLong(query.getOrDefault("offset", "0"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("offset must be a number");
+        }
+        boolean follow = Boolean.parseBoolean(query.get("follow"));
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        while (true) {
+            // Read the state first so lines logged before the job finished are not missed
+            boolean finished = queue.get(id).state().isFinished();
+            byte[] bytes = queue.readLog(id, offset);
+            if (bytes.length > 0) {
+                out.write(bytes);
+                out.flush();
+                offset += bytes.length;
+                continue;
+            }
+            if (!follow || finished) {
+                return;
+            }
+            try {
+                queue.awaitChange(FOLLOW_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void sendResults(HttpExchange exchange, JobQueue.Job job) throws IOException {
+        if (!job.state().isFinished()) {
+            sendError(exchange, 409, "Job " + job.id() + " is " + job.state());
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/zip");
+        exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + job.id() + ".zip\"");
+        exchange.sendResponseHeaders(200, 0);
+        queue.writeResults(job.id(), exchange.getResponseBody());
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) {
+        Map<String, String> query = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return query;
+        }
+        for (String pair : raw.split("&")) {
+            int equals = pair.indexOf('=');
+            String key = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+            String value = equals < 0 ? "true" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+            query.put(key, value);
+        }
+        return query;
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = MAPPER.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        if (exchange.getResponseCode() != -1) {
+            // The response has started; all that is left is to cut it short
+            return;
+        }
+        sendJson(exchange, status, Map.of("error", message != null ? message : "Internal error"));
+    }
+}
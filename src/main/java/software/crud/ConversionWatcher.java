@@ -0,0 +1,173 @@
+package software.crud;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Watch mode: converts the input tree once, then watches it and runs the conversion
+ * again whenever source files change, until stopped. Changes are debounced: a run
+ * starts once no change has arrived for {@code watch_debounce_ms}, and changes made
+ * during a run lead to another one after it.
+ *
+ * <p>Every run is incremental, so only changed files are converted again; with
+ * {@link ConversionEngine.Options#refreshDependents} their dependents keep their
+ * output and have their imports fixed up. The output tree is updated in place: files
+ * whose content did not change are not rewritten, and the outputs of deleted or
+ * renamed sources are deleted.
+ */
+class ConversionWatcher {
+    private final LanguageSettings settings;
+    private final ConversionEngine.Options options;
+    private final ConversionEngine.Listener listener;
+    private final Path inputRoot;
+    private final Path outputRoot;
+    private final WatchService watchService;
+    private volatile ConversionEngine engine;
+    private volatile boolean stopped;
+
+    ConversionWatcher(LanguageSettings settings, ConversionEngine.Options options, ConversionEngine.Listener listener)
+            throws IOException {
+        this.settings = settings;
+        this.options = options;
+        this.listener = listener;
+        this.inputRoot = options.inputFolder().toPath().toAbsolutePath().normalize();
+        this.outputRoot = options.outputFolder().toPath().toAbsolutePath().normalize();
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Converts and watches on the calling thread until {@link #stop} is called.
+     *
+     * @param onRun told the outcome and failed file count of every run
+     */
+    void run(BiConsumer<ConversionEngine.Outcome, Integer> onRun) throws IOException {
+        long debounceMillis = API.shared().getIntProperty("watch_debounce_ms", 1000);
+        register(inputRoot);
+        convert(onRun);
+        try {
+            while (!stopped) {
+                Set<Path> changed = new TreeSet<>();
+                collect(watchService.take(), changed);
+                WatchKey key;
+                while ((key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                    collect(key, changed);
+                }
+                if (!changed.isEmpty() && !stopped) {
+                    listener.log("Changed: " + describe(changed));
+                    convert(onRun);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Stopped
+        } finally {
+            watchService.close();
+        }
+    }
+
+    /**
+     * Stops watching and cancels the run in progress, if any.
+     */
+    void stop() {
+        stopped = true;
+        ConversionEngine current = engine;
+        if (current != null) {
+            current.cancel();
+        }
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            // Closing only wakes up run()
+        }
+    }
+
+    private void convert(BiConsumer<ConversionEngine.Outcome, Integer> onRun) {
+        ConversionEngine current = new ConversionEngine(settings, options, listener);
+        engine = current;
+        ConversionEngine.Outcome outcome = current.run();
+        engine = null;
+        onRun.accept(outcome, current.failedFiles());
+    }
+
+    /**
+     * Adds the changed source files of {@code key} to {@code changed}, and starts watching
+     * directories created in the meantime.
+     */
+    private void collect(WatchKey key, Set<Path> changed) throws IOException {
+        Path directory = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost; the incremental run finds what changed anyway
+                changed.add(directory);
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (isIgnored(path)) {
+                continue;
+            }
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                register(path);
+                changed.add(path);
+            } else if (path.getFileName().toString().endsWith(settings.getInputExtension())
+                    || event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                changed.add(path);
+            }
+        }
+        key.reset();
+    }
+
+    private void register(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!dir.equals(root) && isIgnored(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * @return whether {@code path} is hidden, like the inventory's hidden directories, or
+     *         in an output tree nested inside the input
+     */
+    private boolean isIgnored(Path path) {
+        return path.getFileName().toString().startsWith(".") || path.startsWith(outputRoot);
+    }
+
+    private String describe(Set<Path> changed) {
+        StringBuilder description = new StringBuilder();
+        int shown = 0;
+        for (Path path : changed) {
+            if (shown == 5) {
+                description.append(" and ").append(changed.size() - shown).append(" more");
+                break;
+            }
+            description.append(shown++ > 0 ? ", " : "").append(inputRoot.relativize(path));
+        }
+        return description.toString();
+    }
+}
@@ -0,0 +1,143 @@
+package software.crud;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Dependency graph between source files, built from the class names each file refers
+ * to (imports, usings, type references) and used to convert dependencies before their
+ * dependents. Nodes are the indexes of the files passed to {@link #build}.
+ *
+ * <p>The scheduling methods track which nodes are ready: a node becomes ready once all
+ * of its dependencies have completed. Cycles are broken by releasing the blocked node
+ * with the fewest unfinished dependencies.
+ */
+class DependencyGraph {
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    // Line and block comments and string literals, which mention names without depending on them
+    private static final Pattern NON_CODE = Pattern.compile(
+            "//[^\\n]*|/\\*.*?\\*/|\"(?:\\\\.|[^\"\\\\])*\"|'(?:\\\\.|[^'\\\\])*'|`[^`]*`",
+            Pattern.DOTALL);
+
+    private final List<List<Integer>> dependencies;
+    private final List<List<Integer>> dependents;
+    private final int[] unfinished;
+    private final boolean[] released;
+
+    private DependencyGraph(List<List<Integer>> dependencies) {
+        int size = dependencies.size();
+        this.dependencies = dependencies;
+        this.dependents = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            dependents.add(new ArrayList<>());
+        }
+        this.unfinished = new int[size];
+        this.released = new boolean[size];
+        for (int node = 0; node < size; node++) {
+            for (int dependency : dependencies.get(node)) {
+                dependents.get(dependency).add(node);
+            }
+            unfinished[node] = dependencies.get(node).size();
+        }
+    }
+
+    /**
+     * @param classNames the class name each file declares, e.g. its base name
+     * @param sources    the files' source code, in the same order
+     */
+    static DependencyGraph build(List<String> classNames, List<String> sources) {
+        Map<String, List<Integer>> nodesByName = new HashMap<>();
+        for (int i = 0; i < classNames.size(); i++) {
+            nodesByName.computeIfAbsent(classNames.get(i), name -> new ArrayList<>()).add(i);
+        }
+        List<List<Integer>> dependencies = new ArrayList<>(sources.size());
+        for (int node = 0; node < sources.size(); node++) {
+            Set<Integer> references = new LinkedHashSet<>();
+            Matcher matcher = IDENTIFIER.matcher(NON_CODE.matcher(sources.get(node)).replaceAll(" "));
+            while (matcher.find()) {
+                List<Integer> referenced = nodesByName.get(matcher.group());
+                if (referenced != null) {
+                    references.addAll(referenced);
+                }
+            }
+            references.remove(node);
+            dependencies.add(new ArrayList<>(references));
+        }
+        return new DependencyGraph(dependencies);
+    }
+
+    int size() {
+        return dependencies.size();
+    }
+
+    List<Integer> dependenciesOf(int node) {
+        return dependencies.get(node);
+    }
+
+    int dependentCount(int node) {
+        return dependents.get(node).size();
+    }
+
+    int edgeCount() {
+        return dependencies.stream().mapToInt(List::size).sum();
+    }
+
+    /**
+     * @return the nodes without dependencies, which can start immediately
+     */
+    synchronized List<Integer> start() {
+        List<Integer> ready = new ArrayList<>();
+        for (int node = 0; node < size(); node++) {
+            if (unfinished[node] == 0) {
+                released[node] = true;
+                ready.add(node);
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Marks {@code node} as finished.
+     *
+     * @return the dependents that have become ready
+     */
+    synchronized List<Integer> complete(int node) {
+        List<Integer> ready = new ArrayList<>();
+        for (int dependent : dependents.get(node)) {
+            if (--unfinished[dependent] == 0 && !released[dependent]) {
+                released[dependent] = true;
+                ready.add(dependent);
+            }
+        }
+        return ready;
+    }
+
+    /**
+     * Releases one node held back only by a dependency cycle, choosing the one with the
+     * fewest unfinished dependencies and, among those, the most dependents.
+     *
+     * @return the released node, or -1 if every node has been released
+     */
+    synchronized int releaseCycle() {
+        int chosen = -1;
+        for (int node = 0; node < size(); node++) {
+            if (released[node]) {
+                continue;
+            }
+            if (chosen < 0 || unfinished[node] < unfinished[chosen]
+                    || (unfinished[node] == unfinished[chosen] && dependentCount(node) > dependentCount(chosen))) {
+                chosen = node;
+            }
+        }
+        if (chosen >= 0) {
+            released[chosen] = true;
+        }
+        return chosen;
+    }
+}
@@ -0,0 +1,127 @@
+package software.crud;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Caps the LLM calls in flight across the whole process. Callers belong to a tenant,
+ * one per conversion job, and a freed slot goes to the tenants with waiting callers in
+ * turn, so a job converting with many workers cannot starve one with few. The tenant
+ * is set on the thread that runs a job and inherited by the threads it starts; callers
+ * outside any job share one tenant.
+ */
+final class FairCallLimiter {
+    private static final InheritableThreadLocal<String> TENANT = new InheritableThreadLocal<>();
+
+    private final int maxCalls;
+    private int inFlight;
+    // Tenants with waiting callers, in turn order; a tenant just served moves to the back
+    private final Map<String, ArrayDeque<Waiter>> waiting = new LinkedHashMap<>();
+
+    private static final class Waiter {
+        private boolean granted;
+    }
+
+    /**
+     * @param maxCalls the calls allowed in flight at once; 0 or less for no limit
+     */
+    FairCallLimiter(int maxCalls) {
+        this.maxCalls = maxCalls;
+    }
+
+    /**
+     * Makes the calling thread, and threads it starts from now on, call as
+     * {@code tenant}; {@code null} clears it.
+     */
+    static void setTenant(String tenant) {
+        if (tenant == null) {
+            TENANT.remove();
+        } else {
+            TENANT.set(tenant);
+        }
+    }
+
+    static String currentTenant() {
+        return TENANT.get();
+    }
+
+    /**
+     * Runs {@code task} as {@code tenant}, for pooled threads that were not started by
+     * the tenant's own thread.
+     */
+    static <T> T callAs(String tenant, Callable<T> task) throws Exception {
+        String previous = TENANT.get();
+        setTenant(tenant);
+        try {
+            return task.call();
+        } finally {
+            setTenant(previous);
+        }
+    }
+
+    /**
+     * Blocks until the calling thread may start a call; every acquire must be followed
+     * by a {@link #release}.
+     */
+    void acquire() throws InterruptedException {
+        if (maxCalls <= 0) {
+            return;
+        }
+        String tenant = TENANT.get() != null ? TENANT.get() : "";
+        synchronized (this) {
+            if (inFlight < maxCalls && waiting.isEmpty()) {
+                inFlight++;
+                return;
+            }
+            Waiter waiter = new Waiter();
+            waiting.computeIfAbsent(tenant, key -> new ArrayDeque<>()).add(waiter);
+            try {
+                while (!waiter.granted) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                if (waiter.granted) {
+                    // Granted while being interrupted: pass the slot on
+                    inFlight--;
+                } else {
+                    ArrayDeque<Waiter> queue = waiting.get(tenant);
+                    queue.remove(waiter);
+                    if (queue.isEmpty()) {
+                        waiting.remove(tenant);
+                    }
+                }
+                grantWaiting();
+                throw e;
+            }
+        }
+    }
+
+    synchronized void release() {
+        if (maxCalls <= 0) {
+            return;
+        }
+        inFlight--;
+        grantWaiting();
+    }
+
+    private void grantWaiting() {
+        boolean granted = false;
+        while (inFlight < maxCalls && !waiting.isEmpty()) {
+            Iterator<Map.Entry<String, ArrayDeque<Waiter>>> next = waiting.entrySet().iterator();
+            Map.Entry<String, ArrayDeque<Waiter>> turn = next.next();
+            next.remove();
+            turn.getValue().poll().granted = true;
+            inFlight++;
+            granted = true;
+            if (!turn.getValue().isEmpty()) {
+                waiting.put(turn.getKey(), turn.getValue());
+            }
+        }
+        if (granted) {
+            notifyAll();
+        }
+    }
+}
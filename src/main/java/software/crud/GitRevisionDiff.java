@@ -0,0 +1,183 @@
+package software.crud;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The source files added, modified, renamed and deleted in the input directory between
+ * two git revisions, read from {@code git diff --name-status -M} with the local git
+ * binary. Paths are relative to the input directory, with {@code /} separators, like
+ * the keys of the {@link ConversionManifest}.
+ */
+final class GitRevisionDiff {
+    /**
+     * @param similarity how much of the content git found unchanged, in percent
+     */
+    record Rename(String from, String to, int similarity) {
+        boolean isExact() {
+            return similarity == 100;
+        }
+    }
+
+    private final String from;
+    private final String to;
+    private final String fromRevision;
+    private final String toRevision;
+    private final int changed;
+    private final List<Rename> renames;
+    private final Set<String> removed;
+
+    private GitRevisionDiff(String from, String to, String fromRevision, String toRevision, int changed,
+            List<Rename> renames, Set<String> removed) {
+        this.from = from;
+        this.to = to;
+        this.fromRevision = fromRevision;
+        this.toRevision = toRevision;
+        this.changed = changed;
+        this.renames = renames;
+        this.removed = removed;
+    }
+
+    /**
+     * Diffs {@code from} against {@code to}, which has to be the revision checked out in
+     * {@code directory}, since the sources are read from the working tree.
+     *
+     * @param inputExtension only files with this extension are considered
+     * @throws IOException if git fails, or {@code to} is not checked out
+     */
+    static GitRevisionDiff between(File directory, String inputExtension, String from, String to)
+            throws IOException {
+        String head = git(directory, "rev-parse", "--verify", "HEAD").trim();
+        String target = git(directory, "rev-parse", "--verify", to + "^{commit}").trim();
+        if (!head.equals(target)) {
+            throw new IOException(directory + " is not checked out at " + to + "; check it out first");
+        }
+        String origin = git(directory, "rev-parse", "--verify", from + "^{commit}").trim();
+        String nameStatus = git(directory, "-c", "core.quotepath=off", "diff", "--name-status", "-M", "-z",
+                "--no-ext-diff", "--relative", from, to, "--", ".");
+        return parse(nameStatus, inputExtension, from, to, origin, target);
+    }
+
+    /**
+     * Reads the output of {@code git diff --name-status -M -z}.
+     *
+     * @param from         the name the diff starts from, as given
+     * @param fromRevision the commit {@code from} resolved to
+     */
+    static GitRevisionDiff parse(String nameStatus, String inputExtension, String from, String to,
+            String fromRevision, String toRevision) {
+        String[] fields = nameStatus.split("\0");
+        int changed = 0;
+        List<Rename> renames = new ArrayList<>();
+        Set<String> removed = new HashSet<>();
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            String status = fields[i];
+            String path = fields[i + 1];
+            char kind = status.charAt(0);
+            if (kind == 'R' || kind == 'C') {
+                String newPath = fields[i + 2];
+                i++;
+                boolean fromSource = path.endsWith(inputExtension);
+                boolean toSource = newPath.endsWith(inputExtension);
+                if (kind == 'R' && fromSource && toSource) {
+                    renames.add(new Rename(path, newPath, Integer.parseInt(status.substring(1))));
+                    removed.add(path);
+                } else {
+                    // Renamed to or from another kind of file: an addition or a deletion
+                    if (kind == 'R' && fromSource) {
+                        removed.add(path);
+                    }
+                    if (toSource) {
+                        changed++;
+                    }
+                }
+            } else if (path.endsWith(inputExtension)) {
+                if (kind == 'D') {
+                    removed.add(path);
+                } else {
+                    changed++;
+                }
+            }
+        }
+        return new GitRevisionDiff(from, to, fromRevision, toRevision, changed, renames, removed);
+    }
+
+    /**
+     * @return the commit checked out in {@code directory}, or {@code null} if it is not
+     *         in a git work tree or git is not available
+     */
+    static String head(File directory) {
+        try {
+            return git(directory, "rev-parse", "--verify", "HEAD").trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the commit the diff starts from
+     */
+    String fromRevision() {
+        return fromRevision;
+    }
+
+    /**
+     * @return the commit the diff ends at, the one checked out
+     */
+    String toRevision() {
+        return toRevision;
+    }
+
+    List<Rename> renames() {
+        return renames;
+    }
+
+    /**
+     * @return whether the file at {@code inputKey} was deleted or renamed away
+     */
+    boolean isRemoved(String inputKey) {
+        return removed.contains(inputKey);
+    }
+
+    String describe() {
+        return "Changes from " + from + " to " + to + ": " + changed + " added or modified, "
+                + renames.size() + " renamed and " + (removed.size() - renames.size())
+                + " deleted source files.";
+    }
+
+    private static String git(File directory, String... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add("git");
+        command.addAll(List.of(args));
+        // Errors go to a file, so git cannot block on a full stderr pipe while stdout is read
+        Path errors = Files.createTempFile("reprogrammer-git", ".err");
+        try {
+            Process process = new ProcessBuilder(command).directory(directory)
+                    .redirectError(errors.toFile()).start();
+            process.getOutputStream().close();
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            try {
+                if (process.waitFor() != 0) {
+                    String error = Files.readString(errors, StandardCharsets.UTF_8).trim();
+                    throw new IOException("git " + String.join(" ", args) + " failed"
+                            + (error.isEmpty() ? "" : ": " + error));
+                }
+            } catch (InterruptedException e) {
+                process.destroy();
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while running git");
+            }
+            return output;
+        } finally {
+            Files.deleteIfExists(errors);
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package software.crud;
+
+import org.apache.commons.text.StringEscapeUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+class JavaConversion {
+    private static final Logger logger = LoggerFactory.getLogger(JavaConversion.class);
+    private final Assistant api;
+    private final LanguageSettings settings;
+    private boolean redoEntireCode = false;
+    private API.StreamListener streamListener;
+    private String dependencySignatures = "";
+    private String partContext = "";
+    private static final int MAX_RETRIES = 3; // Define a max retry limit
+    private static final String CODE_START_TAG = "<code>";
+    private static final String CODE_END_TAG = "</code>";
+    private static final Pattern PACKED_FILE = Pattern.compile(
+            "<file\\s+path\\s*=\\s*\"([^\"]*)\"[^>]*>\\s*<code[^>]*>(.*?)</code>\\s*</file>", Pattern.DOTALL);
+    // Room for the <file> wrapper of each converted file
+    private static final int PACKED_FILE_OVERHEAD_TOKENS = 32;
+
+    public JavaConversion(Assistant api, LanguageSettings settings) {
+        this.api = api;
+        this.settings = settings;
+    }
+
+    /**
+     * A conversion request that has been built but not sent yet, so it can go through
+     * the batch API and be completed later by {@link #completeConversion}.
+     */
+    record PreparedConversion(String requestBody, int cachedPrefixLength, int maxTokens, int predictedTokens) {
+    }
+
+    public String convertCode(String inputCode, String prompt, String originalContent) throws IOException {
+        int retryCount = 0;
+        while (retryCount < MAX_RETRIES) {
+            try {
+                logger.info("Starting " + prompt);
+                PreparedConversion prepared = prepareConversion(inputCode, prompt, originalContent);
+                ProviderJson.Completion response = api.complete(
+                        new API.Message("user", prepared.requestBody(), prepared.cachedPrefixLength()), null,
+                        prepared.maxTokens(), codeStreamListener());
+                logger.info("API response received: " + response.text());
+
+                String fullConversion = completeConversion(response, prepared);
+
+                if (redoEntireCode) {
+                    logger.info("Redoing the entire code conversion...");
+                    retryCount++;
+                    prompt = "Please redo the entire code conversion. " + prompt;
+                    continue;
+                }
+
+                return fullConversion;
+            } catch (Exception e) {
+                logger.error("Error during code conversion: " + e.getMessage(), e);
+                throw e;
+            }
+        }
+        throw new IOException("Failed to convert code after " + MAX_RETRIES + " attempts.");
+    }
+
+    public PreparedConversion prepareConversion(String inputCode, String prompt, String originalContent) {
+        String userPrompt = prompt + " Respond only in XML format, outputting any code within <code></code>, and please include any thoughts in <thoughts></thoughts>.";
+        int predictedTokens = api.predictConversionTokens(inputCode + originalContent, settings.getTargetLanguage());
+        int maxTokens = api.chooseMaxTokens(userPrompt + dependencySignatures + partContext + inputCode
+                + originalContent, predictedTokens, settings.getMaxTokens());
+        String requestBody = buildXMLRequestBody(userPrompt, inputCode, originalContent, dependencySignatures,
+                partContext, maxTokens);
+        // Everything up to the code is shared by the files of a directory
+        int cachedPrefixLength = xmlRequestPrefix(userPrompt).length();
+        return new PreparedConversion(requestBody, cachedPrefixLength, maxTokens, predictedTokens);
+    }
+
+    /**
+     * Converts several small files in one request: each goes in as a {@code <file>}
+     * element and is expected back in one with the same path. A cut-off response is not
+     * continued; the files it did not finish are simply missing from the result.
+     *
+     * @param sources the code of each file by its path, in request order
+     * @return the converted code of every file the response returned whole, by path
+     */
+    public Map<String, String> convertPacked(Map<String, String> sources, String prompt) {
+        String userPrompt = prompt + " Several files are given, each in a <file> element. Convert every file "
+                + "separately into its own Java compilation unit, and respond only in XML with one "
+                + "<file path=\"...\"><code></code></file> per input file, in the same order and with the same path.";
+        StringBuilder code = new StringBuilder();
+        for (Map.Entry<String, String> source : sources.entrySet()) {
+            code.append("<file path=\"").append(StringEscapeUtils.escapeXml10(source.getKey())).append("\"><![CDATA[")
+                    .append(source.getValue().replace("]]>", "]]]]><![CDATA[>")).append("]]></file>\n");
+        }
+        int predictedTokens = api.predictConversionTokens(code, settings.getTargetLanguage())
+                + sources.size() * PACKED_FILE_OVERHEAD_TOKENS;
+        int maxTokens = api.chooseMaxTokens(userPrompt + dependencySignatures + code, predictedTokens,
+                settings.getMaxTokens());
+        StringBuilder requestBuilder = new StringBuilder(xmlRequestPrefix(userPrompt));
+        if (!dependencySignatures.isEmpty()) {
+            requestBuilder.append("Java signatures of the already converted classes this code uses (call them exactly as declared):\n")
+                    .append(dependencySignatures).append("\n");
+        }
+        requestBuilder.append("Files:\n<files>\n").append(code).append("</files>\n");
+        requestBuilder.append("format: XML\n");
+        requestBuilder.append("structure: <response><file path=\"{path}\"><code>{converted_code}</code></file>...</response>\n");
+        requestBuilder.append("settings\n");
+        requestBuilder.append("maxTokens: ").append(maxTokens).append("\n");
+        requestBuilder.append("assistant\n");
+
+        ProviderJson.Completion response = api.complete(new API.Message("user", requestBuilder.toString().trim(),
+                xmlRequestPrefix(userPrompt).length()), null, maxTokens, null);
+        return splitPacked(response.text(), sources.keySet());
+    }
+
+    /**
+     * Splits a packed response back into files. Only complete {@code <file>} elements
+     * for one of {@code paths} count, the first one per path; a cut-off or malformed
+     * response yields the files before the damage, or none.
+     */
+    static Map<String, String> splitPacked(String response, Set<String> paths) {
+        Map<String, String> converted = new LinkedHashMap<>();
+        if (response == null) {
+            return converted;
+        }
+        Matcher matcher = PACKED_FILE.matcher(response);
+        while (matcher.find()) {
+            String path = StringEscapeUtils.unescapeXml(matcher.group(1));
+            if (paths.contains(path)) {
+                converted.putIfAbsent(path, StringEscapeUtils.unescapeHtml4(removeCData(matcher.group(2).trim())));
+            }
+        }
+        return converted;
+    }
+
+    /**
+     * Extracts the code from the first response to a prepared conversion, requesting
+     * continuations while the response is cut off.
+     */
+    public String completeConversion(String response, PreparedConversion prepared) {
+        // Batch results carry no finish reason
+        return completeConversion(new ProviderJson.Completion(response, null, null), prepared);
+    }
+
+    /**
+     * Extracts the code from the first response to a prepared conversion and, while the
+     * output is cut off, asks for the rest. Each continuation request carries only an
+     * outline of the code emitted so far and a bounded tail of it, so its size does not
+     * grow with the output; where the provider allows it, the tail is also prefilled as
+     * the assistant's answer so the model resumes exactly where it stopped.
+     */
+    public String completeConversion(ProviderJson.Completion response, PreparedConversion prepared) {
+        StringBuilder fullConversion = new StringBuilder(extractCode(response.text()));
+        while (isTruncated(response) && fullConversion.length() > 0) {
+            logger.info("Response cut off (" + (response.finishReason() != null ? response.finishReason()
+                    : "no " + CODE_END_TAG) + "). Requesting continuation...");
+            int remainingTokens = Math.max(prepared.predictedTokens() - api.estimateTokens(fullConversion),
+                    settings.getMaxTokens());
+            String code;
+            if (api.supportsPrefill()) {
+                // A prefill may not end in whitespace, and the model's text has to follow it exactly
+                fullConversion.setLength(fullConversion.toString().stripTrailing().length());
+                String tail = tailWindow(fullConversion);
+                String requestBody = buildContinuationRequestBody(fullConversion, tail, false);
+                int continuationMaxTokens = api.chooseMaxTokens(requestBody + tail, remainingTokens,
+                        settings.getMaxTokens());
+                response = api.complete(new API.Message("user", requestBody),
+                        new API.Message("assistant", "<response>" + CODE_START_TAG + tail), continuationMaxTokens,
+                        codeStreamListener());
+                code = continuedCode(response.text());
+            } else {
+                // Resume after the last complete block rather than mid-statement
+                int lastClosingBraceIndex = fullConversion.lastIndexOf("}");
+                if (lastClosingBraceIndex != -1) {
+                    fullConversion.setLength(lastClosingBraceIndex + 1);
+                }
+                String requestBody = buildContinuationRequestBody(fullConversion, tailWindow(fullConversion), true);
+                int continuationMaxTokens = api.chooseMaxTokens(requestBody, remainingTokens,
+                        settings.getMaxTokens());
+                response = api.complete(new API.Message("user", requestBody), null, continuationMaxTokens,
+                        codeStreamListener());
+                code = extractCode(response.text());
+                if (!code.isEmpty()) {
+                    fullConversion.append('\n');
+                }
+            }
+            logger.info("Continuation response: " + code);
+            if (code.isEmpty()) {
+                break;
+            }
+            fullConversion.append(code);
+        }
+        return fullConversion.toString();
+    }
+
+    public void setRedoEntireCode(boolean redoEntireCode) {
+        this.redoEntireCode = redoEntireCode;
+    }
+
+    /**
+     * Supplies the Java signatures of already converted classes the code depends on, so
+     * the conversion can call them as they were actually written.
+     */
+    public void setDependencySignatures(String dependencySignatures) {
+        this.dependencySignatures = dependencySignatures == null ? "" : dependencySignatures;
+    }
+
+    /**
+     * Marks the code as part {@code part} of {@code parts} of a file converted in pieces,
+     * and supplies the declarations of the whole file so the part can refer to members
+     * converted in the other parts.
+     */
+    public void setPartOfFile(int part, int parts, String fileOutline) {
+        StringBuilder context = new StringBuilder("This code is part ").append(part).append(" of ").append(parts)
+                .append(" of one file; the other parts are converted separately and merged with this one. "
+                        + "Convert only the members shown, keeping the surrounding class declaration.\n");
+        if (fileOutline != null && !fileOutline.isEmpty()) {
+            context.append("Declarations of the whole file:\n").append(fileOutline).append("\n");
+        }
+        this.partContext = context.toString();
+    }
+
+    /**
+     * Receives the converted code as it streams in. Returning {@code false} aborts the
+     * current generation.
+     */
+    public void setStreamListener(API.StreamListener streamListener) {
+        this.streamListener = streamListener;
+    }
+
+    /**
+     * Forwards tokens to the stream listener and stops reading as soon as the closing
+     * code tag arrives, so the rest of the response is never generated.
+     */
+    private API.StreamListener codeStreamListener() {
+        return (token, textSoFar) -> {
+            boolean keepReading = streamListener == null || streamListener.onToken(token, textSoFar);
+            return keepReading && !endsCodeBlock(token, textSoFar);
+        };
+    }
+
+    private boolean endsCodeBlock(String token, CharSequence textSoFar) {
+        int from = Math.max(0, textSoFar.length() - token.length() - CODE_END_TAG.length());
+        return textSoFar.subSequence(from, textSoFar.length()).toString().contains(CODE_END_TAG);
+    }
+
+    /**
+     * Decides from the finish reason whether the model ran out of tokens. Without one
+     * (cached or batch responses, or a stream closed early) a missing closing code tag
+     * counts as cut off.
+     */
+    private boolean isTruncated(ProviderJson.Completion response) {
+        String finishReason = response.finishReason();
+        if (finishReason != null) {
+            return "length".equals(finishReason) || "max_tokens".equals(finishReason);
+        }
+        return !response.text().contains(CODE_END_TAG);
+    }
+
+    private String tailWindow(CharSequence code) {
+        int window = settings.getContinuationTailChars();
+        int start = Math.max(0, code.length() - window);
+        // Start the window on a line boundary
+        int lineBreak = code.toString().indexOf('\n', start);
+        if (start > 0 && lineBreak >= 0 && lineBreak < code.length() - 1) {
+            start = lineBreak + 1;
+        }
+        return code.subSequence(start, code.length()).toString();
+    }
+
+    /**
+     * @param quoteTail whether to quote the tail in the request; with a prefill it is the
+     *                  start of the answer instead
+     */
+    private String buildContinuationRequestBody(CharSequence emitted, String tail, boolean quoteTail) {
+        StringBuilder request = new StringBuilder(
+                "Your conversion was cut off by the output limit. Outline of the code emitted so far:\n")
+                .append(SourceSignatures.outlinePartialJava(emitted.toString())).append("\n\n");
+        if (quoteTail) {
+            request.append("The code emitted so far ends with:\n").append(tail).append("\n\n")
+                    .append("Continue from the position immediately after the last line shown, without repeating "
+                            + "anything. Output only the continuation inside <code></code>, close every open "
+                            + "brace, and end with </code>.");
+        } else {
+            request.append("Continue the code exactly where it stops, without repeating anything. Close every "
+                    + "open brace and end with </code>.");
+        }
+        return request.toString();
+    }
+
+    /**
+     * Takes the code a prefilled continuation added, up to the closing code tag.
+     */
+    private String continuedCode(String continuation) {
+        int end = continuation.indexOf(CODE_END_TAG);
+        String code = end >= 0 ? continuation.substring(0, end) : continuation;
+        code = code.replace("]]>", "");
+        return StringEscapeUtils.unescapeHtml4(code.stripTrailing());
+    }
+
+    /**
+     * The stable head of a request body: the per-file parts (original code, code and
+     * settings) always come after it so providers can cache it as a prefix.
+     */
+    private String xmlRequestPrefix(String userPrompt) {
+        return "system\n" + "You are a code conversion assistant.\n" + "user\n" + userPrompt + "\n";
+    }
+
+    private String buildXMLRequestBody(String userPrompt, String code, String originalContent,
+            String dependencySignatures, String partContext, int maxTokens) {
+        StringBuilder requestBuilder = new StringBuilder(xmlRequestPrefix(userPrompt));
+
+        if (!dependencySignatures.isEmpty()) {
+            requestBuilder.append("Java signatures of the already converted classes this code uses (call them exactly as declared):\n")
+                    .append(dependencySignatures).append("\n");
+        }
+
+        requestBuilder.append(partContext);
+
+        if (!originalContent.isEmpty()) {
+            requestBuilder.append("Original code:\n").append(originalContent).append("\n");
+        }
+
+        if (!code.isEmpty()) {
+            requestBuilder.append("Code:\n").append(code).append("\n");
+        }
+
+        requestBuilder.append("format: XML\n");
+        requestBuilder.append(
+                "structure: <response><code>{converted_code}</code><thoughts>{thoughts}</thoughts><objectives>{objectives}</objectives></response>\n");
+
+        requestBuilder.append("settings\n");
+        requestBuilder.append("maxTokens: ").append(maxTokens).append("\n");
+
+        requestBuilder.append("assistant\n");
+
+        return requestBuilder.toString().trim();
+    }
+
+    private String extractCode(String response) {
+        Pattern codePattern = Pattern.compile("<code[^>]*>(.*?)</code>|<code[^>]*>(.*)", Pattern.DOTALL);
+        Matcher codeMatcher = codePattern.matcher(response);
+
+        if (codeMatcher.find()) {
+            String extractedCode;
+            if (codeMatcher.group(1) != null) {
+                extractedCode = codeMatcher.group(1).trim();
+            } else {
+                extractedCode = codeMatcher.group(2).trim();
+            }
+            extractedCode = removeCData(extractedCode);
+            return StringEscapeUtils.unescapeHtml4(extractedCode);
+        } else {
+            logger.warn("No <code> tags found in the response");
+        }
+
+        return "";
+    }
+
+    private static String removeCData(String content) {
+        Pattern cdataPattern = Pattern.compile("<!\\[CDATA\\[(.*?)\\]\\]>", Pattern.DOTALL);
+        Matcher cdataMatcher = cdataPattern.matcher(content);
+        if (cdataMatcher.find()) {
+            return cdataMatcher.group(1).trim();
+        }
+
+        Pattern unclosedCdataPattern = Pattern.compile("<!\\[CDATA\\[(.*)", Pattern.DOTALL);
+        Matcher unclosedCdataMatcher = unclosedCdataPattern.matcher(content);
+        if (unclosedCdataMatcher.find()) {
+            content = unclosedCdataMatcher.group(1);
+        }
+
+        content = content.replaceAll("<!\\[CDATA\\[", "");
+        content = content.replaceAll("\\]\\]>", "");
+
+        return content.trim();
+    }
+
+    public String generateMetaContent(String fileContent) throws IOException {
+        String prompt = "Generate a short summary of the method signatures and class definitions from the following code. " +
+                "Do not include the method bodies. Only output the signatures and class definitions.";
+        String request = prompt + "\n" + fileContent;
+        // Signatures are a fraction of the source, so a quarter of its size is ample
+        int maxTokens = api.chooseMaxTokens(request, api.estimateTokens(fileContent) / 4 + 256,
+                settings.getMaxTokens());
+        return api.generateText(request, maxTokens, false);
+    }
+}
@@ -0,0 +1,44 @@
+package software.crud;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.ConstructorDeclaration;
+import com.github.javaparser.ast.body.FieldDeclaration;
+import com.github.javaparser.ast.body.InitializerDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.VariableDeclarator;
+import com.github.javaparser.ast.comments.Comment;
+import com.github.javaparser.ast.stmt.BlockStmt;
+
+/**
+ * Reduces converted Java source to its public surface (package, type declarations,
+ * non-private fields, constructors and method signatures) so it can be given to the
+ * conversion of dependent files.
+ */
+final class JavaSignatures {
+    private JavaSignatures() {
+    }
+
+    /**
+     * @return the signatures, or an empty string if the source does not parse
+     */
+    static String extract(String javaSource) {
+        ParseResult<CompilationUnit> result = new JavaParser().parse(javaSource);
+        if (!result.getResult().isPresent()) {
+            return "";
+        }
+        CompilationUnit cu = result.getResult().get();
+        cu.getAllContainedComments().forEach(Comment::remove);
+        cu.getImports().clear();
+        cu.findAll(InitializerDeclaration.class).forEach(Node::remove);
+        cu.findAll(MethodDeclaration.class, MethodDeclaration::isPrivate).forEach(Node::remove);
+        cu.findAll(ConstructorDeclaration.class, ConstructorDeclaration::isPrivate).forEach(Node::remove);
+        cu.findAll(FieldDeclaration.class, FieldDeclaration::isPrivate).forEach(Node::remove);
+        cu.findAll(MethodDeclaration.class).forEach(MethodDeclaration::removeBody);
+        cu.findAll(ConstructorDeclaration.class).forEach(constructor -> constructor.setBody(new BlockStmt()));
+        cu.findAll(VariableDeclarator.class).forEach(VariableDeclarator::removeInitializer);
+        return cu.toString().trim();
+    }
+}
@@ -0,0 +1,598 @@
+package software.crud;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Conversion jobs of the server, persisted under one directory so queued and
+ * interrupted jobs survive a restart. Each job has a directory holding its
+ * {@value #JOB_FILE}, its log and, unless the submitter named other directories, its
+ * uploaded input and its output.
+ *
+ * <p>Up to {@code server_max_running_jobs} jobs run at once in this process, sharing
+ * the provider connections and caches. When a slot frees up the next job comes from
+ * the client with the fewest running jobs, the one served longest ago on a tie, so one
+ * team's backlog does not hold up everyone else's; within a client jobs run in
+ * submission order. The LLM calls of running jobs are shared out by
+ * {@link FairCallLimiter}.
+ */
+class JobQueue {
+    private static final Logger logger = LoggerFactory.getLogger(JobQueue.class);
+    static final String JOB_FILE = "job.json";
+    static final String LOG_FILE = "log.txt";
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .enable(SerializationFeature.INDENT_OUTPUT)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    enum State {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        COMPLETED_WITH_FAILURES,
+        CANCELLED,
+        API_UNAVAILABLE,
+        FAILED;
+
+        boolean isFinished() {
+            return this != QUEUED && this != RUNNING;
+        }
+    }
+
+    /**
+     * What a client asked to convert. Unset fields take their value from the server's
+     * settings.
+     *
+     * @param client identifies the submitting team for fair scheduling
+     * @param input  the directory to convert; uploaded jobs convert their own copy
+     * @param output where the results go; by default the job's own directory
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record Request(String client, String input, String output, String language, String prompt,
+            Integer concurrency, boolean includeMeta, boolean aiFileNames, boolean combineSmallFiles,
+            boolean batchMode) {
+        Request withDirectories(String input, String output) {
+            return new Request(client, input, output, language, prompt, concurrency, includeMeta, aiFileNames,
+                    combineSmallFiles, batchMode);
+        }
+    }
+
+    /**
+     * @param submittedAt epoch milliseconds, as are the other times
+     * @param message     why the job failed or was requeued, if it did
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record Job(String id, Request request, State state, int progress, int failedFiles, long submittedAt,
+            Long startedAt, Long finishedAt, String message) {
+        Job withState(State state, String message) {
+            Long now = System.currentTimeMillis();
+            return new Job(id, request, state, state == State.QUEUED ? 0 : progress, failedFiles, submittedAt,
+                    state == State.RUNNING ? now : startedAt, state.isFinished() ? now : null, message);
+        }
+
+        Job withProgress(int progress, int failedFiles) {
+            return new Job(id, request, state, progress, failedFiles, submittedAt, startedAt, finishedAt, message);
+        }
+    }
+
+    private final Path directory;
+    private final Map<String, Object> settings;
+    private final List<Path> allowedRoots;
+    private final int maxRunning;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Map<String, ConversionEngine> engines = new ConcurrentHashMap<>();
+    // Clients' running job counts and when each last had a job started, for fair picks
+    private final Map<String, Integer> runningByClient = new HashMap<>();
+    private final Map<String, Long> lastStartByClient = new HashMap<>();
+    private final ExecutorService runners;
+    private volatile boolean closing;
+
+    private JobQueue(Path directory, Map<String, Object> settings, List<Path> allowedRoots, int maxRunning) {
+        this.directory = directory;
+        this.settings = settings;
+        this.allowedRoots = allowedRoots;
+        this.maxRunning = Math.max(1, maxRunning);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.runners = Executors.newFixedThreadPool(this.maxRunning, runnable -> {
+            Thread thread = new Thread(runnable, "job-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Loads the jobs kept in {@code directory} and starts the queued ones. Jobs that
+     * were running when the previous server stopped are queued again; the conversion
+     * manifest and journal in their output let them pick up where they left off.
+     *
+     * @param settings the server's settings, the defaults for every job; with
+     *                 {@code server_allowed_roots} (a list or comma-separated directories)
+     *                 jobs may only read and write under those directories, apart from
+     *                 their own uploads and outputs in {@code directory}
+     */
+    static JobQueue open(Path directory, Map<String, Object> settings, int maxRunning) throws IOException {
+        Object configured = settings.getOrDefault("server_allowed_roots", "");
+        List<?> roots = configured instanceof List ? (List<?>) configured
+                : Arrays.asList(configured.toString().split(","));
+        List<Path> allowedRoots = new ArrayList<>();
+        for (Object root : roots) {
+            if (!root.toString().trim().isEmpty()) {
+                allowedRoots.add(resolveLinks(Path.of(root.toString().trim())));
+            }
+        }
+        JobQueue queue = new JobQueue(directory.toAbsolutePath().normalize(), settings, allowedRoots, maxRunning);
+        Files.createDirectories(queue.directory);
+        try (Stream<Path> entries = Files.list(queue.directory)) {
+            for (Path jobFile : entries.map(entry -> entry.resolve(JOB_FILE)).filter(Files::isRegularFile)
+                    .collect(Collectors.toList())) {
+                try {
+                    Job job = MAPPER.readValue(jobFile.toFile(), Job.class);
+                    if (job.state() == State.RUNNING) {
+                        job = job.withState(State.QUEUED, "Requeued after a server restart");
+                        queue.save(job);
+                    }
+                    queue.jobs.put(job.id(), job);
+                } catch (IOException e) {
+                    logger.warn("Ignoring unreadable job {}: {}", jobFile, e.getMessage());
+                }
+            }
+        }
+        queue.dispatch();
+        return queue;
+    }
+
+    /**
+     * Queues a conversion.
+     *
+     * @param upload a zip of the input tree to convert instead of {@code request.input()},
+     *               or {@code null}
+     * @throws IllegalArgumentException if the request names an unknown language or a
+     *                                  missing input, or an output another unfinished
+     *                                  job writes to
+     */
+    Job submit(Request request, InputStream upload) throws IOException {
+        if (closing) {
+            throw new IllegalStateException("The server is shutting down");
+        }
+        LanguageSettings languageSettings = languageSettings(request);
+        if (languageSettings.getInputExtension() == null) {
+            throw new IllegalArgumentException("Unknown language " + languageSettings.getTargetLanguage()
+                    + "; expected one of " + languageSettings.languageExtensions.keySet());
+        }
+        if (request.output() != null) {
+            checkOutputFree(Path.of(request.output()).toAbsolutePath().normalize().toString());
+        }
+        if (request.output() != null) {
+            checkAllowed("Output", Path.of(request.output()));
+        }
+        String input = request.input();
+        if (upload == null) {
+            if (input == null || !Files.isDirectory(Path.of(input))) {
+                throw new IllegalArgumentException("Input directory not found: " + input);
+            }
+            checkAllowed("Input", Path.of(input));
+        }
+        String id = newId();
+        Path jobDirectory = directory.resolve(id);
+        Job job;
+        boolean queued = false;
+        try {
+            if (upload != null) {
+                Path uploaded = jobDirectory.resolve("input");
+                extractZip(upload, uploaded);
+                input = uploaded.toString();
+            }
+            Path output = request.output() != null ? Path.of(request.output()) : jobDirectory.resolve("output");
+            Files.createDirectories(output);
+            job = new Job(id, request.withDirectories(Path.of(input).toAbsolutePath().normalize().toString(),
+                    output.toAbsolutePath().normalize().toString()), State.QUEUED, 0, 0,
+                    System.currentTimeMillis(), null, null, null);
+            synchronized (this) {
+                checkOutputFree(job.request().output());
+                save(job);
+                jobs.put(id, job);
+            }
+            queued = true;
+        } finally {
+            if (!queued) {
+                // The upload and the default output of a rejected job are left to nobody
+                deleteJobDirectory(jobDirectory);
+            }
+        }
+        appendLog(id, "Queued by " + clientOf(job));
+        dispatch();
+        return job;
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code server_allowed_roots} is set and
+     *                                  {@code path}, with links resolved, is under none
+     *                                  of them
+     */
+    private void checkAllowed(String kind, Path path) throws IOException {
+        if (allowedRoots.isEmpty()) {
+            return;
+        }
+        Path resolved = resolveLinks(path);
+        if (allowedRoots.stream().noneMatch(resolved::startsWith)) {
+            throw new IllegalArgumentException(kind + " " + path + " is outside server_allowed_roots");
+        }
+    }
+
+    /**
+     * @return {@code path} made absolute, with the links in its existing part resolved
+     */
+    private static Path resolveLinks(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath().normalize();
+        Path existing = absolute;
+        while (existing != null && !Files.exists(existing)) {
+            existing = existing.getParent();
+        }
+        return existing == null ? absolute : existing.toRealPath().resolve(existing.relativize(absolute));
+    }
+
+    private synchronized void checkOutputFree(String output) {
+        for (Job other : jobs.values()) {
+            if (!other.state().isFinished() && other.request().output().equals(output)) {
+                throw new IllegalArgumentException("Output " + output + " is in use by job " + other.id());
+            }
+        }
+    }
+
+    /**
+     * @return the job, or {@code null} if there is none with that id
+     */
+    Job get(String id) {
+        return jobs.get(id);
+    }
+
+    List<Job> list() {
+        List<Job> all = new ArrayList<>(jobs.values());
+        all.sort(Comparator.comparingLong(Job::submittedAt));
+        return all;
+    }
+
+    /**
+     * Cancels a queued job, or stops a running one without committing its outputs.
+     *
+     * @return the job, or {@code null} if there is none with that id
+     */
+    Job cancel(String id) throws IOException {
+        synchronized (this) {
+            Job job = jobs.get(id);
+            if (job == null || job.state().isFinished()) {
+                return job;
+            }
+            if (job.state() == State.QUEUED) {
+                job = job.withState(State.CANCELLED, null);
+                save(job);
+                jobs.put(id, job);
+                appendLog(id, "Cancelled before it started");
+                return job;
+            }
+        }
+        ConversionEngine engine = engines.get(id);
+        if (engine != null) {
+            appendLog(id, "Cancelling...");
+            engine.cancel();
+        }
+        return jobs.get(id);
+    }
+
+    /**
+     * @return the job's log from byte {@code offset} on
+     */
+    byte[] readLog(String id, long offset) throws IOException {
+        Path log = directory.resolve(id).resolve(LOG_FILE);
+        if (!Files.isRegularFile(log)) {
+            return new byte[0];
+        }
+        try (RandomAccessFile file = new RandomAccessFile(log.toFile(), "r")) {
+            long length = file.length();
+            if (offset >= length) {
+                return new byte[0];
+            }
+            byte[] bytes = new byte[(int) Math.min(length - offset, 1 << 20)];
+            file.seek(offset);
+            file.readFully(bytes);
+            return bytes;
+        }
+    }
+
+    /**
+     * Waits up to {@code timeoutMillis} for the job to log a line or change state.
+     */
+    synchronized void awaitChange(long timeoutMillis) throws InterruptedException {
+        wait(timeoutMillis);
+    }
+
+    /**
+     * Writes the job's output tree as a zip, leaving out the conversion's own hidden
+     * bookkeeping files.
+     */
+    void writeResults(String id, OutputStream out) throws IOException {
+        Path output = Path.of(jobs.get(id).request().output());
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(output)) {
+            files = walk.filter(Files::isRegularFile)
+                    .filter(file -> {
+                        for (Path part : output.relativize(file)) {
+                            if (part.toString().startsWith(".")) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    })
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        ZipOutputStream zip = new ZipOutputStream(out);
+        for (Path file : files) {
+            zip.putNextEntry(new ZipEntry(output.relativize(file).toString().replace(File.separatorChar, '/')));
+            Files.copy(file, zip);
+            zip.closeEntry();
+        }
+        zip.finish();
+    }
+
+    /**
+     * Stops taking jobs and cancels the running ones, which are queued again for the
+     * next start.
+     */
+    void close() {
+        closing = true;
+        engines.values().forEach(ConversionEngine::cancel);
+        runners.shutdown();
+        try {
+            runners.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Starts queued jobs while there are free slots.
+     */
+    private synchronized void dispatch() {
+        while (!closing && engines.size() < maxRunning) {
+            Job next = nextJob();
+            if (next == null) {
+                return;
+            }
+            Job running = next.withState(State.RUNNING, null);
+            try {
+                save(running);
+            } catch (IOException e) {
+                logger.warn("Could not save job {}: {}", next.id(), e.getMessage());
+            }
+            jobs.put(running.id(), running);
+            String client = clientOf(running);
+            runningByClient.merge(client, 1, Integer::sum);
+            lastStartByClient.put(client, System.nanoTime());
+            // Registered before it runs so the slot is taken and cancel can reach it
+            ConversionEngine engine = newEngine(running);
+            engines.put(running.id(), engine);
+            runners.execute(() -> run(running, engine));
+        }
+    }
+
+    private Job nextJob() {
+        Job next = null;
+        for (Job job : jobs.values()) {
+            if (job.state() == State.QUEUED && (next == null || fairer(job, next))) {
+                next = job;
+            }
+        }
+        return next;
+    }
+
+    private boolean fairer(Job a, Job b) {
+        String clientA = clientOf(a);
+        String clientB = clientOf(b);
+        if (!clientA.equals(clientB)) {
+            int running = Integer.compare(runningByClient.getOrDefault(clientA, 0),
+                    runningByClient.getOrDefault(clientB, 0));
+            if (running != 0) {
+                return running < 0;
+            }
+            long servedA = lastStartByClient.getOrDefault(clientA, Long.MIN_VALUE);
+            long servedB = lastStartByClient.getOrDefault(clientB, Long.MIN_VALUE);
+            if (servedA != servedB) {
+                return servedA < servedB;
+            }
+        }
+        return a.submittedAt() < b.submittedAt();
+    }
+
+    private ConversionEngine newEngine(Job job) {
+        Request request = job.request();
+        ConversionEngine.Options options = new ConversionEngine.Options(new File(request.input()),
+                new File(request.output()), request.includeMeta(), request.aiFileNames(),
+                request.combineSmallFiles(), request.batchMode(), false, null);
+        return new ConversionEngine(languageSettings(request), options, new ConversionEngine.Listener() {
+            @Override
+            public void log(String message) {
+                // A cancelled run abandons its requests in flight, which may still report
+                if (engines.containsKey(job.id())) {
+                    appendLog(job.id(), message);
+                }
+            }
+
+            @Override
+            public void progress(int percent) {
+                if (engines.containsKey(job.id())) {
+                    updateProgress(job.id(), percent);
+                }
+            }
+        });
+    }
+
+    private void run(Job job, ConversionEngine engine) {
+        FairCallLimiter.setTenant(job.id());
+        State state;
+        String message = null;
+        try {
+            appendLog(job.id(), "Started");
+            ConversionEngine.Outcome outcome = engine.run();
+            state = State.valueOf(outcome.name());
+            if (state == State.CANCELLED && closing) {
+                state = State.QUEUED;
+                message = "Requeued after a server shutdown";
+            }
+        } catch (RuntimeException e) {
+            logger.error("Job {} failed", job.id(), e);
+            state = State.FAILED;
+            message = e.toString();
+        } finally {
+            FairCallLimiter.setTenant(null);
+            engines.remove(job.id());
+        }
+        appendLog(job.id(), "Finished: " + state);
+        synchronized (this) {
+            Job finished = jobs.get(job.id()).withProgress(jobs.get(job.id()).progress(), engine.failedFiles())
+                    .withState(state, message);
+            try {
+                save(finished);
+            } catch (IOException e) {
+                logger.warn("Could not save job {}: {}", job.id(), e.getMessage());
+            }
+            jobs.put(job.id(), finished);
+            runningByClient.merge(clientOf(job), -1, Integer::sum);
+            notifyAll();
+        }
+        dispatch();
+    }
+
+    private synchronized void updateProgress(String id, int percent) {
+        Job job = jobs.get(id);
+        if (job == null || percent <= job.progress()) {
+            return;
+        }
+        ConversionEngine engine = engines.get(id);
+        Job updated = job.withProgress(percent, engine != null ? engine.failedFiles() : job.failedFiles());
+        jobs.put(id, updated);
+        try {
+            save(updated);
+        } catch (IOException e) {
+            logger.warn("Could not save job {}: {}", id, e.getMessage());
+        }
+        notifyAll();
+    }
+
+    private void appendLog(String id, String message) {
+        Path log = directory.resolve(id).resolve(LOG_FILE);
+        synchronized (this) {
+            try {
+                Files.createDirectories(log.getParent());
+                try (BufferedWriter writer = Files.newBufferedWriter(log, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    writer.write(message);
+                    writer.newLine();
+                }
+            } catch (IOException e) {
+                logger.warn("Could not write the log of job {}: {}", id, e.getMessage());
+            }
+            notifyAll();
+        }
+    }
+
+    private LanguageSettings languageSettings(Request request) {
+        LanguageSettings languageSettings = Reprogrammer.languageSettings(settings);
+        if (request.language() != null) {
+            languageSettings.setTargetLanguage(request.language());
+        }
+        if (request.prompt() != null) {
+            languageSettings.setPrompt(request.prompt());
+        }
+        if (request.concurrency() != null) {
+            if (request.concurrency() < 1) {
+                throw new IllegalArgumentException("concurrency must be at least 1");
+            }
+            languageSettings.setConversionConcurrency(request.concurrency());
+        }
+        return languageSettings;
+    }
+
+    private void save(Job job) throws IOException {
+        Path jobDirectory = directory.resolve(job.id());
+        Files.createDirectories(jobDirectory);
+        Path temp = jobDirectory.resolve(JOB_FILE + ".tmp");
+        MAPPER.writeValue(temp.toFile(), job);
+        Files.move(temp, jobDirectory.resolve(JOB_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String newId() {
+        String id;
+        do {
+            id = UUID.randomUUID().toString().substring(0, 8);
+        } while (jobs.containsKey(id) || Files.exists(directory.resolve(id)));
+        return id;
+    }
+
+    private static String clientOf(Job job) {
+        return job.request().client() != null ? job.request().client() : "";
+    }
+
+    private static void deleteJobDirectory(Path jobDirectory) {
+        if (!Files.exists(jobDirectory)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(jobDirectory)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not delete {}: {}", jobDirectory, e.getMessage());
+        }
+    }
+
+    private static void extractZip(InputStream upload, Path target) throws IOException {
+        Files.createDirectories(target);
+        ZipInputStream zip = new ZipInputStream(upload);
+        for (ZipEntry entry; (entry = zip.getNextEntry()) != null;) {
+            Path file = target.resolve(entry.getName()).normalize();
+            if (!file.startsWith(target)) {
+                throw new IllegalArgumentException("Zip entry outside the archive root: " + entry.getName());
+            }
+            if (entry.isDirectory()) {
+                Files.createDirectories(file);
+            } else {
+                Files.createDirectories(file.getParent());
+                Files.copy(zip, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+}
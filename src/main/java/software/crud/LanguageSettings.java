@@ -0,0 +1,85 @@
+package software.crud;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class LanguageSettings {
+    private String targetLanguage;
+    private int maxTokens;
+    private String prompt;
+    private String outputExtension;
+    private int conversionConcurrency = 1;
+    private int continuationTailChars = 2000;
+    final Map<String, String> languageExtensions;
+    final Map<String, String> packagePatterns;
+
+    public LanguageSettings(String targetLanguage, int maxTokens, String prompt, String outputExtension,
+            Map<String, String> languageExtensions) {
+        this.targetLanguage = targetLanguage;
+        this.maxTokens = maxTokens;
+        this.prompt = prompt;
+        this.outputExtension = outputExtension;
+        this.languageExtensions = languageExtensions;
+        this.packagePatterns = new HashMap<>();
+        this.packagePatterns.put("Java", "package\\s+([a-zA-Z0-9_.]+);");
+        this.packagePatterns.put("C#", "namespace\\s+([a-zA-Z0-9_.]+)");
+        this.packagePatterns.put("PHP", "namespace\\s+([a-zA-Z0-9_\\\\]+);");
+        this.packagePatterns.put("Go", "package\\s+([a-zA-Z0-9_]+)");
+    }
+
+    public String getTargetLanguage() {
+        return targetLanguage;
+    }
+
+    public int getMaxTokens() {
+        return maxTokens;
+    }
+
+    public String getOutputExtension() {
+        return outputExtension;
+    }
+
+    public String getPrompt() {
+        return prompt;
+    }
+
+    public String getInputExtension() {
+        return languageExtensions.get(targetLanguage);
+    }
+
+    public String getPackagePattern() {
+        return packagePatterns.get(targetLanguage);
+    }
+
+    public void setTargetLanguage(String targetLanguage) {
+        this.targetLanguage = targetLanguage;
+    }
+
+    public void setMaxTokens(int maxTokens) {
+        this.maxTokens = maxTokens;
+    }
+
+    public void setPrompt(String prompt) {
+        this.prompt = prompt;
+    }
+
+    public void setOutputExtension(String outputExtension) {
+        this.outputExtension = outputExtension;
+    }
+
+    public int getConversionConcurrency() {
+        return conversionConcurrency;
+    }
+
+    public void setConversionConcurrency(int conversionConcurrency) {
+        this.conversionConcurrency = Math.max(1, conversionConcurrency);
+    }
+
+    public int getContinuationTailChars() {
+        return continuationTailChars;
+    }
+
+    public void setContinuationTailChars(int continuationTailChars) {
+        this.continuationTailChars = Math.max(1, continuationTailChars);
+    }
+}
@@ -0,0 +1,132 @@
+package software.crud;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Meta summaries of input files, keyed by a hash of the file content and of whatever
+ * produced the summary. Each summary is computed at most once per run, however many
+ * files in the directory need it, and summaries are kept in the output directory so
+ * the next run can reuse those of unchanged files.
+ */
+class MetaSummaryCache {
+    private static final Logger logger = LoggerFactory.getLogger(MetaSummaryCache.class);
+    static final String FILE_NAME = ".reprogrammer-meta.json";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    interface Summarizer {
+        String summarize() throws IOException;
+    }
+
+    private final Path file;
+    private final Map<String, String> stored;
+    private final Map<String, FutureTask<String>> summaries = new ConcurrentHashMap<>();
+    private final AtomicInteger reused = new AtomicInteger();
+    private final AtomicInteger generated = new AtomicInteger();
+
+    private MetaSummaryCache(Path file, Map<String, String> stored) {
+        this.file = file;
+        this.stored = stored;
+    }
+
+    /**
+     * Loads the summaries saved in {@code outputDirectory}; an unreadable file is
+     * treated as empty.
+     */
+    static MetaSummaryCache load(Path outputDirectory) {
+        Path file = outputDirectory.resolve(FILE_NAME);
+        Map<String, String> stored = Map.of();
+        if (Files.isRegularFile(file)) {
+            try {
+                stored = MAPPER.readValue(file.toFile(), new TypeReference<Map<String, String>>() {
+                });
+            } catch (IOException e) {
+                logger.warn("Ignoring unreadable meta cache {}: {}", file, e.getMessage());
+            }
+        }
+        return new MetaSummaryCache(file, stored);
+    }
+
+    /**
+     * @return the summary stored under {@code key}, running {@code summarizer} only if
+     *         no earlier run or concurrent caller has produced it
+     */
+    String get(String key, Summarizer summarizer) throws IOException {
+        FutureTask<String> task = new FutureTask<>(() -> {
+            String summary = stored.get(key);
+            if (summary != null) {
+                reused.incrementAndGet();
+                return summary;
+            }
+            summary = summarizer.summarize();
+            generated.incrementAndGet();
+            return summary;
+        });
+        FutureTask<String> summary = summaries.putIfAbsent(key, task);
+        if (summary == null) {
+            summary = task;
+            task.run();
+        }
+        try {
+            return summary.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while summarizing", e);
+        } catch (ExecutionException e) {
+            // Let the next caller try again
+            summaries.remove(key, summary);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    /**
+     * Writes the summaries used in this run.
+     *
+     * @param prune whether to drop earlier summaries this run did not use, which is only
+     *              safe once a run has seen every file
+     */
+    void save(boolean prune) throws IOException {
+        Map<String, String> used = new TreeMap<>(prune ? Map.of() : stored);
+        for (Map.Entry<String, FutureTask<String>> entry : summaries.entrySet()) {
+            FutureTask<String> task = entry.getValue();
+            if (task.isDone()) {
+                try {
+                    used.put(entry.getKey(), task.get());
+                } catch (ExecutionException e) {
+                    // Failed summaries are not kept
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        if (used.isEmpty() && stored.isEmpty()) {
+            return;
+        }
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(FILE_NAME + ".tmp");
+        MAPPER.writeValue(temp.toFile(), used);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    String describe() {
+        return "Meta summaries: " + generated.get() + " generated, " + reused.get() + " reused from earlier runs";
+    }
+}
@@ -0,0 +1,226 @@
+package software.crud;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Virtual output tree for one run. Converted files are staged here instead of being
+ * written into the output directory, post-processing edits the staged copies, and
+ * {@link #commit} publishes everything at the end: each file is written to a temp
+ * file and renamed into place atomically, and files whose content is already on disk
+ * are not touched.
+ *
+ * <p>Contents are kept in memory up to a budget. Beyond it they spill to copies in
+ * {@value #DIRECTORY} in the output directory, which also survive a run that dies
+ * before committing for the next run to pick up; content held in memory is lost then,
+ * and the next run converts those files again.
+ */
+class OutputStage {
+    static final String DIRECTORY = ".reprogrammer-staging";
+
+    record CommitResult(int written, int unchanged) {
+    }
+
+    private final Path outputRoot;
+    private final Path stagingRoot;
+    private final long memoryBudget;
+    private final Set<Path> targets = ConcurrentHashMap.newKeySet();
+    // Contents over the memory budget are absent here and read from the spilled copy
+    private final Map<Path, String> contents = new ConcurrentHashMap<>();
+    private final AtomicLong memoryUsed = new AtomicLong();
+
+    /**
+     * @param memoryBudgetBytes how much staged content to keep in memory before spilling
+     *                          to disk
+     */
+    OutputStage(Path outputRoot, long memoryBudgetBytes) {
+        this.outputRoot = outputRoot.toAbsolutePath().normalize();
+        this.stagingRoot = this.outputRoot.resolve(DIRECTORY);
+        this.memoryBudget = memoryBudgetBytes;
+    }
+
+    /**
+     * Stages {@code content} as the new content of {@code target}, a path inside the
+     * output directory.
+     */
+    void stage(Path target, String content) throws IOException {
+        Path normalized = normalize(target);
+        targets.add(normalized);
+        if (!remember(normalized, content)) {
+            spill(normalized, content);
+        }
+    }
+
+    /**
+     * Replaces the staged content of {@code target}, like {@link #stage} but only for a
+     * target that is already staged.
+     */
+    void update(Path target, String content) throws IOException {
+        Path normalized = normalize(target);
+        if (!targets.contains(normalized)) {
+            throw new IOException("Not staged: " + target);
+        }
+        if (!remember(normalized, content)) {
+            spill(normalized, content);
+        }
+    }
+
+    private void spill(Path target, String content) throws IOException {
+        Path copy = stagedCopy(target);
+        Files.createDirectories(copy.getParent());
+        Path temp = copy.resolveSibling(copy.getFileName() + ".tmp");
+        Files.writeString(temp, content, StandardCharsets.UTF_8);
+        Files.move(temp, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private boolean remember(Path target, String content) {
+        String previous = contents.remove(target);
+        if (previous != null) {
+            memoryUsed.addAndGet(-2L * previous.length());
+        }
+        if (memoryUsed.get() + 2L * content.length() > memoryBudget) {
+            return false;
+        }
+        memoryUsed.addAndGet(2L * content.length());
+        contents.put(target, content);
+        return true;
+    }
+
+    /**
+     * @return whether {@code target} is staged, left staged by an earlier run, or
+     *         already in the output directory
+     */
+    boolean exists(Path target) {
+        Path normalized = normalize(target);
+        return targets.contains(normalized) || Files.isRegularFile(stagedCopy(normalized))
+                || Files.isRegularFile(normalized);
+    }
+
+    /**
+     * Reads the content {@code target} will have after the commit. A copy an interrupted
+     * run left staged is taken over, so this run commits it.
+     */
+    String read(Path target) throws IOException {
+        Path normalized = normalize(target);
+        String content = contents.get(normalized);
+        if (content != null) {
+            return content;
+        }
+        Path copy = stagedCopy(normalized);
+        if (Files.isRegularFile(copy)) {
+            content = Files.readString(copy, StandardCharsets.UTF_8);
+            if (targets.add(normalized)) {
+                remember(normalized, content);
+            }
+            return content;
+        }
+        return Files.readString(normalized, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return whether {@code target} was staged in this run or taken over from an
+     *         interrupted one
+     */
+    boolean isStaged(Path target) {
+        return targets.contains(normalize(target));
+    }
+
+    List<Path> stagedTargets() {
+        return new ArrayList<>(targets);
+    }
+
+    /**
+     * Publishes every staged file into the output directory and clears the stage.
+     */
+    CommitResult commit() throws IOException {
+        int written = 0;
+        int unchanged = 0;
+        for (Path target : stagedTargets()) {
+            String content = read(target);
+            byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+            if (Files.isRegularFile(target) && Files.size(target) == bytes.length
+                    && Arrays.equals(Files.readAllBytes(target), bytes)) {
+                unchanged++;
+            } else {
+                Files.createDirectories(target.getParent());
+                Path temp = target.resolveSibling("." + target.getFileName() + ".tmp");
+                Files.write(temp, bytes);
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                written++;
+            }
+            Files.deleteIfExists(stagedCopy(target));
+            targets.remove(target);
+            String dropped = contents.remove(target);
+            if (dropped != null) {
+                memoryUsed.addAndGet(-2L * dropped.length());
+            }
+        }
+        deleteEmptyDirectories(stagingRoot);
+        return new CommitResult(written, unchanged);
+    }
+
+    /**
+     * Deletes whatever an earlier run left staged, once nothing is going to resume it.
+     */
+    void discardLeftovers() throws IOException {
+        if (!Files.isDirectory(stagingRoot)) {
+            return;
+        }
+        Files.walkFileTree(stagingRoot, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private Path stagedCopy(Path target) {
+        return stagingRoot.resolve(outputRoot.relativize(target));
+    }
+
+    private Path normalize(Path target) {
+        return target.toAbsolutePath().normalize();
+    }
+
+    private static void deleteEmptyDirectories(Path root) throws IOException {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                try (var entries = Files.list(dir)) {
+                    if (entries.findAny().isEmpty()) {
+                        Files.delete(dir);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
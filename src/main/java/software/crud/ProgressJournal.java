@@ -0,0 +1,229 @@
+package software.crud;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only record of the files a run has finished, one JSON line per file, kept in
+ * the output directory next to the {@link ConversionManifest}. Lines are appended as
+ * each file completes and forced to disk in batches, either every
+ * {@code syncBatch} records or every {@code syncIntervalMillis}, whichever comes first.
+ *
+ * <p>A run that is killed leaves the journal behind; the next run with the same
+ * settings fingerprint recovers its entries and skips those files. A torn last line is
+ * dropped. On open, a journal with superseded or torn lines is compacted to one line per
+ * file. A run that completes folds the journal into the manifest and deletes it.
+ */
+class ProgressJournal implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ProgressJournal.class);
+    static final String FILE_NAME = ".reprogrammer-journal.jsonl";
+    private static final int VERSION = 1;
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    /**
+     * One journal line: the header carries {@code version} and {@code fingerprint},
+     * every other line an {@code input} key and its entry.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record Line(Integer version, String fingerprint, String input, ConversionManifest.Entry entry) {
+    }
+
+    private final Path file;
+    private final Map<String, ConversionManifest.Entry> recovered;
+    private final int syncBatch;
+    private final FileChannel channel;
+    private final ScheduledExecutorService syncer;
+    private int unsynced;
+    private boolean closed;
+
+    private ProgressJournal(Path file, Map<String, ConversionManifest.Entry> recovered, int syncBatch,
+            long syncIntervalMillis) throws IOException {
+        this.file = file;
+        this.recovered = Collections.unmodifiableMap(recovered);
+        this.syncBatch = Math.max(1, syncBatch);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        this.syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "progress-journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, syncIntervalMillis);
+        syncer.scheduleWithFixedDelay(this::syncQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens the journal in {@code outputDirectory}, recovering the entries of an
+     * interrupted run with the same {@code fingerprint}.
+     *
+     * @param resume false to discard whatever an earlier run left behind
+     */
+    static ProgressJournal open(Path outputDirectory, String fingerprint, boolean resume, int syncBatch,
+            long syncIntervalMillis) throws IOException {
+        Path file = outputDirectory.resolve(FILE_NAME);
+        Map<String, ConversionManifest.Entry> recovered = new LinkedHashMap<>();
+        int lines = resume ? read(file, fingerprint, recovered) : -1;
+        // -1: missing, unusable or discarded; anything beyond header + one line per file is superseded
+        if (lines != recovered.size() + 1 || !endsWithNewline(file)) {
+            rewrite(file, fingerprint, recovered);
+        }
+        return new ProgressJournal(file, recovered, syncBatch, syncIntervalMillis);
+    }
+
+    /**
+     * @return the number of lines read, header and any torn line included, or -1 if
+     *         the journal is missing or belongs to different settings
+     */
+    private static int read(Path file, String fingerprint, Map<String, ConversionManifest.Entry> recovered) {
+        if (!Files.isRegularFile(file)) {
+            return -1;
+        }
+        int lines = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String text;
+            while ((text = reader.readLine()) != null) {
+                Line line;
+                try {
+                    line = MAPPER.readValue(text, Line.class);
+                } catch (JsonProcessingException e) {
+                    logger.info("Dropping torn journal line {} in {}", lines + 1, file);
+                    // Counted so the mismatch forces a rewrite before anything is appended after it
+                    lines++;
+                    break;
+                }
+                if (lines++ == 0) {
+                    if (line.version() == null || line.version() != VERSION
+                            || !fingerprint.equals(line.fingerprint())) {
+                        logger.info("Discarding journal {} written with different settings", file);
+                        return -1;
+                    }
+                } else if (line.input() != null && line.entry() != null) {
+                    recovered.put(line.input(), line.entry());
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable journal {}: {}", file, e.getMessage());
+            recovered.clear();
+            return -1;
+        }
+        return lines;
+    }
+
+    private static boolean endsWithNewline(Path file) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (in.size() == 0) {
+                return false;
+            }
+            ByteBuffer last = ByteBuffer.allocate(1);
+            in.read(last, in.size() - 1);
+            return last.get(0) == '\n';
+        }
+    }
+
+    private static void rewrite(Path file, String fingerprint, Map<String, ConversionManifest.Entry> entries)
+            throws IOException {
+        Files.createDirectories(file.getParent());
+        Path temp = file.resolveSibling(FILE_NAME + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder text = new StringBuilder(toJson(new Line(VERSION, fingerprint, null, null)));
+            for (Map.Entry<String, ConversionManifest.Entry> entry : entries.entrySet()) {
+                text.append(toJson(new Line(null, null, entry.getKey(), entry.getValue())));
+            }
+            writeFully(out, text.toString());
+            out.force(true);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the entries recovered from an interrupted run, keyed by input path
+     */
+    Map<String, ConversionManifest.Entry> recovered() {
+        return recovered;
+    }
+
+    /**
+     * Appends the completion of {@code inputKey}. The line reaches the file immediately
+     * and the disk with the next batched sync.
+     */
+    synchronized void append(String inputKey, ConversionManifest.Entry entry) throws IOException {
+        if (closed) {
+            return;
+        }
+        writeFully(channel, toJson(new Line(null, null, inputKey, entry)));
+        if (++unsynced >= syncBatch) {
+            sync();
+        }
+    }
+
+    private synchronized void sync() throws IOException {
+        if (unsynced > 0 && !closed) {
+            channel.force(false);
+            unsynced = 0;
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            logger.warn("Failed to sync journal {}: {}", file, e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        syncer.shutdownNow();
+        try {
+            sync();
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    /**
+     * Closes and removes the journal once its entries are safely in the manifest.
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+
+    private static String toJson(Line line) throws JsonProcessingException {
+        return MAPPER.writeValueAsString(line) + "\n";
+    }
+
+    private static void writeFully(FileChannel channel, String text) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
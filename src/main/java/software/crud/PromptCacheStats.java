@@ -0,0 +1,53 @@
+package software.crud;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals of the usage each provider reports, showing how much of the prompt
+ * input was served from the provider's prompt cache.
+ */
+class PromptCacheStats {
+    private final Map<String, Totals> totals = new ConcurrentHashMap<>();
+
+    void record(String provider, ProviderJson.Usage usage) {
+        if (usage == null) {
+            return;
+        }
+        Totals providerTotals = totals.computeIfAbsent(provider, name -> new Totals());
+        providerTotals.requests.incrementAndGet();
+        providerTotals.inputTokens.addAndGet(usage.inputTokens());
+        providerTotals.cachedInputTokens.addAndGet(usage.cachedInputTokens());
+        providerTotals.cacheWriteTokens.addAndGet(usage.cacheWriteTokens());
+        providerTotals.outputTokens.addAndGet(usage.outputTokens());
+    }
+
+    String describe() {
+        if (totals.isEmpty()) {
+            return "Prompt cache: no usage reported";
+        }
+        StringBuilder description = new StringBuilder("Prompt cache:");
+        totals.forEach((provider, providerTotals) -> {
+            long input = providerTotals.inputTokens.get();
+            long cached = providerTotals.cachedInputTokens.get();
+            description.append(String.format(" %s %d requests, %d of %d input tokens cached (%.1f%%)",
+                    provider, providerTotals.requests.get(), cached, input,
+                    input == 0 ? 0.0 : cached * 100.0 / input));
+            long written = providerTotals.cacheWriteTokens.get();
+            if (written > 0) {
+                description.append(", ").append(written).append(" written");
+            }
+            description.append(", ").append(providerTotals.outputTokens.get()).append(" output tokens;");
+        });
+        return description.toString();
+    }
+
+    private static class Totals {
+        private final AtomicLong requests = new AtomicLong();
+        private final AtomicLong inputTokens = new AtomicLong();
+        private final AtomicLong cachedInputTokens = new AtomicLong();
+        private final AtomicLong cacheWriteTokens = new AtomicLong();
+        private final AtomicLong outputTokens = new AtomicLong();
+    }
+}
@@ -0,0 +1,474 @@
+package software.crud;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Typed request bodies and pull-parsers for the provider wire formats. Requests are
+ * serialised straight into the HTTP sink by pre-built writers, and responses are read
+ * token by token, keeping only the fields the pipeline uses instead of materialising
+ * the whole document as nested maps.
+ */
+final class ProviderJson {
+    private static final MediaType JSON = MediaType.parse("application/json");
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final JsonFactory FACTORY = MAPPER.getFactory();
+    // Writers must not close the target stream; OkHttp owns the request sink
+    private static final ObjectWriter CHAT_REQUEST_WRITER = MAPPER.writerFor(ChatCompletionRequest.class)
+            .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private static final ObjectWriter CLAUDE_REQUEST_WRITER = MAPPER.writerFor(ClaudeRequest.class)
+            .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private ProviderJson() {
+    }
+
+    /**
+     * OpenAI-compatible {@code chat/completions} request, also used for custom servers.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record ChatCompletionRequest(
+            String model,
+            List<API.Message> messages,
+            @JsonProperty("max_tokens") Integer maxTokens,
+            Double temperature,
+            Boolean stream,
+            @JsonProperty("stream_options") StreamOptions streamOptions,
+            // llama.cpp: reuse the KV cache of the slot that last saw this prefix
+            @JsonProperty("cache_prompt") Boolean cachePrompt) {
+    }
+
+    record StreamOptions(@JsonProperty("include_usage") boolean includeUsage) {
+    }
+
+    /**
+     * Anthropic {@code /v1/messages} request. System prompts travel in the top-level
+     * {@code system} field rather than as messages.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record ClaudeRequest(
+            String model,
+            List<ClaudeMessage> messages,
+            @JsonProperty("max_tokens") int maxTokens,
+            List<ContentBlock> system,
+            Boolean stream) {
+    }
+
+    /**
+     * @param content either a plain string or a list of {@link ContentBlock}s
+     */
+    record ClaudeMessage(String role, Object content) {
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record ContentBlock(String type, String text, @JsonProperty("cache_control") CacheControl cacheControl) {
+    }
+
+    record CacheControl(String type) {
+        static final CacheControl EPHEMERAL = new CacheControl("ephemeral");
+    }
+
+    /**
+     * Token usage normalised across providers.
+     *
+     * @param inputTokens       all prompt tokens, cached or not
+     * @param cachedInputTokens prompt tokens served from the provider's prompt cache
+     * @param cacheWriteTokens  prompt tokens written to the cache (Anthropic only)
+     */
+    record Usage(int inputTokens, int cachedInputTokens, int cacheWriteTokens, int outputTokens) {
+        /**
+         * Combines the partial usage reported by different events of one stream.
+         */
+        static Usage merge(Usage first, Usage second) {
+            if (first == null || second == null) {
+                return first == null ? second : first;
+            }
+            return new Usage(Math.max(first.inputTokens, second.inputTokens),
+                    Math.max(first.cachedInputTokens, second.cachedInputTokens),
+                    Math.max(first.cacheWriteTokens, second.cacheWriteTokens),
+                    Math.max(first.outputTokens, second.outputTokens));
+        }
+    }
+
+    /**
+     * The parts of a completion the pipeline cares about.
+     *
+     * @param text         the generated text, or {@code null} if none was returned
+     * @param finishReason {@code finish_reason} / {@code stop_reason}, or {@code null}
+     * @param usage        token usage, or {@code null} if the server did not report it
+     */
+    record Completion(String text, String finishReason, Usage usage) {
+    }
+
+    /**
+     * One server-sent event from a streamed response, reduced to what the readers need.
+     */
+    record StreamEvent(String type, String text, String finishReason, String errorMessage, Usage usage) {
+    }
+
+    /**
+     * Builds a Claude request from chat messages: {@code system} messages move to the
+     * top-level field, and a message with a cacheable prefix is split into two content
+     * blocks with a cache breakpoint after the prefix.
+     */
+    static ClaudeRequest claudeRequest(String model, List<API.Message> messages, int maxTokens, Boolean stream) {
+        List<ContentBlock> system = new ArrayList<>();
+        List<ClaudeMessage> conversation = new ArrayList<>(messages.size());
+        for (API.Message message : messages) {
+            List<ContentBlock> blocks = contentBlocks(message);
+            if ("system".equals(message.getRole())) {
+                system.addAll(blocks);
+            } else if (message.getCachedPrefixLength() > 0) {
+                conversation.add(new ClaudeMessage(message.getRole(), blocks));
+            } else {
+                conversation.add(new ClaudeMessage(message.getRole(), message.getContent()));
+            }
+        }
+        return new ClaudeRequest(model, conversation, maxTokens, system.isEmpty() ? null : system, stream);
+    }
+
+    private static List<ContentBlock> contentBlocks(API.Message message) {
+        String content = message.getContent();
+        int prefixLength = Math.min(message.getCachedPrefixLength(), content.length());
+        if (prefixLength <= 0) {
+            return List.of(new ContentBlock("text", content, null));
+        }
+        ContentBlock prefix = new ContentBlock("text", content.substring(0, prefixLength), CacheControl.EPHEMERAL);
+        if (prefixLength == content.length()) {
+            return List.of(prefix);
+        }
+        return List.of(prefix, new ContentBlock("text", content.substring(prefixLength), null));
+    }
+
+    static RequestBody body(ChatCompletionRequest request) {
+        return body(CHAT_REQUEST_WRITER, request);
+    }
+
+    static RequestBody body(ClaudeRequest request) {
+        return body(CLAUDE_REQUEST_WRITER, request);
+    }
+
+    private static RequestBody body(ObjectWriter writer, Object value) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return JSON;
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                writer.writeValue(sink.outputStream(), value);
+            }
+        };
+    }
+
+    /**
+     * Reads {@code choices[0].message.content}, {@code choices[0].finish_reason} and the
+     * usage, from {@code usage} or llama.cpp's {@code timings}.
+     */
+    static Completion readChatCompletion(InputStream in) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(in)) {
+            String[] result = new String[2];
+            int[] usage = newChatUsage();
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("choices".equals(field) && parser.currentToken() == JsonToken.START_ARRAY) {
+                    readFirstChoice(parser, "message", result);
+                } else if (!readChatUsageField(parser, field, usage)) {
+                    parser.skipChildren();
+                }
+            }
+            return new Completion(result[0], result[1], toChatUsage(usage));
+        }
+    }
+
+    /**
+     * Reads the concatenated {@code content[].text} blocks and {@code stop_reason}.
+     */
+    static Completion readClaudeMessage(InputStream in) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(in)) {
+            StringBuilder text = null;
+            String stopReason = null;
+            Usage usage = null;
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("content".equals(field) && parser.currentToken() == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_OBJECT) {
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String blockField = parser.currentName();
+                            parser.nextToken();
+                            if ("text".equals(blockField)) {
+                                text = text == null ? new StringBuilder() : text;
+                                text.append(parser.getValueAsString(""));
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    }
+                } else if ("stop_reason".equals(field)) {
+                    stopReason = parser.getValueAsString();
+                } else if ("usage".equals(field) && parser.currentToken() == JsonToken.START_OBJECT) {
+                    usage = readClaudeUsage(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return new Completion(text == null ? null : text.toString(), stopReason, usage);
+        }
+    }
+
+    /**
+     * Parses one {@code chat.completion.chunk}: {@code choices[0].delta.content},
+     * {@code choices[0].finish_reason}, and the usage sent with the final chunk.
+     */
+    static StreamEvent readChatCompletionChunk(String data) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(data)) {
+            String[] result = new String[2];
+            int[] usage = newChatUsage();
+            String error = null;
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("choices".equals(field) && parser.currentToken() == JsonToken.START_ARRAY) {
+                    readFirstChoice(parser, "delta", result);
+                } else if ("error".equals(field) && parser.currentToken() == JsonToken.START_OBJECT) {
+                    error = readStringField(parser, "message");
+                } else if (!readChatUsageField(parser, field, usage)) {
+                    parser.skipChildren();
+                }
+            }
+            return new StreamEvent("chunk", result[0], result[1], error, toChatUsage(usage));
+        }
+    }
+
+    /**
+     * Parses one Anthropic stream event, keeping the delta text, the stop reason from
+     * {@code message_delta}, the usage from {@code message_start} / {@code message_delta},
+     * and any error message.
+     */
+    static StreamEvent readClaudeEvent(String data, String defaultType) throws IOException {
+        try (JsonParser parser = FACTORY.createParser(data)) {
+            String type = defaultType;
+            String text = null;
+            String stopReason = null;
+            String error = null;
+            Usage usage = null;
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Expected a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if ("type".equals(field)) {
+                    type = parser.getValueAsString(defaultType);
+                } else if ("delta".equals(field) && parser.currentToken() == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String deltaField = parser.currentName();
+                        parser.nextToken();
+                        if ("text".equals(deltaField)) {
+                            text = parser.getValueAsString();
+                        } else if ("stop_reason".equals(deltaField)) {
+                            stopReason = parser.getValueAsString();
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else if ("error".equals(field) && parser.currentToken() == JsonToken.START_OBJECT) {
+                    error = readStringField(parser, "message");
+                } else if ("usage".equals(field) && parser.currentToken() == JsonToken.START_OBJECT) {
+                    usage = Usage.merge(usage, readClaudeUsage(parser));
+                } else if ("message".equals(field) && parser.currentToken() == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String messageField = parser.currentName();
+                        parser.nextToken();
+                        if ("usage".equals(messageField) && parser.currentToken() == JsonToken.START_OBJECT) {
+                            usage = Usage.merge(usage, readClaudeUsage(parser));
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return new StreamEvent(type, text, stopReason, error, usage);
+        }
+    }
+
+    // Indexes into the scratch array used while reading OpenAI-style usage
+    private static final int PROMPT_TOKENS = 0;
+    private static final int CACHED_TOKENS = 1;
+    private static final int COMPLETION_TOKENS = 2;
+    private static final int TIMINGS_PROMPT = 3;
+    private static final int TIMINGS_CACHED = 4;
+
+    private static int[] newChatUsage() {
+        return new int[] {-1, -1, -1, -1, -1};
+    }
+
+    /**
+     * Reads {@code usage} (with {@code prompt_tokens_details.cached_tokens}) or llama.cpp's
+     * {@code timings} ({@code prompt_n} evaluated, {@code cache_n} reused) if the parser is
+     * on one of them.
+     *
+     * @return {@code false} if {@code field} is neither
+     */
+    private static boolean readChatUsageField(JsonParser parser, String field, int[] usage) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT
+                || !("usage".equals(field) || "timings".equals(field))) {
+            return false;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            switch (name) {
+                case "prompt_tokens":
+                    usage[PROMPT_TOKENS] = parser.getValueAsInt(-1);
+                    break;
+                case "completion_tokens":
+                    usage[COMPLETION_TOKENS] = parser.getValueAsInt(-1);
+                    break;
+                case "prompt_tokens_details":
+                    if (parser.currentToken() == JsonToken.START_OBJECT) {
+                        usage[CACHED_TOKENS] = readIntField(parser, "cached_tokens");
+                    }
+                    break;
+                case "prompt_n":
+                    usage[TIMINGS_PROMPT] = parser.getValueAsInt(-1);
+                    break;
+                case "cache_n":
+                    usage[TIMINGS_CACHED] = parser.getValueAsInt(-1);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return true;
+    }
+
+    private static Usage toChatUsage(int[] usage) {
+        int cached = usage[CACHED_TOKENS] >= 0 ? usage[CACHED_TOKENS] : usage[TIMINGS_CACHED];
+        int input = usage[PROMPT_TOKENS];
+        if (input < 0 && usage[TIMINGS_PROMPT] >= 0) {
+            input = usage[TIMINGS_PROMPT] + Math.max(0, usage[TIMINGS_CACHED]);
+        }
+        if (input < 0) {
+            return null;
+        }
+        return new Usage(input, Math.max(0, cached), 0, Math.max(0, usage[COMPLETION_TOKENS]));
+    }
+
+    /**
+     * Reads an Anthropic {@code usage} object, whose {@code input_tokens} excludes the
+     * tokens read from or written to the cache.
+     */
+    private static Usage readClaudeUsage(JsonParser parser) throws IOException {
+        int input = 0;
+        int cacheRead = 0;
+        int cacheWrite = 0;
+        int output = 0;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            switch (name) {
+                case "input_tokens":
+                    input = parser.getValueAsInt(0);
+                    break;
+                case "cache_read_input_tokens":
+                    cacheRead = parser.getValueAsInt(0);
+                    break;
+                case "cache_creation_input_tokens":
+                    cacheWrite = parser.getValueAsInt(0);
+                    break;
+                case "output_tokens":
+                    output = parser.getValueAsInt(0);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return new Usage(input + cacheRead + cacheWrite, cacheRead, cacheWrite, output);
+    }
+
+    private static int readIntField(JsonParser parser, String name) throws IOException {
+        int value = -1;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if (name.equals(field)) {
+                value = parser.getValueAsInt(-1);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Reads the first element of a {@code choices} array, storing {@code <container>.content}
+     * in {@code result[0]} and {@code finish_reason} in {@code result[1]}, and skips the rest.
+     */
+    private static void readFirstChoice(JsonParser parser, String container, String[] result) throws IOException {
+        boolean first = true;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (!first || parser.currentToken() != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            first = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                parser.nextToken();
+                if (container.equals(field) && parser.currentToken() == JsonToken.START_OBJECT) {
+                    result[0] = readStringField(parser, "content");
+                } else if ("finish_reason".equals(field)) {
+                    result[1] = parser.getValueAsString();
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads one string field from the object the parser is positioned at, skipping the
+     * others and leaving the parser on the object's end.
+     */
+    private static String readStringField(JsonParser parser, String name) throws IOException {
+        String value = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if (name.equals(field)) {
+                value = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return value;
+    }
+}
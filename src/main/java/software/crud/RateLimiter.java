@@ -0,0 +1,201 @@
+package software.crud;
+
+import okhttp3.Headers;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Client-side limiter for one provider. Two token buckets enforce the configured
+ * requests-per-minute and tokens-per-minute budgets, and the buckets are corrected
+ * from the provider's own rate-limit headers so concurrent workers slow down before
+ * the server starts rejecting them.
+ */
+class RateLimiter {
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+
+    private final Bucket requests;
+    private final Bucket tokens;
+    private long blockedUntilNanos;
+
+    RateLimiter(int requestsPerMinute, int tokensPerMinute) {
+        this.requests = new Bucket(requestsPerMinute);
+        this.tokens = new Bucket(tokensPerMinute);
+    }
+
+    /**
+     * Blocks until one request costing {@code estimatedTokens} fits in both budgets.
+     */
+    void acquire(int estimatedTokens) throws InterruptedException {
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                long now = System.nanoTime();
+                requests.refill(now);
+                tokens.refill(now);
+                waitNanos = Math.max(blockedUntilNanos - now,
+                        Math.max(requests.nanosUntilAvailable(1), tokens.nanosUntilAvailable(estimatedTokens)));
+                if (waitNanos <= 0) {
+                    requests.take(1);
+                    tokens.take(estimatedTokens);
+                    return;
+                }
+            }
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Holds back every caller for at least {@code millis}, e.g. after a 429.
+     */
+    synchronized void pause(long millis) {
+        blockedUntilNanos = Math.max(blockedUntilNanos, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * Applies the OpenAI {@code x-ratelimit-*} or Anthropic {@code anthropic-ratelimit-*}
+     * headers from a response.
+     */
+    synchronized void update(Headers headers) {
+        applyRemaining(requests, headers.get("x-ratelimit-remaining-requests"),
+                headers.get("x-ratelimit-reset-requests"));
+        applyRemaining(tokens, headers.get("x-ratelimit-remaining-tokens"),
+                headers.get("x-ratelimit-reset-tokens"));
+        applyRemaining(requests, headers.get("anthropic-ratelimit-requests-remaining"),
+                headers.get("anthropic-ratelimit-requests-reset"));
+        applyRemaining(tokens, headers.get("anthropic-ratelimit-tokens-remaining"),
+                headers.get("anthropic-ratelimit-tokens-reset"));
+    }
+
+    private void applyRemaining(Bucket bucket, String remainingHeader, String resetHeader) {
+        if (remainingHeader == null) {
+            return;
+        }
+        long remaining;
+        try {
+            remaining = Long.parseLong(remainingHeader.trim());
+        } catch (NumberFormatException e) {
+            return;
+        }
+        bucket.limitTo(remaining);
+        long resetMillis = parseReset(resetHeader);
+        if (remaining <= 0 && resetMillis > 0) {
+            blockedUntilNanos = Math.max(blockedUntilNanos,
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(resetMillis));
+        }
+    }
+
+    /**
+     * Parses a reset hint, either an OpenAI duration such as {@code 6m0s} / {@code 20ms}
+     * or an Anthropic RFC 3339 timestamp, into milliseconds from now.
+     */
+    static long parseReset(String value) {
+        if (value == null || value.isBlank()) {
+            return -1;
+        }
+        String trimmed = value.trim();
+        if (trimmed.contains("T")) {
+            try {
+                return Math.max(0, Duration.between(OffsetDateTime.now(), OffsetDateTime.parse(trimmed)).toMillis());
+            } catch (DateTimeParseException e) {
+                return -1;
+            }
+        }
+        Matcher matcher = DURATION_PART.matcher(trimmed);
+        double millis = 0;
+        boolean matched = false;
+        while (matcher.find()) {
+            matched = true;
+            double amount = Double.parseDouble(matcher.group(1));
+            switch (matcher.group(2)) {
+                case "h":
+                    millis += amount * 3_600_000;
+                    break;
+                case "m":
+                    millis += amount * 60_000;
+                    break;
+                case "s":
+                    millis += amount * 1_000;
+                    break;
+                default:
+                    millis += amount;
+            }
+        }
+        return matched ? (long) millis : -1;
+    }
+
+    /**
+     * Parses {@code retry-after-ms} or {@code Retry-After} (seconds or HTTP date).
+     */
+    static long parseRetryAfter(Headers headers) {
+        String retryAfterMs = headers.get("retry-after-ms");
+        if (retryAfterMs != null) {
+            try {
+                return (long) Double.parseDouble(retryAfterMs.trim());
+            } catch (NumberFormatException e) {
+                // Fall through to Retry-After
+            }
+        }
+        String retryAfter = headers.get("Retry-After");
+        if (retryAfter == null) {
+            return -1;
+        }
+        try {
+            return (long) (Double.parseDouble(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = headers.getDate("Retry-After");
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
+        }
+    }
+
+    private static class Bucket {
+        private final double capacity;
+        private final double refillPerNano;
+        private double available;
+        private long lastRefillNanos;
+
+        Bucket(int perMinute) {
+            this.capacity = perMinute;
+            this.refillPerNano = perMinute / (double) TimeUnit.MINUTES.toNanos(1);
+            this.available = perMinute;
+            this.lastRefillNanos = System.nanoTime();
+        }
+
+        boolean isUnlimited() {
+            return capacity <= 0;
+        }
+
+        void refill(long now) {
+            if (!isUnlimited()) {
+                available = Math.min(capacity, available + (now - lastRefillNanos) * refillPerNano);
+            }
+            lastRefillNanos = now;
+        }
+
+        long nanosUntilAvailable(int amount) {
+            if (isUnlimited()) {
+                return 0;
+            }
+            // A single request larger than the whole budget waits for a full bucket
+            double needed = Math.min(amount, capacity) - available;
+            return needed <= 0 ? 0 : (long) Math.ceil(needed / refillPerNano);
+        }
+
+        void take(int amount) {
+            if (!isUnlimited()) {
+                available -= Math.min(amount, capacity);
+            }
+        }
+
+        void limitTo(long remaining) {
+            if (!isUnlimited()) {
+                available = Math.min(available, remaining);
+            }
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package software.crud;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless front-end: converts one input directory from the command line, without a
+ * window, for scripts and CI. Progress goes to stdout, one JSON object per line by
+ * default; diagnostics go to stderr. The exit status tells how the run ended.
+ *
+ * <p>With {@code --git} or {@code --git-from} only the files changed since the revision
+ * the output was converted from, or the one given, are converted, through
+ * {@link GitRevisionDiff}. With {@code --watch} it keeps converting as the input changes, through
+ * {@link ConversionWatcher}; with {@code --serve} it runs {@link ConversionServer}
+ * instead. Both run until stopped.
+ */
+public final class ReprogrammerCli {
+    static final int EXIT_OK = 0;
+    static final int EXIT_FAILED = 1;
+    static final int EXIT_USAGE = 2;
+    static final int EXIT_API_UNAVAILABLE = 3;
+    static final int EXIT_COMPLETED_WITH_FAILURES = 4;
+    static final int EXIT_CANCELLED = 130;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // How long an interrupted run gets to stop before the JVM exits anyway
+    private static final long SHUTDOWN_GRACE_SECONDS = 30;
+
+    private static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: java -jar reprogrammer.jar --input DIR --output DIR [options]",
+            "       java -jar reprogrammer.jar --serve [--host HOST] [--port N] [--jobs-dir DIR] [--settings FILE]",
+            "",
+            "  --input DIR             directory of source files to convert",
+            "  --output DIR            directory the Java files are written to (created if missing)",
+            "  --language NAME         source language, a key of language_extensions",
+            "                          (default: target_language from the settings)",
+            "  --settings FILE         settings file (default: settings.yaml)",
+            "  --prompt TEXT           conversion prompt (default: prompt from the settings)",
+            "  --concurrency N         files converted at once (default: conversion_concurrency)",
+            "  --include-meta          generate meta content for each converted file",
+            "  --ai-file-names         let the model choose new class and file names",
+            "  --combine-small-files   combine files under 10 KB into one output",
+            "  --batch                 submit the conversions through the provider's batch API",
+            "  --watch                 keep running and convert files again as they change",
+            "  --git                   convert only the files changed since the git revision the",
+            "                          output was last converted from; deleted files lose their output",
+            "  --git-from REV          like --git, starting from git revision REV instead",
+            "  --git-to REV            the revision the input has checked out (default: HEAD)",
+            "  --progress json|text    progress format on stdout (default: json)",
+            "  --serve                 run the job server (settings server_host, server_port,",
+            "                          server_token, server_allowed_roots, server_jobs_dir,",
+            "                          server_max_running_jobs)",
+            "  --help                  show this help",
+            "",
+            "Exit status: 0 completed, 4 completed with failed files, 3 API unavailable,",
+            "2 invalid arguments or settings, 1 run failed, 130 cancelled.");
+
+    private ReprogrammerCli() {
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    /**
+     * Runs one conversion, or the server, as described by {@code args}.
+     *
+     * @return the exit status
+     */
+    static int run(String[] args) {
+        Map<String, String> values = new LinkedHashMap<>();
+        boolean includeMeta = false;
+        boolean aiFileNames = false;
+        boolean combineSmallFiles = false;
+        boolean batchMode = false;
+        boolean watch = false;
+        boolean git = false;
+        boolean serve = false;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--help":
+                    System.out.println(USAGE);
+                    return EXIT_OK;
+                case "--include-meta":
+                    includeMeta = true;
+                    break;
+                case "--ai-file-names":
+                    aiFileNames = true;
+                    break;
+                case "--combine-small-files":
+                    combineSmallFiles = true;
+                    break;
+                case "--batch":
+                    batchMode = true;
+                    break;
+                case "--watch":
+                    watch = true;
+                    break;
+                case "--git":
+                    git = true;
+                    break;
+                case "--serve":
+                    serve = true;
+                    break;
+                case "--input":
+                case "--output":
+                case "--language":
+                case "--settings":
+                case "--prompt":
+                case "--concurrency":
+                case "--progress":
+                case "--host":
+                case "--port":
+                case "--jobs-dir":
+                case "--git-from":
+                case "--git-to":
+                    if (i + 1 == args.length) {
+                        return usageError("Missing value for " + arg);
+                    }
+                    values.put(arg, args[++i]);
+                    break;
+                default:
+                    return usageError("Unknown option: " + arg);
+            }
+        }
+        if (serve) {
+            return serve(values);
+        }
+        if (!values.containsKey("--input") || !values.containsKey("--output")) {
+            return usageError("Both --input and --output are required");
+        }
+        String progressFormat = values.getOrDefault("--progress", "json");
+        if (!progressFormat.equals("json") && !progressFormat.equals("text")) {
+            return usageError("--progress must be json or text");
+        }
+        File inputFolder = new File(values.get("--input"));
+        if (!inputFolder.isDirectory()) {
+            return usageError("Input directory not found: " + inputFolder);
+        }
+        File outputFolder = new File(values.get("--output"));
+        if (!outputFolder.isDirectory() && !outputFolder.mkdirs()) {
+            return usageError("Cannot create output directory: " + outputFolder);
+        }
+
+        String settingsFile = values.getOrDefault("--settings", "settings.yaml");
+        LanguageSettings settings;
+        try {
+            API.useSettingsFile(settingsFile);
+            Map<String, Object> loaded = Reprogrammer.readSettings(settingsFile);
+            Reprogrammer.validateApiKey(loaded);
+            settings = Reprogrammer.languageSettings(loaded);
+        } catch (IOException e) {
+            return usageError("Invalid settings " + settingsFile + ": " + e.getMessage());
+        }
+        if (values.containsKey("--language")) {
+            settings.setTargetLanguage(values.get("--language"));
+        }
+        if (settings.getInputExtension() == null) {
+            return usageError("Unknown language " + settings.getTargetLanguage() + "; expected one of "
+                    + settings.languageExtensions.keySet());
+        }
+        GitRevisionDiff revisionDiff = null;
+        if (git || values.containsKey("--git-from")) {
+            if (watch) {
+                return usageError("--git and --git-from cannot be combined with --watch");
+            }
+            String recorded = ConversionManifest.recordedRevision(outputFolder.toPath());
+            String from = values.getOrDefault("--git-from", recorded);
+            if (from == null) {
+                return usageError("The output records no git revision to start from; use --git-from REV");
+            }
+            try {
+                revisionDiff = GitRevisionDiff.between(inputFolder, settings.getInputExtension(),
+                        from, values.getOrDefault("--git-to", "HEAD"));
+            } catch (IOException e) {
+                return usageError(e.getMessage());
+            }
+            if (recorded != null && !recorded.equals(revisionDiff.fromRevision())) {
+                System.err.println("Warning: the output was last converted from " + recorded + ", not " + from
+                        + " (" + revisionDiff.fromRevision()
+                        + "); files changed in between may be missed or converted again.");
+            }
+        } else if (values.containsKey("--git-to")) {
+            return usageError("--git-to needs --git or --git-from");
+        }
+        if (values.containsKey("--prompt")) {
+            settings.setPrompt(values.get("--prompt"));
+        }
+        if (values.containsKey("--concurrency")) {
+            try {
+                settings.setConversionConcurrency(Integer.parseInt(values.get("--concurrency")));
+            } catch (NumberFormatException e) {
+                return usageError("--concurrency must be a number");
+            }
+            if (settings.getConversionConcurrency() < 1) {
+                return usageError("--concurrency must be at least 1");
+            }
+        }
+
+        ProgressPrinter printer = new ProgressPrinter(System.out, progressFormat.equals("json"));
+        ConversionEngine.Options options = new ConversionEngine.Options(inputFolder, outputFolder,
+                includeMeta, aiFileNames, combineSmallFiles, batchMode, watch || revisionDiff != null, revisionDiff);
+        if (watch) {
+            return watch(settings, options, printer);
+        }
+        ConversionEngine engine = new ConversionEngine(settings, options, printer);
+        CountDownLatch finished = new CountDownLatch(1);
+        Thread shutdownHook = new Thread(() -> {
+            // Ctrl+C or a kill: stop converting and let the run report before exiting
+            if (finished.getCount() > 0) {
+                engine.cancel();
+                try {
+                    finished.await(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "reprogrammer-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+        ConversionEngine.Outcome outcome = engine.run();
+        int status = exitStatus(outcome);
+        printer.done(outcome, engine.failedFiles(), status);
+        finished.countDown();
+        return status;
+    }
+
+    /**
+     * Converts the input, then again whenever it changes, until the process is stopped.
+     * Every run ends with its own {@code done} event.
+     */
+    private static int watch(LanguageSettings settings, ConversionEngine.Options options, ProgressPrinter printer) {
+        ConversionWatcher watcher;
+        try {
+            watcher = new ConversionWatcher(settings, options, printer);
+        } catch (IOException e) {
+            System.err.println("Could not watch " + options.inputFolder() + ": " + e.getMessage());
+            return EXIT_FAILED;
+        }
+        CountDownLatch finished = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            watcher.stop();
+            try {
+                finished.await(SHUTDOWN_GRACE_SECONDS, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "reprogrammer-shutdown"));
+        System.err.println("Watching " + options.inputFolder() + " for changes");
+        try {
+            watcher.run((outcome, failedFiles) -> printer.done(outcome, failedFiles, exitStatus(outcome)));
+            return EXIT_CANCELLED;
+        } catch (IOException e) {
+            System.err.println("Could not watch " + options.inputFolder() + ": " + e.getMessage());
+            return EXIT_FAILED;
+        } finally {
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Runs the job server until the process is stopped.
+     */
+    private static int serve(Map<String, String> values) {
+        String settingsFile = values.getOrDefault("--settings", "settings.yaml");
+        Map<String, Object> loaded;
+        try {
+            API.useSettingsFile(settingsFile);
+            loaded = Reprogrammer.readSettings(settingsFile);
+            Reprogrammer.validateApiKey(loaded);
+        } catch (IOException e) {
+            return usageError("Invalid settings " + settingsFile + ": " + e.getMessage());
+        }
+        API api = API.shared();
+        String host = values.getOrDefault("--host", api.getProperty("server_host", "127.0.0.1"));
+        String jobsDirectory = values.getOrDefault("--jobs-dir",
+                api.getProperty("server_jobs_dir", "reprogrammer-jobs"));
+        int port;
+        try {
+            port = values.containsKey("--port") ? Integer.parseInt(values.get("--port"))
+                    : api.getIntProperty("server_port", 8421);
+        } catch (NumberFormatException e) {
+            return usageError("--port must be a number");
+        }
+        ConversionServer server;
+        try {
+            JobQueue queue = JobQueue.open(Path.of(jobsDirectory), loaded,
+                    api.getIntProperty("server_max_running_jobs", 2));
+            server = ConversionServer.start(queue, host, port, api.getProperty("server_token", ""));
+        } catch (IOException e) {
+            System.err.println("Could not start the server: " + e.getMessage());
+            return EXIT_FAILED;
+        }
+        // Running jobs are cancelled on shutdown and queued again for the next start
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop, "reprogrammer-shutdown"));
+        System.err.println("Serving conversion jobs on http://" + host + ":" + server.port() + "/jobs");
+        try {
+            new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return EXIT_OK;
+    }
+
+    static int exitStatus(ConversionEngine.Outcome outcome) {
+        switch (outcome) {
+            case COMPLETED:
+                return EXIT_OK;
+            case COMPLETED_WITH_FAILURES:
+                return EXIT_COMPLETED_WITH_FAILURES;
+            case CANCELLED:
+                return EXIT_CANCELLED;
+            case API_UNAVAILABLE:
+                return EXIT_API_UNAVAILABLE;
+            default:
+                return EXIT_FAILED;
+        }
+    }
+
+    private static int usageError(String message) {
+        System.err.println(message);
+        System.err.println(USAGE);
+        return EXIT_USAGE;
+    }
+
+    /**
+     * Writes the engine's log lines and progress to stdout, either as JSON lines
+     * ({@code {"event":"progress","percent":42}}) or as plain text. Streamed code is not
+     * shown.
+     */
+    private static final class ProgressPrinter implements ConversionEngine.Listener {
+        private final PrintStream out;
+        private final boolean json;
+        private int lastPercent = -1;
+
+        ProgressPrinter(PrintStream out, boolean json) {
+            this.out = out;
+            this.json = json;
+        }
+
+        @Override
+        public synchronized void log(String message) {
+            if (json) {
+                Map<String, Object> event = event("log");
+                event.put("message", message);
+                print(event);
+            } else {
+                out.println(message);
+            }
+        }
+
+        @Override
+        public synchronized void progress(int percent) {
+            // Concurrent files can report out of order; progress only moves forward
+            if (percent <= lastPercent) {
+                return;
+            }
+            lastPercent = percent;
+            if (json) {
+                Map<String, Object> event = event("progress");
+                event.put("percent", percent);
+                print(event);
+            } else {
+                out.println("Progress: " + percent + "%");
+            }
+        }
+
+        synchronized void done(ConversionEngine.Outcome outcome, int failedFiles, int exitStatus) {
+            if (json) {
+                Map<String, Object> event = event("done");
+                event.put("outcome", outcome.name());
+                event.put("failedFiles", failedFiles);
+                event.put("exitStatus", exitStatus);
+                print(event);
+            } else {
+                out.println("Finished: " + outcome + ", " + failedFiles + " failed files");
+            }
+            // In watch mode the next run reports its progress from zero again
+            lastPercent = -1;
+        }
+
+        private Map<String, Object> event(String type) {
+            Map<String, Object> event = new LinkedHashMap<>();
+            event.put("event", type);
+            return event;
+        }
+
+        private void print(Map<String, Object> event) {
+            try {
+                out.println(MAPPER.writeValueAsString(event));
+            } catch (JsonProcessingException e) {
+                throw new IllegalStateException(e);
+            }
+            out.flush();
+        }
+    }
+}
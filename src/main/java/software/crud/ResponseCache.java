@@ -0,0 +1,217 @@
+package software.crud;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-addressed, size-bounded cache of LLM responses. Each response is stored
+ * gzip-compressed under the SHA-256 of everything that influences the completion, and
+ * the least recently used entries are evicted once the cache grows past its limit.
+ */
+class ResponseCache {
+    private static final Logger logger = LoggerFactory.getLogger(ResponseCache.class);
+    private static final String ENTRY_SUFFIX = ".gz";
+
+    private final Path directory;
+    private final long maxBytes;
+    private final boolean enabled;
+    // Access-ordered so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Long> entrySizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    ResponseCache(Path directory, long maxBytes, boolean enabled) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.enabled = enabled;
+        if (enabled) {
+            loadIndex();
+        }
+    }
+
+    static Path defaultDirectory() {
+        return Paths.get(System.getProperty("user.home"), ".cache", "reprogrammer", "responses");
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    String key(String provider, String model, int maxTokens, List<API.Message> history, String prompt) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            update(digest, provider);
+            update(digest, model);
+            update(digest, Integer.toString(maxTokens));
+            for (API.Message message : history) {
+                update(digest, message.getRole());
+                update(digest, message.getContent());
+            }
+            update(digest, prompt);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private void update(MessageDigest digest, String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        // Length-prefix each field so ("ab", "c") and ("a", "bc") hash differently
+        digest.update(Integer.toString(bytes.length).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) ':');
+        digest.update(bytes);
+    }
+
+    String get(String key) {
+        if (!enabled) {
+            return null;
+        }
+        synchronized (this) {
+            if (!entrySizes.containsKey(key)) {
+                misses.incrementAndGet();
+                return null;
+            }
+            entrySizes.get(key);
+        }
+        Path entry = entryPath(key);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(entry))) {
+            String response = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return response;
+        } catch (IOException e) {
+            logger.warn("Dropping unreadable cache entry {}: {}", entry, e.getMessage());
+            remove(key);
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    void put(String key, String response) {
+        if (!enabled || response == null) {
+            return;
+        }
+        Path entry = entryPath(key);
+        try {
+            Files.createDirectories(entry.getParent());
+            Path temp = Files.createTempFile(entry.getParent(), key, ".tmp");
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp))) {
+                out.write(response.getBytes(StandardCharsets.UTF_8));
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            long size = Files.size(entry);
+            synchronized (this) {
+                Long previous = entrySizes.put(key, size);
+                totalBytes += size - (previous == null ? 0 : previous);
+                evictIfNeeded();
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to write cache entry {}: {}", entry, e.getMessage());
+        }
+    }
+
+    private synchronized void remove(String key) {
+        Long size = entrySizes.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        try {
+            Files.deleteIfExists(entryPath(key));
+        } catch (IOException e) {
+            logger.warn("Failed to delete cache entry {}: {}", key, e.getMessage());
+        }
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, Long>> iterator = entrySizes.entrySet().iterator();
+        while (totalBytes > maxBytes && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            totalBytes -= eldest.getValue();
+            try {
+                Files.deleteIfExists(entryPath(eldest.getKey()));
+            } catch (IOException e) {
+                logger.warn("Failed to evict cache entry {}: {}", eldest.getKey(), e.getMessage());
+            }
+        }
+    }
+
+    private void loadIndex() {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> paths = Files.walk(directory, 2)) {
+            paths.filter(path -> path.getFileName().toString().endsWith(ENTRY_SUFFIX)).forEach(entries::add);
+        } catch (IOException e) {
+            logger.warn("Failed to scan response cache {}: {}", directory, e.getMessage());
+            return;
+        }
+        entries.sort(Comparator.comparingLong(this::lastModified));
+        synchronized (this) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                try {
+                    long size = Files.size(entry);
+                    entrySizes.put(name.substring(0, name.length() - ENTRY_SUFFIX.length()), size);
+                    totalBytes += size;
+                } catch (IOException e) {
+                    logger.warn("Skipping cache entry {}: {}", entry, e.getMessage());
+                }
+            }
+            evictIfNeeded();
+        }
+    }
+
+    private long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private Path entryPath(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + ENTRY_SUFFIX);
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    synchronized String describe() {
+        return String.format("Response cache: %d hits, %d misses, %d entries, %.1f MB", hits.get(), misses.get(),
+                entrySizes.size(), totalBytes / (1024.0 * 1024.0));
+    }
+}
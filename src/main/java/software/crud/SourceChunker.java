@@ -0,0 +1,301 @@
+package software.crud;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.ImportDeclaration;
+import com.github.javaparser.ast.body.BodyDeclaration;
+import com.github.javaparser.ast.body.CallableDeclaration;
+import com.github.javaparser.ast.body.FieldDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Splits source files too large for one conversion request into parts at member
+ * boundaries, and stitches the converted Java parts back into one compilation unit.
+ *
+ * <p>Each part is the file with most members left out: everything around the members
+ * (imports, namespace and type headers, closing braces) and the leading fields are
+ * repeated in every part, so each converts to a complete class holding its share of the
+ * members. Oversized namespaces and types are descended into; a single member larger
+ * than the limit stays whole.
+ */
+final class SourceChunker {
+    private SourceChunker() {
+    }
+
+    /**
+     * @param extension the input file extension, e.g. {@code .cs}
+     * @param maxChars  the size a part should stay under
+     * @return the parts in source order, or {@code null} if the source fits, the language
+     *         is not supported or there is no boundary to split at
+     */
+    static List<String> split(String source, String extension, int maxChars) {
+        if (source.length() <= maxChars) {
+            return null;
+        }
+        String code = SourceSignatures.maskNonCode(source, extension);
+        if (code == null) {
+            return null;
+        }
+        // Go statements end at line breaks
+        boolean lineStatements = extension.equalsIgnoreCase(".go");
+        List<String> parts = new ArrayList<>();
+        splitRegion(source, code, 0, source.length(), "", "", maxChars, lineStatements, parts);
+        return parts.size() > 1 ? parts : null;
+    }
+
+    private static void splitRegion(String source, String code, int start, int end, String prefix, String suffix,
+            int maxChars, boolean lineStatements, List<String> parts) {
+        List<int[]> items = items(code, start, end, lineStatements);
+        // A namespace or type holding most of the region is split inside instead
+        for (int[] item : items) {
+            int size = item[1] - item[0];
+            if (size > maxChars && (end - start) - size <= maxChars / 2) {
+                int open = blockOpen(code, item[0], item[1]);
+                if (open >= 0 && SourceSignatures.isContainer(code.substring(item[0], open).strip())) {
+                    int close = lineStart(code, blockClose(code, open));
+                    if (close > open && close < item[1]) {
+                        splitRegion(source, code, open + 1, close, prefix + source.substring(start, open + 1),
+                                source.substring(close, end) + suffix, maxChars, lineStatements, parts);
+                        return;
+                    }
+                }
+            }
+        }
+
+        // Leading declarations without a body (imports, fields) go into every part
+        StringBuilder shared = new StringBuilder(prefix);
+        int first = 0;
+        while (first < items.size() - 1) {
+            int[] item = items.get(first);
+            if (blockOpen(code, item[0], item[1]) >= 0 || shared.length() + item[1] - item[0] > maxChars / 2) {
+                break;
+            }
+            shared.append(source, item[0], item[1]);
+            first++;
+        }
+        int budget = Math.max(maxChars - shared.length() - suffix.length(), maxChars / 4);
+        StringBuilder group = new StringBuilder();
+        for (int[] item : items.subList(first, items.size())) {
+            if (group.length() > 0 && group.length() + item[1] - item[0] > budget) {
+                parts.add(shared + group.toString() + suffix);
+                group.setLength(0);
+            }
+            group.append(source, item[0], item[1]);
+        }
+        if (group.length() > 0 || parts.isEmpty()) {
+            parts.add(shared + group.toString() + suffix);
+        }
+    }
+
+    /**
+     * Cuts {@code [start, end)} into consecutive top-level items, each ending after a
+     * {@code ;} or a closing brace at depth zero and the rest of its line, or with
+     * {@code lineStatements} after any line break at depth zero. Together the items
+     * cover the whole range; blank lines and comments before an item belong to it.
+     */
+    private static List<int[]> items(String code, int start, int end, boolean lineStatements) {
+        List<int[]> items = new ArrayList<>();
+        int itemStart = start;
+        int depth = 0;
+        for (int i = start; i < end; i++) {
+            char c = code.charAt(i);
+            if (c == '{' || c == '(' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ')' || c == ']') {
+                depth--;
+            }
+            boolean boundary = depth == 0 && (c == ';' || c == '}' && !continuesStatement(code, i + 1, end)
+                    || c == '\n' && lineStatements);
+            if (boundary && !code.substring(itemStart, i + 1).isBlank()) {
+                int itemEnd = endOfLine(code, i + 1, end);
+                items.add(new int[]{itemStart, itemEnd});
+                itemStart = itemEnd;
+                i = itemEnd - 1;
+            }
+            if (depth < 0) {
+                depth = 0;
+            }
+        }
+        if (itemStart < end) {
+            if (items.isEmpty() || !code.substring(itemStart, end).isBlank()) {
+                items.add(new int[]{itemStart, end});
+            } else {
+                items.get(items.size() - 1)[1] = end;
+            }
+        }
+        return items;
+    }
+
+    /**
+     * @return whether the statement goes on after the brace closed just before
+     *         {@code from}, as in {@code });} or {@code } else {}
+     */
+    private static boolean continuesStatement(String code, int from, int end) {
+        int i = from;
+        while (i < end && Character.isWhitespace(code.charAt(i))) {
+            i++;
+        }
+        if (i == end) {
+            return false;
+        }
+        char next = code.charAt(i);
+        if (next == ';' || next == ',' || next == ')' || next == ']' || next == '.') {
+            return true;
+        }
+        String rest = code.substring(i, Math.min(end, i + 8));
+        return rest.matches("(else|catch|finally|while)\\b.*");
+    }
+
+    private static int endOfLine(String code, int from, int end) {
+        int i = from;
+        while (i < end && code.charAt(i) != '\n') {
+            if (!Character.isWhitespace(code.charAt(i))) {
+                return from;
+            }
+            i++;
+        }
+        return i < end ? i + 1 : end;
+    }
+
+    /**
+     * @return the start of the line holding {@code index} if only indentation precedes
+     *         it there, otherwise {@code index}
+     */
+    private static int lineStart(String code, int index) {
+        int i = index;
+        while (i > 0 && (code.charAt(i - 1) == ' ' || code.charAt(i - 1) == '\t')) {
+            i--;
+        }
+        return i > 0 && code.charAt(i - 1) == '\n' ? i : index;
+    }
+
+    /**
+     * @return the first brace opened outside parentheses in {@code [start, end)}, or -1
+     */
+    private static int blockOpen(String code, int start, int end) {
+        int depth = 0;
+        for (int i = start; i < end; i++) {
+            char c = code.charAt(i);
+            if (c == '(' || c == '[') {
+                depth++;
+            } else if (c == ')' || c == ']') {
+                depth--;
+            } else if (c == '{' && depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int blockClose(String code, int open) {
+        int depth = 0;
+        for (int i = open; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}' && --depth == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Merges the converted parts into the first one: imports and types missing from it
+     * are added, and the members of types it already declares are added to them. A
+     * member declared by several parts is kept once, preferring the fullest version of
+     * a method. Parts that do not parse are spliced in as text instead.
+     */
+    static String stitch(List<String> convertedParts) {
+        List<CompilationUnit> units = new ArrayList<>();
+        for (String part : convertedParts) {
+            ParseResult<CompilationUnit> result = new JavaParser().parse(part);
+            if (!result.isSuccessful() || !result.getResult().isPresent()) {
+                return stitchText(convertedParts);
+            }
+            units.add(result.getResult().get());
+        }
+        CompilationUnit merged = units.get(0);
+        for (CompilationUnit unit : units.subList(1, units.size())) {
+            for (ImportDeclaration importDeclaration : unit.getImports()) {
+                if (!merged.getImports().contains(importDeclaration)) {
+                    merged.addImport(importDeclaration.clone());
+                }
+            }
+            for (TypeDeclaration<?> type : unit.getTypes()) {
+                mergeType(merged.getTypes(), type, merged::addType);
+            }
+        }
+        return merged.toString();
+    }
+
+    private static void mergeType(List<? extends TypeDeclaration<?>> targets, TypeDeclaration<?> type,
+            Consumer<TypeDeclaration<?>> add) {
+        TypeDeclaration<?> target = targets.stream()
+                .filter(candidate -> candidate.getNameAsString().equals(type.getNameAsString()))
+                .findFirst().orElse(null);
+        if (target == null) {
+            add.accept(type.clone());
+            return;
+        }
+        for (BodyDeclaration<?> member : type.getMembers()) {
+            if (member instanceof TypeDeclaration) {
+                List<TypeDeclaration<?>> nested = new ArrayList<>();
+                target.getMembers().forEach(existing -> {
+                    if (existing instanceof TypeDeclaration) {
+                        nested.add((TypeDeclaration<?>) existing);
+                    }
+                });
+                mergeType(nested, (TypeDeclaration<?>) member, target::addMember);
+                continue;
+            }
+            BodyDeclaration<?> existing = target.getMembers().stream()
+                    .filter(candidate -> sameMember(candidate, member))
+                    .findFirst().orElse(null);
+            if (existing == null) {
+                target.addMember(member.clone());
+            } else if (member instanceof CallableDeclaration
+                    && member.toString().length() > existing.toString().length()) {
+                // Parts may declare the other parts' methods as stubs
+                existing.replace(member.clone());
+            }
+        }
+    }
+
+    private static boolean sameMember(BodyDeclaration<?> a, BodyDeclaration<?> b) {
+        if (a instanceof CallableDeclaration && b instanceof CallableDeclaration) {
+            return a.getClass() == b.getClass()
+                    && ((CallableDeclaration<?>) a).getSignature().equals(((CallableDeclaration<?>) b).getSignature());
+        }
+        if (a instanceof FieldDeclaration && b instanceof FieldDeclaration) {
+            return ((FieldDeclaration) a).getVariable(0).getNameAsString()
+                    .equals(((FieldDeclaration) b).getVariable(0).getNameAsString());
+        }
+        return a.toString().equals(b.toString());
+    }
+
+    /**
+     * Inserts the type bodies of the later parts before the last closing brace of the
+     * first one.
+     */
+    private static String stitchText(List<String> convertedParts) {
+        String first = convertedParts.get(0).stripTrailing();
+        int close = first.lastIndexOf('}');
+        if (close < 0) {
+            return String.join("\n\n", convertedParts);
+        }
+        StringBuilder bodies = new StringBuilder();
+        for (String part : convertedParts.subList(1, convertedParts.size())) {
+            int open = part.indexOf('{');
+            int end = part.lastIndexOf('}');
+            bodies.append('\n').append(open >= 0 && end > open ? part.substring(open + 1, end).strip() : part.strip())
+                    .append('\n');
+        }
+        return first.substring(0, close) + bodies + first.substring(close);
+    }
+}
@@ -0,0 +1,200 @@
+package software.crud;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Snapshot of the input tree taken once at the start of a run: every source file with
+ * the input extension, its size, content hash, declared package and type name, and
+ * optionally its locally extracted signatures. Files are read in parallel, once; later
+ * stages query the inventory instead of listing and reading the tree again. Hidden
+ * directories are not visited.
+ */
+final class SourceInventory {
+    static final Pattern TYPE_DECLARATION = Pattern.compile("\\b(class|struct)\\s+(\\w+)");
+    // Listing order: names sorted within each directory, subdirectories in place
+    private static final Comparator<Path> LISTING_ORDER = (a, b) -> {
+        int common = Math.min(a.getNameCount(), b.getNameCount());
+        for (int i = 0; i < common; i++) {
+            int compared = a.getName(i).toString().compareTo(b.getName(i).toString());
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return Integer.compare(a.getNameCount(), b.getNameCount());
+    };
+
+    /**
+     * @param relativePath    the path below the input root
+     * @param declaredPackage the package or namespace matched by the language's package pattern
+     * @param declaredType    the first class or struct declared, or {@code null}
+     * @param signatures      the locally extracted declarations, or {@code null}
+     */
+    record SourceFile(Path path, Path relativePath, long size, String hash, String declaredPackage,
+            String declaredType, String signatures) {
+        String fileName() {
+            return path.getFileName().toString();
+        }
+
+        String baseName() {
+            String name = fileName();
+            return name.substring(0, name.lastIndexOf('.'));
+        }
+    }
+
+    private final List<SourceFile> files;
+    private final Map<Path, SourceFile> byPath;
+    // Directories and the files and subdirectories directly inside them, in listing order
+    private final Map<Path, List<Path>> children;
+
+    private SourceInventory(List<SourceFile> files, Map<Path, List<Path>> children) {
+        this.files = files;
+        this.byPath = files.stream().collect(Collectors.toMap(SourceFile::path, file -> file));
+        this.children = children;
+    }
+
+    /**
+     * Walks {@code root} and reads every file ending in {@code extension} in parallel.
+     *
+     * @param packagePattern   pattern whose first group is the declared package, or {@code null}
+     * @param localSignatures  whether to run {@link SourceSignatures} on each file
+     */
+    static SourceInventory scan(Path root, String extension, String packagePattern, boolean localSignatures)
+            throws IOException {
+        Path normalizedRoot = root.toAbsolutePath().normalize();
+        List<Path> sources = new ArrayList<>();
+        Map<Path, List<Path>> children = new TreeMap<>(LISTING_ORDER);
+        Files.walkFileTree(normalizedRoot, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(normalizedRoot) && dir.getFileName().toString().startsWith(".")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                children.put(dir, new ArrayList<>());
+                if (!dir.equals(normalizedRoot)) {
+                    children.get(dir.getParent()).add(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                String name = file.getFileName().toString();
+                if (attrs.isRegularFile() && name.endsWith(extension) && !name.startsWith(".")) {
+                    sources.add(file);
+                    children.get(file.getParent()).add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        children.values().forEach(list -> list.sort(LISTING_ORDER));
+        sources.sort(Comparator.comparing(normalizedRoot::relativize, LISTING_ORDER));
+
+        Pattern packageRegex = packagePattern != null ? Pattern.compile(packagePattern) : null;
+        List<SourceFile> files;
+        try {
+            files = sources.parallelStream()
+                    .map(path -> read(normalizedRoot, path, extension, packageRegex, localSignatures))
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        return new SourceInventory(List.copyOf(files), children);
+    }
+
+    private static SourceFile read(Path root, Path path, String extension, Pattern packageRegex,
+            boolean localSignatures) {
+        try {
+            byte[] bytes = Files.readAllBytes(path);
+            // Decoded as the conversion reads it, so the hashes match
+            String content = new String(bytes);
+            String declaredPackage = "";
+            if (packageRegex != null) {
+                Matcher matcher = packageRegex.matcher(content);
+                if (matcher.find()) {
+                    declaredPackage = matcher.group(1);
+                }
+            }
+            Matcher type = TYPE_DECLARATION.matcher(content);
+            String declaredType = type.find() ? type.group(2) : null;
+            String signatures = localSignatures ? SourceSignatures.extract(content, extension) : null;
+            return new SourceFile(path, root.relativize(path), bytes.length, ConversionManifest.hash(content),
+                    declaredPackage, declaredType, signatures);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    List<SourceFile> files() {
+        return files;
+    }
+
+    /**
+     * @return the source file at {@code file}, or {@code null} if it is not in the inventory
+     */
+    SourceFile get(Path file) {
+        return byPath.get(file.toAbsolutePath().normalize());
+    }
+
+    /**
+     * @return the source files anywhere below {@code directory}, in listing order
+     */
+    List<SourceFile> filesUnder(Path directory) {
+        Path normalized = directory.toAbsolutePath().normalize();
+        return files.stream().filter(file -> file.path().startsWith(normalized)).collect(Collectors.toList());
+    }
+
+    /**
+     * @return the source files directly inside {@code directory}, in listing order
+     */
+    List<SourceFile> filesIn(Path directory) {
+        List<SourceFile> direct = new ArrayList<>();
+        for (Path child : children.getOrDefault(directory.toAbsolutePath().normalize(), List.of())) {
+            SourceFile file = byPath.get(child);
+            if (file != null) {
+                direct.add(file);
+            }
+        }
+        return direct;
+    }
+
+    /**
+     * Renders {@code directory} and everything below it as an indented tree of
+     * directories and source files, leaving out files for which {@code exclude} holds.
+     */
+    String renderTree(Path directory, Predicate<String> exclude) {
+        StringBuilder tree = new StringBuilder();
+        render(directory.toAbsolutePath().normalize(), "", exclude, tree);
+        return tree.toString();
+    }
+
+    private void render(Path directory, String indent, Predicate<String> exclude, StringBuilder tree) {
+        tree.append(indent).append(directory.getFileName()).append("/\n");
+        for (Path child : children.getOrDefault(directory, List.of())) {
+            if (children.containsKey(child)) {
+                render(child, indent + "  ", exclude, tree);
+            } else if (!exclude.test(child.getFileName().toString())) {
+                tree.append(indent).append("  ").append(child.getFileName()).append("\n");
+            }
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package software.crud;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Local stand-in for the LLM meta summary: reduces C#, PHP, Go or JavaScript source to
+ * its declarations (namespaces, types, fields, properties and method signatures) with a
+ * small lexer that drops comments and string literals and skips every method body.
+ * Java input goes through {@link JavaSignatures}.
+ */
+final class SourceSignatures {
+    private enum Language {
+        CSHARP, PHP, GO, JAVASCRIPT, JAVA
+    }
+
+    private enum Block {
+        NAMESPACE, TYPE, SKIPPED
+    }
+
+    private static final Pattern CONTAINER = Pattern.compile(
+            "\\b(class|interface|struct|enum|record|trait|namespace)\\b");
+    private static final Pattern CONTROL = Pattern.compile(
+            "^(if|else|for|foreach|while|do|switch|case|default|try|catch|finally|using|lock|return|unsafe|fixed|checked|unchecked)\\b.*");
+    private static final Pattern IMPORT = Pattern.compile("^(using|import|use|require|require_once|include|include_once)\\b.*");
+    private static final Pattern ATTRIBUTES = Pattern.compile("^(\\s*\\[[^\\]]*\\])+");
+    // Outside type bodies only declarations count; scripts also hold plain statements
+    private static final Pattern TOP_LEVEL = Pattern.compile(
+            "^(export|const|let|var|function|async|namespace|module\\.exports|exports\\.|define|public|internal|abstract|sealed|static|final|partial|readonly)\\b.*");
+    private static final Pattern PRIVATE = Pattern.compile("^(private|#)[\\s\\S]*");
+    private static final Pattern GO_TYPE_LITERAL = Pattern.compile("\\b(struct|interface)\\s*\\{\\s*\\}");
+
+    private SourceSignatures() {
+    }
+
+    /**
+     * @param extension the input file extension, e.g. {@code .cs}
+     * @return the declarations, or {@code null} if the language is not supported
+     */
+    static String extract(String source, String extension) {
+        switch (extension.toLowerCase()) {
+            case ".java":
+                return JavaSignatures.extract(source);
+            case ".cs":
+                return extractBraced(stripNonCode(source, Language.CSHARP));
+            case ".php":
+                return extractBraced(stripNonCode(source, Language.PHP));
+            case ".js":
+            case ".mjs":
+            case ".cjs":
+                return extractBraced(stripNonCode(source, Language.JAVASCRIPT));
+            case ".go":
+                return extractGo(stripNonCode(source, Language.GO));
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Outlines Java source that may be cut off mid-file, which {@link JavaSignatures}
+     * cannot parse: the declarations are kept, private ones included, and blocks still
+     * open at the end are left unclosed.
+     */
+    static String outlinePartialJava(String source) {
+        return extractBraced(stripNonCode(source, Language.JAVA), true);
+    }
+
+    /**
+     * Blanks out comments and string literals with spaces, keeping every other character
+     * (line breaks included) at its offset, so braces and semicolons found in the result
+     * are the code's own and can be mapped straight back to {@code source}.
+     *
+     * @return the masked source, or {@code null} if the language is not supported
+     */
+    static String maskNonCode(String source, String extension) {
+        Language language = language(extension);
+        return language != null ? stripNonCode(source, language, true) : null;
+    }
+
+    private static Language language(String extension) {
+        switch (extension.toLowerCase()) {
+            case ".java":
+                return Language.JAVA;
+            case ".cs":
+                return Language.CSHARP;
+            case ".php":
+                return Language.PHP;
+            case ".js":
+            case ".mjs":
+            case ".cjs":
+                return Language.JAVASCRIPT;
+            case ".go":
+                return Language.GO;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Walks brace blocks, descending only into namespaces and type bodies. Statements
+     * and block headers found there are kept; every other block is skipped whole.
+     */
+    private static String extractBraced(String code) {
+        return extractBraced(code, false);
+    }
+
+    private static String extractBraced(String code, boolean includePrivate) {
+        List<String> lines = new ArrayList<>();
+        Deque<Block> blocks = new ArrayDeque<>();
+        StringBuilder statement = new StringBuilder();
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            Block current = blocks.isEmpty() ? Block.NAMESPACE : blocks.peek();
+            boolean declarative = current != Block.SKIPPED;
+            if (c == '{') {
+                String header = declarative ? clean(statement) : "";
+                statement.setLength(0);
+                Block block = Block.SKIPPED;
+                if (declarative && isContainer(header)) {
+                    block = header.matches(".*\\bnamespace\\b.*") ? Block.NAMESPACE : Block.TYPE;
+                    lines.add(indent(blocks.size()) + header + " {");
+                } else if (isDeclaration(header, current, includePrivate)) {
+                    boolean function = header.contains("(") && !header.contains("=>");
+                    lines.add(indent(blocks.size()) + memberHeader(header) + (function ? ";" : " { ... }"));
+                }
+                blocks.push(block);
+            } else if (c == '}') {
+                if (!blocks.isEmpty() && blocks.pop() != Block.SKIPPED) {
+                    // Enum constants have no terminating semicolon
+                    String rest = clean(statement);
+                    if (!rest.isEmpty()) {
+                        lines.add(indent(blocks.size() + 1) + rest);
+                    }
+                    lines.add(indent(blocks.size()) + "}");
+                }
+                statement.setLength(0);
+            } else if (c == ';') {
+                if (declarative) {
+                    String member = stripInitializer(clean(statement));
+                    if (isDeclaration(member, current, includePrivate)) {
+                        lines.add(indent(blocks.size()) + member + ";");
+                    }
+                }
+                statement.setLength(0);
+            } else if (declarative) {
+                statement.append(c);
+            }
+        }
+        return String.join("\n", lines);
+    }
+
+    /**
+     * @return whether the block opened after {@code header} is a namespace or type body
+     */
+    static boolean isContainer(String header) {
+        Matcher matcher = CONTAINER.matcher(header);
+        if (!matcher.find()) {
+            return false;
+        }
+        int paren = header.indexOf('(');
+        return (paren < 0 || matcher.start() < paren) && !header.contains("=");
+    }
+
+    private static boolean isDeclaration(String text, Block block, boolean includePrivate) {
+        if (text.isEmpty() || CONTROL.matcher(text).matches() || IMPORT.matcher(text).matches()
+                || !includePrivate && PRIVATE.matcher(text).matches()) {
+            return false;
+        }
+        return block == Block.TYPE || TOP_LEVEL.matcher(text).matches();
+    }
+
+    /**
+     * Keeps function headers as written but reduces {@code x = new Foo() {} }-style
+     * initializers to the declared name.
+     */
+    private static String memberHeader(String header) {
+        if (header.contains("=>") || header.contains("function")) {
+            return header;
+        }
+        return stripInitializer(header);
+    }
+
+    /**
+     * Cuts a declaration at its top-level assignment, or at the arrow of an
+     * expression-bodied member.
+     */
+    private static String stripInitializer(String declaration) {
+        int depth = 0;
+        for (int i = 0; i < declaration.length(); i++) {
+            char c = declaration.charAt(i);
+            if (c == '(' || c == '[' || c == '<') {
+                depth++;
+            } else if (c == ')' || c == ']' || (c == '>' && depth > 0 && declaration.charAt(i - 1) != '=')) {
+                depth--;
+            } else if (c == '=' && depth == 0) {
+                char previous = i > 0 ? declaration.charAt(i - 1) : ' ';
+                char next = i + 1 < declaration.length() ? declaration.charAt(i + 1) : ' ';
+                if (next == '=' || previous == '=' || previous == '!' || previous == '<' || previous == '>') {
+                    continue;
+                }
+                if (next == '>' && declaration.contains("function")) {
+                    continue;
+                }
+                return declaration.substring(0, i).trim();
+            }
+        }
+        return declaration;
+    }
+
+    /**
+     * Go has no type bodies to descend into: top-level declarations are kept, with
+     * function bodies dropped and struct and interface bodies kept as written.
+     */
+    private static String extractGo(String code) {
+        List<String> lines = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i <= code.length(); i++) {
+            char c = i < code.length() ? code.charAt(i) : '\n';
+            if (c == '{' || c == '(' || c == '[') {
+                depth++;
+            } else if (c == '}' || c == ')' || c == ']') {
+                depth--;
+            } else if ((c == '\n' || c == ';') && depth <= 0) {
+                String declaration = code.substring(start, Math.min(i, code.length())).strip();
+                start = i + 1;
+                depth = 0;
+                if (declaration.startsWith("package ")) {
+                    lines.add(declaration);
+                } else if (declaration.startsWith("func ")) {
+                    lines.add(goFunctionHeader(declaration));
+                } else if (declaration.startsWith("type ") || declaration.startsWith("const ")
+                        || declaration.startsWith("var ")) {
+                    lines.add(goDeclaration(declaration));
+                }
+            }
+        }
+        return String.join("\n", lines);
+    }
+
+    private static String goFunctionHeader(String declaration) {
+        // interface{} and struct{} in a signature are types, not the body
+        String masked = GO_TYPE_LITERAL.matcher(declaration).replaceAll(match -> "#".repeat(match.group().length()));
+        int depth = 0;
+        for (int i = 0; i < masked.length(); i++) {
+            char c = masked.charAt(i);
+            if (c == '(' || c == '[') {
+                depth++;
+            } else if (c == ')' || c == ']') {
+                depth--;
+            } else if (c == '{' && depth == 0) {
+                return declaration.substring(0, i).strip().replaceAll("\\s+", " ");
+            }
+        }
+        return declaration.replaceAll("\\s+", " ");
+    }
+
+    private static String goDeclaration(String declaration) {
+        StringBuilder kept = new StringBuilder();
+        for (String line : declaration.split("\n")) {
+            if (!line.isBlank()) {
+                kept.append(line.stripTrailing()).append('\n');
+            }
+        }
+        String text = kept.toString().strip();
+        // Function literals in var initializers are bodies, not declarations
+        if (text.startsWith("var ") && text.contains("func")) {
+            int brace = text.indexOf('{');
+            return brace > 0 ? text.substring(0, brace).strip() : text;
+        }
+        return text;
+    }
+
+    private static String stripNonCode(String source, Language language) {
+        return stripNonCode(source, language, false);
+    }
+
+    /**
+     * Replaces comments with spaces and string literals with empty ones, keeping line
+     * breaks so Go statements still end where they did. With {@code keepOffsets} both are
+     * blanked character for character instead.
+     */
+    private static String stripNonCode(String source, Language language, boolean keepOffsets) {
+        if (language == Language.PHP) {
+            source = source.replace("<?php", "     ").replace("?>", "  ");
+        }
+        StringBuilder code = new StringBuilder(source.length());
+        int length = source.length();
+        int i = 0;
+        while (i < length) {
+            char c = source.charAt(i);
+            char next = i + 1 < length ? source.charAt(i + 1) : '\0';
+            if (c == '/' && next == '/' || c == '#' && language == Language.PHP) {
+                int end = source.indexOf('\n', i);
+                end = end < 0 ? length : end;
+                appendSkipped(code, source, i, end, keepOffsets);
+                i = end;
+            } else if (c == '/' && next == '*') {
+                int end = source.indexOf("*/", i + 2);
+                end = end < 0 ? length : end + 2;
+                appendSkipped(code, source, i, end, keepOffsets);
+                i = end;
+            } else if (c == '"' || c == '\'' || c == '`' && language != Language.CSHARP && language != Language.PHP
+                    && language != Language.JAVA) {
+                boolean verbatim = language == Language.CSHARP && c == '"' && i > 0 && source.charAt(i - 1) == '@'
+                        || language == Language.GO && c == '`';
+                int end = skipString(source, i, c, verbatim);
+                if (!keepOffsets) {
+                    code.append(c).append(c);
+                }
+                appendSkipped(code, source, i, end, keepOffsets);
+                i = end;
+            } else if (language == Language.PHP && source.startsWith("<<<", i)) {
+                int end = skipHeredoc(source, i);
+                if (!keepOffsets) {
+                    code.append("''");
+                }
+                appendSkipped(code, source, i, end, keepOffsets);
+                i = end;
+            } else {
+                code.append(c);
+                i++;
+            }
+        }
+        return code.toString();
+    }
+
+    /**
+     * @return the index just past the literal opened at {@code start}
+     */
+    private static int skipString(String source, int start, char quote, boolean verbatim) {
+        int i = start + 1;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (!verbatim && c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                // Verbatim C# strings escape a quote by doubling it
+                if (verbatim && quote == '"' && i + 1 < source.length() && source.charAt(i + 1) == '"') {
+                    i += 2;
+                } else {
+                    return i + 1;
+                }
+            } else if (c == '\n' && !verbatim && quote != '`') {
+                return i;
+            } else {
+                i++;
+            }
+        }
+        return source.length();
+    }
+
+    private static int skipHeredoc(String source, int start) {
+        int lineEnd = source.indexOf('\n', start);
+        if (lineEnd < 0) {
+            return source.length();
+        }
+        String label = source.substring(start + 3, lineEnd).strip().replace("'", "").replace("\"", "");
+        if (label.isEmpty()) {
+            return lineEnd;
+        }
+        int i = lineEnd + 1;
+        while (i < source.length()) {
+            int end = source.indexOf('\n', i);
+            end = end < 0 ? source.length() : end;
+            if (source.substring(i, end).strip().startsWith(label)) {
+                return i + source.substring(i, end).indexOf(label) + label.length();
+            }
+            i = end + 1;
+        }
+        return source.length();
+    }
+
+    /**
+     * Appends the line breaks of a skipped comment or literal, or with {@code keepOffsets}
+     * a space for each of its other characters as well.
+     */
+    private static void appendSkipped(StringBuilder code, String source, int start, int end, boolean keepOffsets) {
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c == '\n') {
+                code.append('\n');
+            } else if (keepOffsets) {
+                code.append(c == '\r' ? '\r' : ' ');
+            }
+        }
+    }
+
+    private static String clean(CharSequence text) {
+        String cleaned = ATTRIBUTES.matcher(text.toString().strip()).replaceFirst("");
+        return cleaned.replaceAll("\\s+", " ").strip();
+    }
+
+    private static String indent(int depth) {
+        return "    ".repeat(depth);
+    }
+}
@@ -0,0 +1,123 @@
+package software.crud;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParseResult;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.body.BodyDeclaration;
+import com.github.javaparser.ast.body.ConstructorDeclaration;
+import com.github.javaparser.ast.body.FieldDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
+import com.github.javaparser.printer.lexicalpreservation.LexicalPreservingPrinter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+class SyntaxChecker {
+    private static final Logger logger = LoggerFactory.getLogger(SyntaxChecker.class);
+    private static final int MAX_RECURSION_DEPTH = 3;
+    private final Assistant api;
+    private final LanguageSettings settings;
+
+    public SyntaxChecker(Assistant api, LanguageSettings settings) {
+        this.api = api;
+        this.settings = settings;
+    }
+
+    public String checkAndFixSyntax(CompilationUnit cu) {
+        LexicalPreservingPrinter.setup(cu);
+        GeneralVisitor visitor = new GeneralVisitor();
+        cu.accept(visitor, null);
+        return LexicalPreservingPrinter.print(cu);
+    }
+
+    private class GeneralVisitor extends VoidVisitorAdapter<Void> {
+        @Override
+        public void visit(MethodDeclaration n, Void arg) {
+            processNode(n);
+            super.visit(n, arg);
+        }
+
+        @Override
+        public void visit(FieldDeclaration n, Void arg) {
+            processNode(n);
+            super.visit(n, arg);
+        }
+
+        @Override
+        public void visit(ConstructorDeclaration n, Void arg) {
+            processNode(n);
+            super.visit(n, arg);
+        }
+
+        private void processNode(BodyDeclaration<?> n) {
+            String nodeAsString = n.toString();
+            List<SyntaxError> errors = checkSyntax(nodeAsString);
+            if (!errors.isEmpty()) {
+                try {
+                    String fixedCode = fixSyntaxRecursively(nodeAsString, errors, 0);
+                    LexicalPreservingPrinter.setup(n);
+                    LexicalPreservingPrinter.print(n);
+                    JavaParser parser = new JavaParser();
+                    ParseResult<BodyDeclaration<?>> parseResult = parser.parseBodyDeclaration(fixedCode);
+                    if (parseResult.isSuccessful() && parseResult.getResult().isPresent()) {
+                        n.replace(parseResult.getResult().get());
+                    } else {
+                        logger.error("Failed to parse the fixed code: " + fixedCode);
+                    }
+                } catch (IOException e) {
+                    logger.error("Failed to fix syntax: " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+
+    private List<SyntaxError> checkSyntax(String code) {
+        JavaParser parser = new JavaParser();
+        ParseResult<BodyDeclaration<?>> result = parser.parseBodyDeclaration(code);
+        List<SyntaxError> syntaxErrors = new ArrayList<>();
+        result.getProblems().forEach(problem -> {
+            String message = problem.getMessage();
+            int lineNumber = problem.getLocation().flatMap(location -> location.getBegin().getRange())
+                    .map(range -> range.begin.line).orElse(-1);
+            syntaxErrors.add(new SyntaxError(message, lineNumber));
+        });
+        return syntaxErrors;
+    }
+
+    private String generateAIFixPrompt(String code, SyntaxError error) {
+        return String.format("Error detected at line %d with message: '%s'. Code snippet: %s", error.getLineNumber(),
+                error.getMessage(), code);
+    }
+
+    private String fixSyntaxRecursively(String code, List<SyntaxError> errors, int depth) throws IOException {
+        if (depth >= MAX_RECURSION_DEPTH) {
+            logger.error("Maximum recursion depth reached for code snippet: {}",
+                    code.substring(0, Math.min(code.length(), 200)));
+            return code;
+        }
+        String currentCode = code;
+        for (SyntaxError error : errors) {
+            JavaConversion javaConversion = new JavaConversion(api, settings);
+            String suggestion = javaConversion.convertCode(currentCode, generateAIFixPrompt(currentCode, error), "");
+            currentCode = applyFix(currentCode, error.getLineNumber(), suggestion);
+            List<SyntaxError> newErrors = checkSyntax(currentCode);
+            if (newErrors.isEmpty()) {
+                break;
+            }
+            currentCode = fixSyntaxRecursively(currentCode, newErrors, depth + 1);
+        }
+        return currentCode;
+    }
+
+    private String applyFix(String code, int lineNumber, String fix) {
+        String[] lines = code.split("\\r?\\n");
+        if (lineNumber <= lines.length) {
+            lines[lineNumber - 1] = fix;
+        }
+        return String.join("\n", lines);
+    }
+}
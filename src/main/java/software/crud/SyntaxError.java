@@ -0,0 +1,27 @@
+package software.crud;
+
+class SyntaxError {
+    private String message;
+    private int lineNumber;
+
+    public SyntaxError(String message, int lineNumber) {
+        this.message = message;
+        this.lineNumber = lineNumber;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    @Override
+    public String toString() {
+        return "SyntaxError{" +
+                "message='" + message + '\'' +
+                ", lineNumber=" + lineNumber +
+                '}';
+    }
+}
@@ -0,0 +1,197 @@
+package software.crud;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Local, dependency-free token estimator for one provider/model. It approximates how
+ * BPE tokenizers split source code (identifiers, whitespace runs, punctuation) rather
+ * than dividing by a flat characters-per-token figure, and it knows the model's context
+ * window and output limit so {@code max_tokens} can be sized from the input.
+ */
+class TokenEstimator {
+    /**
+     * Tokenizer families differ mostly in how many identifier characters and how much
+     * indentation fit in one token.
+     */
+    enum Family {
+        OPENAI(5.0, 7, 8),
+        CLAUDE(4.5, 6, 4),
+        LLAMA(4.0, 6, 4);
+
+        private final double charsPerToken;
+        private final int wholeWordChars;
+        private final int spacesPerToken;
+
+        Family(double charsPerToken, int wholeWordChars, int spacesPerToken) {
+            this.charsPerToken = charsPerToken;
+            this.wholeWordChars = wholeWordChars;
+            this.spacesPerToken = spacesPerToken;
+        }
+    }
+
+    private static final int MESSAGE_OVERHEAD_TOKENS = 4;
+    private static final int OUTPUT_OVERHEAD_TOKENS = 256;
+    private static final double PROMPT_SAFETY_MARGIN = 1.1;
+    private static final double OUTPUT_SAFETY_MARGIN = 1.2;
+
+    // How much longer the Java translation typically is than the source, in tokens
+    private static final Map<String, Double> EXPANSION_RATIOS = Map.of(
+            "C#", 1.1,
+            "PHP", 1.4,
+            "Go", 1.3,
+            "JavaScript", 1.5);
+    private static final double DEFAULT_EXPANSION_RATIO = 1.3;
+
+    private final Family family;
+    private final int contextWindow;
+    private final int maxOutputTokens;
+
+    TokenEstimator(Family family, int contextWindow, int maxOutputTokens) {
+        this.family = family;
+        this.contextWindow = contextWindow;
+        this.maxOutputTokens = maxOutputTokens;
+    }
+
+    /**
+     * Picks the tokenizer family and limits for a provider/model; overrides of zero or
+     * less fall back to the built-in table.
+     */
+    static TokenEstimator forModel(String provider, String model, int contextWindowOverride,
+            int maxOutputOverride) {
+        Family family = "claude".equals(provider) ? Family.CLAUDE
+                : "openai".equals(provider) ? Family.OPENAI : Family.LLAMA;
+        String name = model == null ? "" : model.toLowerCase(Locale.ROOT);
+        int contextWindow;
+        int maxOutput;
+        if (name.startsWith("gpt-4.1")) {
+            contextWindow = 1_047_576;
+            maxOutput = 32_768;
+        } else if (name.startsWith("gpt-4o") || name.startsWith("o1") || name.startsWith("o3")) {
+            contextWindow = 128_000;
+            maxOutput = 16_384;
+        } else if (name.startsWith("gpt-4-turbo") || name.startsWith("gpt-4-1106") || name.startsWith("gpt-4-0125")) {
+            contextWindow = 128_000;
+            maxOutput = 4_096;
+        } else if (name.startsWith("gpt-4")) {
+            contextWindow = 8_192;
+            maxOutput = 4_096;
+        } else if (name.startsWith("gpt-3.5")) {
+            contextWindow = 16_385;
+            maxOutput = 4_096;
+        } else if (name.startsWith("claude-3-sonnet") || name.startsWith("claude-3-opus")
+                || name.startsWith("claude-3-haiku")) {
+            contextWindow = 200_000;
+            maxOutput = 4_096;
+        } else if (name.startsWith("claude")) {
+            contextWindow = 200_000;
+            maxOutput = 8_192;
+        } else {
+            contextWindow = 8_192;
+            maxOutput = 4_096;
+        }
+        return new TokenEstimator(family,
+                contextWindowOverride > 0 ? contextWindowOverride : contextWindow,
+                maxOutputOverride > 0 ? maxOutputOverride : maxOutput);
+    }
+
+    int getContextWindow() {
+        return contextWindow;
+    }
+
+    int getMaxOutputTokens() {
+        return maxOutputTokens;
+    }
+
+    int estimate(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        double tokens = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            int start = i;
+            if (c >= 0x2E80) {
+                // CJK and other wide scripts are roughly one token per character
+                tokens++;
+                i++;
+            } else if (Character.isLetterOrDigit(c) || c == '_') {
+                while (i < length && text.charAt(i) < 0x2E80
+                        && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '_')) {
+                    i++;
+                }
+                int run = i - start;
+                tokens += run <= family.wholeWordChars ? 1 : Math.ceil(run / family.charsPerToken);
+            } else if (c == '\n') {
+                tokens++;
+                i++;
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && text.charAt(i) != '\n' && Character.isWhitespace(text.charAt(i))) {
+                    i++;
+                }
+                int run = i - start;
+                if (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                    // The space before a word is part of the word's token
+                    run--;
+                }
+                tokens += Math.ceil(run / (double) family.spacesPerToken);
+            } else {
+                while (i < length && isSymbol(text.charAt(i))) {
+                    i++;
+                }
+                // Common operator pairs such as "()", "->" and "==" usually merge
+                tokens += Math.ceil((i - start) / 2.0);
+            }
+        }
+        return (int) Math.ceil(tokens);
+    }
+
+    int estimate(List<API.Message> messages) {
+        int tokens = 0;
+        for (API.Message message : messages) {
+            tokens += estimate(message.getContent()) + MESSAGE_OVERHEAD_TOKENS;
+        }
+        return tokens;
+    }
+
+    private boolean isSymbol(char c) {
+        return c < 0x2E80 && !Character.isLetterOrDigit(c) && c != '_' && !Character.isWhitespace(c);
+    }
+
+    /**
+     * Predicts the output size of converting {@code sourceTokens} tokens of
+     * {@code sourceLanguage} to Java, with headroom for the XML wrapper and thoughts.
+     */
+    int predictConversionTokens(int sourceTokens, String sourceLanguage) {
+        double ratio = EXPANSION_RATIOS.getOrDefault(sourceLanguage, DEFAULT_EXPANSION_RATIO);
+        return (int) Math.ceil(sourceTokens * ratio * OUTPUT_SAFETY_MARGIN) + OUTPUT_OVERHEAD_TOKENS;
+    }
+
+    /**
+     * Returns the number of output tokens still available once the prompt is in the
+     * context window, never more than the model's output limit.
+     */
+    int availableOutputTokens(int promptTokens) {
+        int available = contextWindow - (int) Math.ceil(promptTokens * PROMPT_SAFETY_MARGIN);
+        return Math.min(maxOutputTokens, available);
+    }
+
+    /**
+     * Sizes {@code max_tokens} for a request: the predicted output, capped by what the
+     * model and the remaining context window allow.
+     *
+     * @throws AIServiceException if the prompt leaves no room for the predicted output
+     */
+    int chooseMaxTokens(String provider, int promptTokens, int predictedOutputTokens) {
+        int available = availableOutputTokens(promptTokens);
+        int minimum = Math.min(predictedOutputTokens, OUTPUT_OVERHEAD_TOKENS);
+        if (available < minimum) {
+            throw new AIServiceException(provider, "Prompt of about " + promptTokens
+                    + " tokens does not fit in the " + contextWindow + "-token context window");
+        }
+        return Math.max(1, Math.min(predictedOutputTokens, available));
+    }
+}
@@ -0,0 +1,155 @@
+package software.crud;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BackendRouterTest {
+    private static Map<String, Double> weights(double first, double second) {
+        Map<String, Double> weights = new LinkedHashMap<>();
+        weights.put("first", first);
+        weights.put("second", second);
+        return weights;
+    }
+
+    private static ProviderJson.Completion completion(String text) {
+        return new ProviderJson.Completion(text, "stop", null);
+    }
+
+    private static AIServiceException transientFailure(String backend) {
+        return new AIServiceException(backend, "503", 503, true, -1, null);
+    }
+
+    @Test
+    void picksBackendsByWeight() {
+        BackendRouter router = new BackendRouter(weights(1.0, 0.0), 0, 300, 5, 0.5, 0);
+        for (int i = 0; i < 50; i++) {
+            assertEquals(List.of("first", "second"), router.rank());
+        }
+        router = new BackendRouter(weights(0.0, 1.0), 0, 300, 5, 0.5, 0);
+        assertEquals(List.of("second", "first"), router.rank());
+    }
+
+    @Test
+    void failsOverToTheNextBackend() {
+        BackendRouter router = new BackendRouter(weights(1.0, 0.0), 0, 300, 5, 0.5, 0);
+        List<String> tried = new ArrayList<>();
+        ProviderJson.Completion response = router.route((backend, listener) -> {
+            tried.add(backend);
+            if (backend.equals("first")) {
+                throw transientFailure(backend);
+            }
+            return completion("from " + backend);
+        }, null);
+        assertEquals("from second", response.text());
+        assertEquals(List.of("first", "second"), tried);
+    }
+
+    @Test
+    void doesNotFailOverOnceTokensWereStreamed() {
+        BackendRouter router = new BackendRouter(weights(1.0, 0.0), 0, 300, 5, 0.5, 0);
+        List<String> tokens = new ArrayList<>();
+        AIServiceException failure = assertThrows(AIServiceException.class,
+                () -> router.route((backend, listener) -> {
+                    listener.onToken("from " + backend, "from " + backend);
+                    throw transientFailure(backend);
+                }, (token, textSoFar) -> tokens.add(token)));
+        assertEquals("first", failure.getProvider());
+        assertEquals(List.of("from first"), tokens);
+    }
+
+    @Test
+    void throwsTheLastFailureWhenEveryBackendFails() {
+        BackendRouter router = new BackendRouter(weights(1.0, 0.0), 0, 300, 5, 0.5, 0);
+        AIServiceException failure = assertThrows(AIServiceException.class,
+                () -> router.route((backend, listener) -> {
+                    throw transientFailure(backend);
+                }, null));
+        assertEquals("second", failure.getProvider());
+    }
+
+    @Test
+    void ranksFailingBackendsLast() {
+        BackendRouter router = new BackendRouter(weights(1.0, 0.0), 0, 300, 3, 0.5, 0);
+        for (int i = 0; i < 3; i++) {
+            router.route((backend, listener) -> {
+                if (backend.equals("first")) {
+                    throw transientFailure(backend);
+                }
+                return completion("ok");
+            }, null);
+        }
+        assertEquals(List.of("second", "first"), router.rank());
+        assertTrue(router.describe().contains("first p50=0ms p95=0ms errors=100% (3 samples) degraded"),
+                router.describe());
+    }
+
+    @Test
+    void ignoresNonRetryableFailuresForHealth() {
+        BackendRouter router = new BackendRouter(weights(1.0, 0.0), 0, 300, 1, 0.5, 0);
+        assertThrows(AIServiceException.class, () -> router.route((backend, listener) -> {
+            throw new AIServiceException(backend, "400");
+        }, null));
+        assertEquals(List.of("first", "second"), router.rank());
+    }
+
+    @Test
+    void hedgesASlowBackend() throws InterruptedException {
+        BackendRouter router = new BackendRouter(weights(1.0, 0.0), 50, 300, 5, 0.5, 0);
+        CountDownLatch abandoned = new CountDownLatch(1);
+        List<String> tokens = Collections.synchronizedList(new ArrayList<>());
+        ProviderJson.Completion response = router.route((backend, listener) -> {
+            if (backend.equals("first")) {
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    abandoned.countDown();
+                    throw new AIServiceException(backend, "Interrupted");
+                }
+                return completion("from first");
+            }
+            listener.onToken("from ", "from ");
+            listener.onToken("second", "from second");
+            return completion("from second");
+        }, (token, textSoFar) -> tokens.add(token));
+        assertEquals("from second", response.text());
+        assertEquals(List.of("from ", "second"), tokens);
+        assertTrue(abandoned.await(5, TimeUnit.SECONDS), "the slow attempt was not cancelled");
+    }
+
+    @Test
+    void doesNotHedgeABackendThatIsAlreadyStreaming() {
+        BackendRouter router = new BackendRouter(weights(1.0, 0.0), 50, 300, 5, 0.5, 0);
+        List<String> tried = Collections.synchronizedList(new ArrayList<>());
+        ProviderJson.Completion response = router.route((backend, listener) -> {
+            tried.add(backend);
+            listener.onToken("early", "early");
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                throw new AIServiceException(backend, "Interrupted");
+            }
+            return completion("early");
+        }, (token, textSoFar) -> true);
+        assertEquals("early", response.text());
+        assertEquals(List.of("first"), tried);
+    }
+
+    @Test
+    void replaysANonStreamedWinnerToTheListener() {
+        BackendRouter router = new BackendRouter(weights(1.0, 0.0), 50, 300, 5, 0.5, 0);
+        List<String> tokens = new ArrayList<>();
+        router.route((backend, listener) -> completion("whole answer"), (token, textSoFar) -> tokens.add(token));
+        assertEquals(List.of("whole answer"), tokens);
+    }
+}
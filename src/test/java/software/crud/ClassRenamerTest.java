@@ -0,0 +1,59 @@
+package software.crud;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassRenamerTest {
+    @Test
+    void swapsNamesSimultaneously() {
+        ClassRenamer renamer = renamer("A", "B", "B", "A");
+        assertEquals("class B extends A { A a; B b; }", renamer.rename("class A extends B { B a; A b; }"));
+    }
+
+    @Test
+    void appliesChainsOnce() {
+        ClassRenamer renamer = renamer("A", "B", "B", "C");
+        assertEquals("B uses C", renamer.rename("A uses B"));
+    }
+
+    @Test
+    void renamesWholeIdentifiersOnly() {
+        ClassRenamer renamer = renamer("User", "Account");
+        assertEquals("Account u = new Account(); UserService s; _User x; User2 y; Account.find(user);",
+                renamer.rename("User u = new User(); UserService s; _User x; User2 y; User.find(user);"));
+        assertEquals("List<Account> all", renamer.rename("List<User> all"));
+    }
+
+    @Test
+    void returnsTheSameInstanceWhenNothingChanges() {
+        String content = "class Order {}";
+        assertSame(content, renamer("User", "Account").rename(content));
+        ClassRenamer unchanged = renamer("User", "User");
+        assertTrue(unchanged.isEmpty());
+        assertSame(content, unchanged.rename(content));
+    }
+
+    @Test
+    void fingerprintsTheRenamesOnly() {
+        assertEquals(renamer("A", "B", "C", "C").fingerprint(), renamer("A", "B").fingerprint());
+        assertNotEquals(renamer("A", "B").fingerprint(), renamer("A", "C").fingerprint());
+    }
+
+    /**
+     * @param names original and new name pairs
+     */
+    private static ClassRenamer renamer(String... names) {
+        Map<String, ClassIndex> classIndex = new LinkedHashMap<>();
+        for (int i = 0; i < names.length; i += 2) {
+            classIndex.put(names[i], new ClassIndex(names[i], names[i + 1], "app", names[i] + ".cs"));
+        }
+        return new ClassRenamer(classIndex);
+    }
+}
@@ -0,0 +1,53 @@
+package software.crud;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversionEngineTest {
+    private static final File MODELS = new File("src/models");
+    private static final File VIEWS = new File("src/views");
+
+    @Test
+    void binsFilesOfOneDirectoryUpToTheTokenBudget() {
+        List<File> directories = List.of(MODELS, MODELS, MODELS, MODELS);
+        assertEquals(List.of(List.of(0, 1), List.of(2, 3)),
+                ConversionEngine.binByDirectory(directories, new int[] {400, 500, 600, 300}, 1000, 16));
+    }
+
+    @Test
+    void startsANewBinAtTheFileLimit() {
+        List<File> directories = List.of(MODELS, MODELS, MODELS, MODELS, MODELS);
+        assertEquals(List.of(List.of(0, 1), List.of(2, 3)),
+                ConversionEngine.binByDirectory(directories, new int[] {10, 10, 10, 10, 10}, 1000, 2));
+    }
+
+    @Test
+    void keepsDirectoriesApart() {
+        List<File> directories = List.of(MODELS, VIEWS, MODELS, VIEWS);
+        assertEquals(List.of(List.of(0, 2), List.of(1, 3)),
+                ConversionEngine.binByDirectory(directories, new int[] {10, 10, 10, 10}, 1000, 16));
+    }
+
+    @Test
+    void leavesOutExcludedFilesAndSingletonBins() {
+        List<File> directories = List.of(MODELS, MODELS, VIEWS, MODELS);
+        assertEquals(List.of(List.of(0, 3)),
+                ConversionEngine.binByDirectory(directories, new int[] {10, -1, 10, 10}, 1000, 16));
+        assertTrue(ConversionEngine.binByDirectory(List.of(MODELS, MODELS), new int[] {800, 800}, 1000, 16)
+                .isEmpty());
+    }
+
+    @Test
+    void rejectsPackedOutputThatIsNotACompilationUnit() {
+        assertTrue(ConversionEngine.isValidJava("public class User { private String name; }"));
+        assertFalse(ConversionEngine.isValidJava("public class User { private String na"));
+        assertFalse(ConversionEngine.isValidJava("import java.util.List;"));
+        assertFalse(ConversionEngine.isValidJava(""));
+    }
+}
@@ -0,0 +1,126 @@
+package software.crud;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversionManifestTest {
+    private static FakeBackend backend;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void startBackend() {
+        backend = FakeBackend.start();
+    }
+
+    private static ConversionManifest.Entry entry(String sourceHash, String output, List<String> dependencies) {
+        return new ConversionManifest.Entry(sourceHash, List.of(output), null, dependencies, null);
+    }
+
+    @Test
+    void savesAndLoadsEntries() throws IOException {
+        Files.writeString(directory.resolve("User.java"), "class User {}");
+        ConversionManifest manifest = ConversionManifest.load(directory, "settings-a", null);
+        assertTrue(manifest.previousEntries().isEmpty());
+        manifest.put("models/User.cs", entry("1", "User.java", List.of("models/Base.cs")));
+        manifest.put("models/Base.cs", new ConversionManifest.Entry("2", List.of(), null, List.of(),
+                "class Base {}"));
+        manifest.save("classes-a", "renames-a", "combined-a", null);
+
+        ConversionManifest loaded = ConversionManifest.load(directory, "settings-a", null);
+        // The output hash is taken from the output as saved
+        assertEquals(new ConversionManifest.Entry("1", List.of("User.java"), ConversionManifest.hash("class User {}"),
+                List.of("models/Base.cs"), null), loaded.previousEntry("models/User.cs"));
+        assertEquals("class Base {}", loaded.previousEntry("models/Base.cs").combinedFragment());
+        assertTrue(loaded.isClassIndexUnchanged("classes-a"));
+        assertFalse(loaded.isClassIndexUnchanged("classes-b"));
+        assertTrue(loaded.isRenamingUnchanged("renames-a"));
+        assertTrue(loaded.isCombinedOutputUnchanged("combined-a"));
+        assertNull(loaded.previousEntry("models/Missing.cs"));
+    }
+
+    @Test
+    void ignoresManifestsOfOtherSettingsAndUnreadableOnes() throws IOException {
+        ConversionManifest manifest = ConversionManifest.load(directory, "settings-a", null);
+        manifest.put("User.cs", entry("1", "User.java", List.of()));
+        manifest.save("classes", "renames", null, null);
+
+        assertTrue(ConversionManifest.load(directory, "settings-b", null).previousEntries().isEmpty());
+        Files.writeString(directory.resolve(ConversionManifest.FILE_NAME), "{\"version\": 1, \"files\": ");
+        assertTrue(ConversionManifest.load(directory, "settings-a", null).previousEntries().isEmpty());
+    }
+
+    @Test
+    void hashesPartsUnambiguously() {
+        assertEquals(ConversionManifest.hash("ab", "c"), ConversionManifest.hash("ab", "c"));
+        assertFalse(ConversionManifest.hash("ab", "c").equals(ConversionManifest.hash("a", "bc")));
+    }
+
+    @Test
+    void skipsUnchangedFilesAndReconvertsChangedOnesWithTheirDependents() throws IOException {
+        Path input = Files.createDirectories(directory.resolve("input"));
+        Path output = directory.resolve("output");
+        Files.writeString(input.resolve("Alpha.go"), source("Alpha", "string", "alpha-1"));
+        Files.writeString(input.resolve("Beta.go"), source("Beta", "Alpha", "beta-1"));
+        Files.writeString(input.resolve("Gamma.go"), source("Gamma", "int", "gamma-1"));
+
+        assertEquals(ConversionEngine.Outcome.COMPLETED, convert(input, output));
+        assertEquals(1, backend.requestsContaining("alpha-1"));
+        assertEquals(1, backend.requestsContaining("beta-1"));
+        assertEquals(1, backend.requestsContaining("gamma-1"));
+        assertTrue(Files.isRegularFile(output.resolve("Alpha.java")));
+        assertTrue(Files.isRegularFile(output.resolve(ConversionManifest.FILE_NAME)));
+
+        assertEquals(ConversionEngine.Outcome.COMPLETED, convert(input, output));
+        assertEquals(0, backend.requestsContaining("Convert"));
+
+        // Beta depends on Alpha and is converted again with it; Gamma is not
+        Files.writeString(input.resolve("Alpha.go"), source("Alpha", "string", "alpha-2"));
+        assertEquals(ConversionEngine.Outcome.COMPLETED, convert(input, output));
+        assertEquals(1, backend.requestsContaining("alpha-2"));
+        assertEquals(1, backend.requestsContaining("beta-1"));
+        assertEquals(0, backend.requestsContaining("gamma-1"));
+
+        // An output edited since it was recorded is converted again
+        Files.writeString(output.resolve("Gamma.java"), "edited");
+        assertEquals(ConversionEngine.Outcome.COMPLETED, convert(input, output));
+        assertEquals(1, backend.requestsContaining("gamma-1"));
+        assertEquals(0, backend.requestsContaining("beta-1"));
+    }
+
+    /**
+     * A Go type whose {@code marker} is in a method body, which the declarations other
+     * requests get as context leave out.
+     */
+    private static String source(String type, String fieldType, String marker) {
+        return "package main\n\ntype " + type + " struct {\n\tValue " + fieldType + "\n}\n\nfunc (v " + type
+                + ") Marker() string {\n\treturn \"" + marker + "\"\n}\n";
+    }
+
+    private ConversionEngine.Outcome convert(Path input, Path output) throws IOException {
+        backend.clearRequests();
+        ConversionEngine.Options options = new ConversionEngine.Options(input.toFile(), output.toFile(), false,
+                false, false, false, false, null);
+        return new ConversionEngine(backend.languageSettings(), options, new ConversionEngine.Listener() {
+            @Override
+            public void log(String message) {
+            }
+
+            @Override
+            public void progress(int percent) {
+            }
+        }).run();
+    }
+}
@@ -0,0 +1,119 @@
+package software.crud;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversionServerTest {
+    private static final String TOKEN = "secret-token";
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static FakeBackend backend;
+
+    @TempDir
+    Path directory;
+    private ConversionServer server;
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeAll
+    static void startBackend() {
+        backend = FakeBackend.start();
+    }
+
+    @BeforeEach
+    void startServer() throws IOException {
+        JobQueue queue = JobQueue.open(directory.resolve("jobs"), backend.settings(), 1);
+        server = ConversionServer.start(queue, "127.0.0.1", 0, TOKEN);
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop();
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.port() + path))
+                .header("Authorization", "Bearer " + TOKEN);
+    }
+
+    private HttpResponse<String> send(HttpRequest request) throws IOException, InterruptedException {
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> submit(Object body) throws IOException, InterruptedException {
+        return send(request("/jobs").header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(MAPPER.writeValueAsString(body))).build());
+    }
+
+    @Test
+    void convertsASubmittedJob() throws Exception {
+        Path input = Files.createDirectories(directory.resolve("input"));
+        Files.writeString(input.resolve("Alpha.go"), "package main\n\ntype Alpha struct {\n}\n");
+
+        HttpResponse<String> submitted = submit(Map.of("client", "team-a", "input", input.toString()));
+        assertEquals(201, submitted.statusCode(), submitted.body());
+        String id = MAPPER.readTree(submitted.body()).get("id").asText();
+
+        JsonNode job = MAPPER.readTree(send(request("/jobs/" + id).build()).body());
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (job.get("state").asText().matches("QUEUED|RUNNING")) {
+            assertTrue(System.currentTimeMillis() < deadline, "job did not finish");
+            Thread.sleep(50);
+            job = MAPPER.readTree(send(request("/jobs/" + id).build()).body());
+        }
+        assertEquals("COMPLETED", job.get("state").asText());
+        assertTrue(send(request("/jobs/" + id + "/log").build()).body().contains("Finished: COMPLETED"));
+
+        HttpResponse<byte[]> result = client.send(request("/jobs/" + id + "/result").build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(200, result.statusCode());
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(result.body()))) {
+            assertEquals("Alpha.java", zip.getNextEntry().getName());
+        }
+        assertEquals(1, MAPPER.readTree(send(request("/jobs").build()).body()).size());
+    }
+
+    @Test
+    void requiresTheServerToken() throws Exception {
+        HttpRequest.Builder anonymous = HttpRequest.newBuilder(
+                URI.create("http://127.0.0.1:" + server.port() + "/jobs"));
+        assertEquals(401, send(anonymous.build()).statusCode());
+        assertEquals(401, send(anonymous.header("Authorization", "Bearer wrong").build()).statusCode());
+        assertEquals(200, send(request("/jobs").build()).statusCode());
+    }
+
+    @Test
+    void rejectsCrossOriginRequests() throws Exception {
+        assertEquals(403, send(request("/jobs").header("Origin", "http://evil.example").build()).statusCode());
+        assertEquals(200, send(request("/jobs").header("Origin", "http://localhost:" + server.port()).build())
+                .statusCode());
+    }
+
+    @Test
+    void rejectsBadSubmissions() throws Exception {
+        // A form post, as a web page could send without a preflight
+        assertEquals(415, send(request("/jobs").header("Content-Type", "text/plain")
+                .POST(HttpRequest.BodyPublishers.ofString("{}")).build()).statusCode());
+        assertEquals(400, submit(Map.of("input", directory.resolve("missing").toString())).statusCode());
+        assertEquals(400, send(request("/jobs").header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("{")).build()).statusCode());
+        assertEquals(404, send(request("/jobs/missing").build()).statusCode());
+    }
+}
@@ -0,0 +1,66 @@
+package software.crud;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DependencyGraphTest {
+    @Test
+    void linksFilesThroughTheClassNamesTheyMention() {
+        DependencyGraph graph = DependencyGraph.build(List.of("Order", "Customer", "Invoice"), List.of(
+                "class Order { Customer customer; }",
+                "class Customer { }",
+                "class Invoice { Order order; Customer billTo; }"));
+        assertEquals(List.of(1), graph.dependenciesOf(0));
+        assertEquals(List.of(), graph.dependenciesOf(1));
+        assertEquals(List.of(0, 1), graph.dependenciesOf(2));
+        assertEquals(2, graph.dependentCount(1));
+        assertEquals(3, graph.edgeCount());
+    }
+
+    @Test
+    void ignoresNamesInCommentsAndStrings() {
+        DependencyGraph graph = DependencyGraph.build(List.of("A", "B"), List.of(
+                "// uses B\n/* B */ class A { String s = \"B\"; char c = 'B'; }",
+                "class B { A self; }"));
+        assertEquals(List.of(), graph.dependenciesOf(0));
+        assertEquals(List.of(0), graph.dependenciesOf(1));
+    }
+
+    @Test
+    void releasesDependenciesBeforeDependents() {
+        // 0 <- 1 <- 2, and 3 on its own
+        DependencyGraph graph = DependencyGraph.build(List.of("A", "B", "C", "D"), List.of(
+                "class A {}", "class B extends A {}", "class C extends B {}", "class D {}"));
+        assertEquals(List.of(0, 3), graph.start());
+        assertEquals(List.of(1), graph.complete(0));
+        assertEquals(List.of(), graph.complete(3));
+        assertEquals(List.of(2), graph.complete(1));
+        assertEquals(List.of(), graph.complete(2));
+        assertEquals(-1, graph.releaseCycle());
+    }
+
+    @Test
+    void breaksCyclesAtTheLeastBlockedNode() {
+        // 0 and 1 depend on each other; 2 depends on both
+        DependencyGraph graph = DependencyGraph.build(List.of("A", "B", "C"), List.of(
+                "class A { B b; }", "class B { A a; }", "class C { A a; B b; }"));
+        assertEquals(List.of(), graph.start());
+        int released = graph.releaseCycle();
+        assertTrue(released == 0 || released == 1, "released " + released);
+
+        List<Integer> order = new ArrayList<>(List.of(released));
+        List<Integer> ready = new ArrayList<>(graph.complete(released));
+        while (!ready.isEmpty()) {
+            int node = ready.remove(0);
+            order.add(node);
+            ready.addAll(graph.complete(node));
+        }
+        assertEquals(List.of(released, 1 - released, 2), order);
+        assertEquals(-1, graph.releaseCycle());
+    }
+}
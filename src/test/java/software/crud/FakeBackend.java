@@ -0,0 +1,137 @@
+package software.crud;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OpenAI-compatible chat endpoint for tests that run whole conversions. The process has
+ * one {@link API#shared()} instance, so every such test shares this backend and the
+ * settings file pointing at it; {@link #start} has to run before anything touches the
+ * API.
+ */
+final class FakeBackend {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String RESPONSE = "<response><code>public class A {\n    void a() {\n    }\n}\n"
+            + "</code></response>";
+    private static FakeBackend instance;
+
+    private final Path settingsFile;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+
+    private FakeBackend(Path settingsFile) {
+        this.settingsFile = settingsFile;
+    }
+
+    static synchronized FakeBackend start() {
+        if (instance != null) {
+            return instance;
+        }
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            Path directory = Files.createTempDirectory("reprogrammer-test");
+            FakeBackend backend = new FakeBackend(directory.resolve("settings.yaml"));
+            server.createContext("/v1/chat/completions", backend::handle);
+            server.setExecutor(Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "fake-backend");
+                thread.setDaemon(true);
+                return thread;
+            }));
+            server.start();
+            Files.writeString(backend.settingsFile, String.join("\n",
+                    "ai_service: 'custom'",
+                    "custom_text_generation_api_url: 'http://127.0.0.1:" + server.getAddress().getPort()
+                            + "/v1/chat/completions'",
+                    "stream_responses: false",
+                    "response_cache_enabled: false",
+                    "max_retries: 0",
+                    "target_language: 'Go'",
+                    "max_tokens: 4096",
+                    "conversion_concurrency: 2",
+                    "pack_small_files: false",
+                    "incremental_conversion: true",
+                    "resume_interrupted_runs: true",
+                    "meta_generation: 'local'",
+                    "prompt: 'Convert the following code to Java.'",
+                    "output_extension: '.java'",
+                    "language_extensions:",
+                    "  C#: '.cs'",
+                    "  Go: '.go'",
+                    ""));
+            API.useSettingsFile(backend.settingsFile.toString());
+            instance = backend;
+            return backend;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    Map<String, Object> settings() throws IOException {
+        return Reprogrammer.readSettings(settingsFile.toString());
+    }
+
+    LanguageSettings languageSettings() throws IOException {
+        return Reprogrammer.languageSettings(settings());
+    }
+
+    /**
+     * @return how many conversion requests since the last {@link #clearRequests} carried
+     *         {@code text}
+     */
+    int requestsContaining(String text) {
+        synchronized (requests) {
+            return (int) requests.stream().filter(request -> request.contains(text)).count();
+        }
+    }
+
+    void clearRequests() {
+        requests.clear();
+    }
+
+    /**
+     * Holds every conversion response until {@link #release} is called.
+     */
+    void hold() {
+        gate = new CountDownLatch(1);
+    }
+
+    void release() {
+        gate.countDown();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        if (!request.contains("Test API connection")) {
+            requests.add(request);
+            try {
+                gate.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        byte[] body = MAPPER.writeValueAsBytes(Map.of("choices",
+                List.of(Map.of("message", Map.of("role", "assistant", "content", RESPONSE), "finish_reason", "stop"))));
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package software.crud;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GitRevisionDiffTest {
+    @Test
+    void readsEveryKindOfChange() {
+        GitRevisionDiff diff = parse("M", "Orders/Order.cs",
+                "A", "New.cs",
+                "D", "Old.cs",
+                "R100", "Moved.cs", "Billing/Moved.cs",
+                "R087", "Name.cs", "Renamed.cs",
+                "M", "README.md");
+        assertEquals(List.of(new GitRevisionDiff.Rename("Moved.cs", "Billing/Moved.cs", 100),
+                new GitRevisionDiff.Rename("Name.cs", "Renamed.cs", 87)), diff.renames());
+        assertTrue(diff.renames().get(0).isExact());
+        assertFalse(diff.renames().get(1).isExact());
+        assertTrue(diff.isRemoved("Old.cs"));
+        assertTrue(diff.isRemoved("Moved.cs"));
+        assertTrue(diff.isRemoved("Name.cs"));
+        assertFalse(diff.isRemoved("Orders/Order.cs"));
+        assertEquals("Changes from v1 to HEAD: 2 added or modified, 2 renamed and 1 deleted source files.",
+                diff.describe());
+    }
+
+    @Test
+    void treatsRenamesAcrossExtensionsAsAdditionsOrDeletions() {
+        GitRevisionDiff diff = parse("R100", "Script.cs", "Script.cs.bak",
+                "R095", "notes.txt", "Notes.cs",
+                "C075", "Base.cs", "Copy.cs");
+        assertTrue(diff.renames().isEmpty());
+        assertTrue(diff.isRemoved("Script.cs"));
+        assertFalse(diff.isRemoved("Base.cs"));
+        assertEquals("Changes from v1 to HEAD: 2 added or modified, 0 renamed and 1 deleted source files.",
+                diff.describe());
+    }
+
+    @Test
+    void keepsPathsWithSpacesAndNonAsciiNames() {
+        GitRevisionDiff diff = parse("D", "My Folder/Caf\u00e9.cs");
+        assertTrue(diff.isRemoved("My Folder/Caf\u00e9.cs"));
+    }
+
+    @Test
+    void readsAnEmptyDiff() {
+        GitRevisionDiff diff = parse();
+        assertTrue(diff.renames().isEmpty());
+        assertEquals("Changes from v1 to HEAD: 0 added or modified, 0 renamed and 0 deleted source files.",
+                diff.describe());
+    }
+
+    /**
+     * @param fields the NUL-separated fields git prints with {@code -z}
+     */
+    private static GitRevisionDiff parse(String... fields) {
+        String nameStatus = fields.length == 0 ? "" : String.join("\0", fields) + "\0";
+        return GitRevisionDiff.parse(nameStatus, ".cs", "v1", "HEAD", "1111111", "2222222");
+    }
+}
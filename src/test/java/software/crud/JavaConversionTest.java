@@ -0,0 +1,45 @@
+package software.crud;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JavaConversionTest {
+    private static final Set<String> PATHS = Set.of("models/User.cs", "models/Order.cs");
+
+    @Test
+    void splitsAPackedResponseByPath() {
+        String response = "<response><file path=\"models/Order.cs\"><code><![CDATA[class Order {}]]></code></file>"
+                + "<file path=\"models/User.cs\"><code>class User { String a = &quot;x&quot;; }</code></file>"
+                + "</response>";
+        assertEquals(Map.of("models/User.cs", "class User { String a = \"x\"; }", "models/Order.cs", "class Order {}"),
+                JavaConversion.splitPacked(response, PATHS));
+    }
+
+    @Test
+    void dropsFilesCutOffOrNotAskedFor() {
+        String response = "<response><file path=\"models/User.cs\"><code>class User {}</code></file>"
+                + "<file path=\"models/Other.cs\"><code>class Other {}</code></file>"
+                + "<file path=\"models/Order.cs\"><code>class Order {";
+        assertEquals(Map.of("models/User.cs", "class User {}"), JavaConversion.splitPacked(response, PATHS));
+    }
+
+    @Test
+    void keepsTheFirstCopyOfARepeatedPath() {
+        String response = "<file path=\"models/User.cs\"><code>class User {}</code></file>"
+                + "<file path=\"models/User.cs\"><code>class User2 {}</code></file>";
+        assertEquals(Map.of("models/User.cs", "class User {}"), JavaConversion.splitPacked(response, PATHS));
+    }
+
+    @Test
+    void returnsNothingForAResponseThatCannotBeSplit() {
+        assertTrue(JavaConversion.splitPacked("<response><code>class User {} class Order {}</code></response>",
+                PATHS).isEmpty());
+        assertTrue(JavaConversion.splitPacked("", PATHS).isEmpty());
+        assertTrue(JavaConversion.splitPacked(null, PATHS).isEmpty());
+    }
+}
@@ -0,0 +1,230 @@
+package software.crud;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JobQueueTest {
+    private static final String SOURCE = "package main\n\ntype Alpha struct {\n\tName string\n}\n";
+    private static FakeBackend backend;
+
+    @TempDir
+    Path directory;
+    private JobQueue queue;
+
+    @BeforeAll
+    static void startBackend() {
+        backend = FakeBackend.start();
+    }
+
+    @AfterEach
+    void closeQueue() {
+        backend.release();
+        if (queue != null) {
+            queue.close();
+        }
+    }
+
+    private JobQueue open(Map<String, Object> overrides) throws IOException {
+        Map<String, Object> settings = new HashMap<>(backend.settings());
+        settings.putAll(overrides);
+        queue = JobQueue.open(directory.resolve("jobs"), settings, 1);
+        return queue;
+    }
+
+    private Path input(String name) throws IOException {
+        Path input = Files.createDirectories(directory.resolve(name));
+        Files.writeString(input.resolve("Alpha.go"), SOURCE);
+        return input;
+    }
+
+    private static JobQueue.Request request(String client, Path input, Path output) {
+        return new JobQueue.Request(client, input != null ? input.toString() : null,
+                output != null ? output.toString() : null, null, null, null, false, false, false, false);
+    }
+
+    private JobQueue.Job awaitFinished(String id) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!queue.get(id).state().isFinished()) {
+            assertTrue(System.currentTimeMillis() < deadline, "job " + id + " did not finish");
+            queue.awaitChange(100);
+        }
+        return queue.get(id);
+    }
+
+    private static void awaitRequest() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (backend.requestsContaining("Name string") == 0) {
+            assertTrue(System.currentTimeMillis() < deadline, "no conversion request arrived");
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void runsSubmittedJobs() throws Exception {
+        open(Map.of());
+        JobQueue.Job job = queue.submit(request("team-a", input("input"), null), null);
+        assertEquals(directory.resolve("jobs").resolve(job.id()).resolve("output").toString(),
+                job.request().output());
+
+        JobQueue.Job finished = awaitFinished(job.id());
+        assertEquals(JobQueue.State.COMPLETED, finished.state());
+        assertEquals(100, finished.progress());
+        assertTrue(Files.isRegularFile(Path.of(finished.request().output()).resolve("Alpha.java")));
+        String log = new String(queue.readLog(job.id(), 0), StandardCharsets.UTF_8);
+        assertTrue(log.startsWith("Queued by team-a"), log);
+        assertTrue(log.contains("Finished: COMPLETED"), log);
+        assertEquals(List.of(finished), queue.list());
+    }
+
+    @Test
+    void cancelsQueuedAndRunningJobs() throws Exception {
+        open(Map.of());
+        backend.clearRequests();
+        backend.hold();
+        JobQueue.Job running = queue.submit(request("team-a", input("first"), null), null);
+        JobQueue.Job queued = queue.submit(request("team-a", input("second"), null), null);
+        awaitRequest();
+        assertEquals(JobQueue.State.RUNNING, queue.get(running.id()).state());
+        assertEquals(JobQueue.State.QUEUED, queue.get(queued.id()).state());
+
+        assertEquals(JobQueue.State.CANCELLED, queue.cancel(queued.id()).state());
+        queue.cancel(running.id());
+        backend.release();
+        assertEquals(JobQueue.State.CANCELLED, awaitFinished(running.id()).state());
+        assertFalse(Files.exists(Path.of(running.request().output()).resolve("Alpha.java")));
+        assertEquals(JobQueue.State.CANCELLED, queue.get(queued.id()).state());
+        assertNull(queue.cancel("missing"));
+    }
+
+    @Test
+    void requeuesJobsThatWereRunningAtRestart() throws Exception {
+        Path jobs = Files.createDirectories(directory.resolve("jobs"));
+        ObjectMapper mapper = new ObjectMapper();
+        Path output = directory.resolve("output");
+        JobQueue.Job interrupted = new JobQueue.Job("interrupted", request("team-a", input("input"), output),
+                JobQueue.State.RUNNING, 40, 0, 1L, 2L, null, null);
+        JobQueue.Job done = new JobQueue.Job("done", request("team-b", input("other"), directory.resolve("done")),
+                JobQueue.State.COMPLETED, 100, 0, 1L, 2L, 3L, null);
+        for (JobQueue.Job job : List.of(interrupted, done)) {
+            Files.createDirectories(jobs.resolve(job.id()));
+            mapper.writeValue(jobs.resolve(job.id()).resolve(JobQueue.JOB_FILE).toFile(), job);
+        }
+        Files.createDirectories(jobs.resolve("broken"));
+        Files.writeString(jobs.resolve("broken").resolve(JobQueue.JOB_FILE), "{");
+
+        open(Map.of());
+        assertEquals(2, queue.list().size());
+        assertEquals(JobQueue.State.COMPLETED, awaitFinished("interrupted").state());
+        assertTrue(Files.isRegularFile(output.resolve("Alpha.java")));
+        assertEquals(done, queue.get("done"));
+        assertEquals(JobQueue.State.COMPLETED,
+                mapper.readValue(jobs.resolve("interrupted").resolve(JobQueue.JOB_FILE).toFile(), JobQueue.Job.class)
+                        .state());
+    }
+
+    @Test
+    void convertsUploadedZips() throws Exception {
+        open(Map.of());
+        JobQueue.Job job = queue.submit(request("team-a", null, null),
+                new ByteArrayInputStream(zip(Map.of("src/", "", "src/Alpha.go", SOURCE))));
+        Path uploaded = directory.resolve("jobs").resolve(job.id()).resolve("input");
+        assertEquals(uploaded.toString(), job.request().input());
+        assertEquals(SOURCE, Files.readString(uploaded.resolve("src/Alpha.go")));
+        assertEquals(JobQueue.State.COMPLETED, awaitFinished(job.id()).state());
+
+        ByteArrayOutputStream results = new ByteArrayOutputStream();
+        queue.writeResults(job.id(), results);
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(results.toByteArray()))) {
+            for (ZipEntry entry; (entry = zip.getNextEntry()) != null;) {
+                names.add(entry.getName());
+            }
+        }
+        // Hidden bookkeeping such as the manifest is left out
+        assertEquals(List.of("src/Alpha.java"), names);
+    }
+
+    @Test
+    void rejectsZipEntriesOutsideTheArchiveRoot() throws Exception {
+        open(Map.of());
+        byte[] upload = zip(Map.of("Alpha.go", SOURCE, "../../escaped.go", SOURCE));
+        assertThrows(IllegalArgumentException.class,
+                () -> queue.submit(request("team-a", null, null), new ByteArrayInputStream(upload)));
+        assertFalse(Files.exists(directory.resolve("escaped.go")));
+        assertTrue(queue.list().isEmpty());
+        try (var entries = Files.list(directory.resolve("jobs"))) {
+            assertEquals(0, entries.count(), "the rejected upload was left behind");
+        }
+    }
+
+    @Test
+    void rejectsPathsOutsideTheAllowedRoots() throws Exception {
+        Path allowed = Files.createDirectories(directory.resolve("allowed"));
+        Path outside = input("outside");
+        Path inside = Files.createDirectories(allowed.resolve("input"));
+        Files.writeString(inside.resolve("Alpha.go"), SOURCE);
+        open(Map.of("server_allowed_roots", List.of(allowed.toString())));
+
+        assertThrows(IllegalArgumentException.class, () -> queue.submit(request("team-a", outside, null), null));
+        assertThrows(IllegalArgumentException.class,
+                () -> queue.submit(request("team-a", inside, directory.resolve("output")), null));
+        assertThrows(IllegalArgumentException.class,
+                () -> queue.submit(request("team-a", allowed.resolve("../outside"), null), null));
+        Path link = Files.createSymbolicLink(allowed.resolve("link"), outside);
+        assertThrows(IllegalArgumentException.class, () -> queue.submit(request("team-a", link, null), null));
+
+        JobQueue.Job job = queue.submit(request("team-a", inside, allowed.resolve("output")), null);
+        assertEquals(JobQueue.State.COMPLETED, awaitFinished(job.id()).state());
+    }
+
+    @Test
+    void rejectsInvalidRequests() throws Exception {
+        open(Map.of());
+        Path input = input("input");
+        assertThrows(IllegalArgumentException.class,
+                () -> queue.submit(request("team-a", directory.resolve("missing"), null), null));
+        assertThrows(IllegalArgumentException.class, () -> queue.submit(new JobQueue.Request("team-a",
+                input.toString(), null, "Cobol", null, null, false, false, false, false), null));
+
+        backend.hold();
+        Path output = directory.resolve("output");
+        queue.submit(request("team-a", input, output), null);
+        assertThrows(IllegalArgumentException.class, () -> queue.submit(request("team-b", input, output), null));
+    }
+
+    private static byte[] zip(Map<String, String> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (Map.Entry<String, String> entry : new TreeMap<>(entries).entrySet()) {
+                zip.putNextEntry(new ZipEntry(entry.getKey()));
+                zip.write(entry.getValue().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+}
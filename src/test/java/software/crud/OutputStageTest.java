@@ -0,0 +1,87 @@
+package software.crud;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutputStageTest {
+    @TempDir
+    Path output;
+
+    private Path staging() {
+        return output.resolve(OutputStage.DIRECTORY);
+    }
+
+    @Test
+    void keepsContentWithinTheBudgetInMemory() throws IOException {
+        OutputStage stage = new OutputStage(output, 1024);
+        Path target = output.resolve("models/User.java");
+        stage.stage(target, "class User {}");
+        stage.update(target, "class Account {}");
+        assertFalse(Files.exists(staging()));
+        assertFalse(Files.exists(target));
+        assertEquals("class Account {}", stage.read(target));
+        assertTrue(stage.exists(target));
+    }
+
+    @Test
+    void spillsContentOverTheBudgetToDisk() throws IOException {
+        OutputStage stage = new OutputStage(output, 40);
+        Path small = output.resolve("Small.java");
+        Path large = output.resolve("models/Large.java");
+        stage.stage(small, "class Small {}");
+        stage.stage(large, "class Large { int a; int b; }");
+        assertFalse(Files.exists(staging().resolve("Small.java")));
+        assertEquals("class Large { int a; int b; }",
+                Files.readString(staging().resolve("models/Large.java")));
+        stage.update(large, "class Large { int c; int d; }");
+        assertEquals("class Large { int c; int d; }", stage.read(large));
+    }
+
+    @Test
+    void commitsEveryTargetAndClearsTheStage() throws IOException {
+        OutputStage stage = new OutputStage(output, 40);
+        Path unchanged = output.resolve("Same.java");
+        Files.writeString(unchanged, "class Same {}");
+        stage.stage(unchanged, "class Same {}");
+        stage.stage(output.resolve("models/Large.java"), "class Large { int a; int b; }");
+        stage.stage(output.resolve("New.java"), "class New {}");
+
+        assertEquals(new OutputStage.CommitResult(2, 1), stage.commit());
+        assertEquals("class Large { int a; int b; }", Files.readString(output.resolve("models/Large.java")));
+        assertEquals("class New {}", Files.readString(output.resolve("New.java")));
+        assertFalse(Files.exists(staging()));
+        assertTrue(stage.stagedTargets().isEmpty());
+    }
+
+    @Test
+    void takesOverCopiesSpilledByAnInterruptedRun() throws IOException {
+        Path target = output.resolve("models/Large.java");
+        new OutputStage(output, 0).stage(target, "class Large {}");
+
+        OutputStage stage = new OutputStage(output, 1024);
+        assertFalse(stage.isStaged(target));
+        assertEquals("class Large {}", stage.read(target));
+        assertTrue(stage.isStaged(target));
+        stage.commit();
+        assertEquals("class Large {}", Files.readString(target));
+    }
+
+    @Test
+    void discardsLeftoversAndRejectsUpdatesOfUnstagedFiles() throws IOException {
+        new OutputStage(output, 0).stage(output.resolve("Old.java"), "class Old {}");
+        OutputStage stage = new OutputStage(output, 1024);
+        stage.discardLeftovers();
+        assertFalse(Files.exists(staging()));
+        assertFalse(stage.exists(output.resolve("Old.java")));
+        assertThrows(IOException.class, () -> stage.update(output.resolve("Old.java"), "class Old {}"));
+    }
+}
@@ -0,0 +1,86 @@
+package software.crud;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProgressJournalTest {
+    @TempDir
+    Path output;
+
+    @Test
+    void recoversTheEntriesOfAnInterruptedRun() throws IOException {
+        try (ProgressJournal journal = open("settings-a", true)) {
+            journal.append("a/One.cs", entry("1"));
+            journal.append("Two.cs", entry("2"));
+        }
+        try (ProgressJournal journal = open("settings-a", true)) {
+            assertEquals(Map.of("a/One.cs", entry("1"), "Two.cs", entry("2")), journal.recovered());
+        }
+    }
+
+    @Test
+    void discardsJournalsOfOtherSettingsOrWhenNotResuming() throws IOException {
+        try (ProgressJournal journal = open("settings-a", true)) {
+            journal.append("One.cs", entry("1"));
+        }
+        try (ProgressJournal journal = open("settings-b", true)) {
+            assertTrue(journal.recovered().isEmpty());
+        }
+        try (ProgressJournal journal = open("settings-b", true)) {
+            journal.append("One.cs", entry("1"));
+        }
+        try (ProgressJournal journal = open("settings-b", false)) {
+            assertTrue(journal.recovered().isEmpty());
+        }
+    }
+
+    @Test
+    void dropsATornLastLineAndCompactsSupersededOnes() throws IOException {
+        try (ProgressJournal journal = open("settings-a", true)) {
+            journal.append("One.cs", entry("old"));
+            journal.append("One.cs", entry("new"));
+            journal.append("Two.cs", entry("2"));
+        }
+        Path file = output.resolve(ProgressJournal.FILE_NAME);
+        Files.writeString(file, "{\"input\":\"Three.cs\",\"entry\":{\"sourceH", StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND);
+
+        try (ProgressJournal journal = open("settings-a", true)) {
+            assertEquals(Map.of("One.cs", entry("new"), "Two.cs", entry("2")), journal.recovered());
+            journal.append("Three.cs", entry("3"));
+        }
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        assertEquals(4, lines.size(), String.join("\n", lines));
+        try (ProgressJournal journal = open("settings-a", true)) {
+            assertEquals(entry("3"), journal.recovered().get("Three.cs"));
+        }
+    }
+
+    @Test
+    void deleteRemovesTheFile() throws IOException {
+        ProgressJournal journal = open("settings-a", true);
+        journal.append("One.cs", entry("1"));
+        journal.delete();
+        assertFalse(Files.exists(output.resolve(ProgressJournal.FILE_NAME)));
+    }
+
+    private ProgressJournal open(String fingerprint, boolean resume) throws IOException {
+        return ProgressJournal.open(output, fingerprint, resume, 100, 60_000);
+    }
+
+    private static ConversionManifest.Entry entry(String sourceHash) {
+        return new ConversionManifest.Entry(sourceHash, List.of("One.java"), null, List.of(), null);
+    }
+}
@@ -0,0 +1,96 @@
+package software.crud;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ProviderJsonTest {
+    @Test
+    void readsFirstChoiceAndUsageOfChatCompletion() throws IOException {
+        ProviderJson.Completion completion = ProviderJson.readChatCompletion(stream("{\"id\":\"x\",\"choices\":["
+                + "{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"class A {}\"},"
+                + "\"finish_reason\":\"stop\"},"
+                + "{\"index\":1,\"message\":{\"content\":\"ignored\"}}],"
+                + "\"usage\":{\"prompt_tokens\":120,\"completion_tokens\":7,"
+                + "\"prompt_tokens_details\":{\"cached_tokens\":100}}}"));
+        assertEquals("class A {}", completion.text());
+        assertEquals("stop", completion.finishReason());
+        assertEquals(new ProviderJson.Usage(120, 100, 0, 7), completion.usage());
+    }
+
+    @Test
+    void takesUsageFromLlamaCppTimings() throws IOException {
+        ProviderJson.Completion completion = ProviderJson.readChatCompletion(stream(
+                "{\"choices\":[{\"message\":{\"content\":\"x\"}}],\"timings\":{\"prompt_n\":20,\"cache_n\":80}}"));
+        assertEquals(new ProviderJson.Usage(100, 80, 0, 0), completion.usage());
+    }
+
+    @Test
+    void concatenatesClaudeTextBlocks() throws IOException {
+        ProviderJson.Completion completion = ProviderJson.readClaudeMessage(stream("{\"content\":["
+                + "{\"type\":\"text\",\"text\":\"class \"},{\"type\":\"text\",\"text\":\"A {}\"}],"
+                + "\"stop_reason\":\"max_tokens\",\"usage\":{\"input_tokens\":10,"
+                + "\"cache_read_input_tokens\":50,\"cache_creation_input_tokens\":5,\"output_tokens\":3}}"));
+        assertEquals("class A {}", completion.text());
+        assertEquals("max_tokens", completion.finishReason());
+        assertEquals(new ProviderJson.Usage(65, 50, 5, 3), completion.usage());
+    }
+
+    @Test
+    void parsesChatStreamChunks() throws IOException {
+        ProviderJson.StreamEvent delta = ProviderJson.readChatCompletionChunk(
+                "{\"choices\":[{\"delta\":{\"content\":\"cla\"},\"finish_reason\":null}]}");
+        assertEquals("cla", delta.text());
+        assertNull(delta.finishReason());
+        assertNull(delta.usage());
+
+        ProviderJson.StreamEvent last = ProviderJson.readChatCompletionChunk(
+                "{\"choices\":[],\"usage\":{\"prompt_tokens\":9,\"completion_tokens\":4}}");
+        assertNull(last.text());
+        assertEquals(new ProviderJson.Usage(9, 0, 0, 4), last.usage());
+
+        ProviderJson.StreamEvent error = ProviderJson.readChatCompletionChunk(
+                "{\"error\":{\"message\":\"overloaded\",\"code\":503}}");
+        assertEquals("overloaded", error.errorMessage());
+    }
+
+    @Test
+    void parsesClaudeStreamEvents() throws IOException {
+        ProviderJson.StreamEvent start = ProviderJson.readClaudeEvent("{\"type\":\"message_start\",\"message\":"
+                + "{\"id\":\"m\",\"usage\":{\"input_tokens\":12,\"cache_read_input_tokens\":30}}}", "message");
+        assertEquals("message_start", start.type());
+        assertEquals(new ProviderJson.Usage(42, 30, 0, 0), start.usage());
+
+        ProviderJson.StreamEvent text = ProviderJson.readClaudeEvent(
+                "{\"type\":\"content_block_delta\",\"index\":0,\"delta\":{\"type\":\"text_delta\",\"text\":\"A\"}}",
+                "message");
+        assertEquals("A", text.text());
+
+        ProviderJson.StreamEvent stop = ProviderJson.readClaudeEvent("{\"type\":\"message_delta\","
+                + "\"delta\":{\"stop_reason\":\"end_turn\"},\"usage\":{\"output_tokens\":15}}", "message");
+        assertEquals("end_turn", stop.finishReason());
+        assertEquals(15, stop.usage().outputTokens());
+
+        ProviderJson.StreamEvent error = ProviderJson.readClaudeEvent(
+                "{\"error\":{\"type\":\"overloaded_error\",\"message\":\"Overloaded\"}}", "error");
+        assertEquals("error", error.type());
+        assertEquals("Overloaded", error.errorMessage());
+    }
+
+    @Test
+    void rejectsNonObjects() {
+        assertThrows(IOException.class, () -> ProviderJson.readChatCompletionChunk("[1]"));
+        assertThrows(IOException.class, () -> ProviderJson.readClaudeMessage(stream("\"text\"")));
+    }
+
+    private static InputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
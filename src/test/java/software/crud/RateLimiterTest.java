@@ -0,0 +1,43 @@
+package software.crud;
+
+import okhttp3.Headers;
+import org.junit.jupiter.api.Test;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RateLimiterTest {
+    @Test
+    void parsesOpenAiDurations() {
+        assertEquals(360_000, RateLimiter.parseReset("6m0s"));
+        assertEquals(20, RateLimiter.parseReset("20ms"));
+        assertEquals(1_500, RateLimiter.parseReset("1.5s"));
+        assertEquals(3_723_000, RateLimiter.parseReset("1h2m3s"));
+    }
+
+    @Test
+    void parsesAnthropicTimestampsRelativeToNow() {
+        String inThirtySeconds = OffsetDateTime.now(ZoneOffset.UTC).plusSeconds(30).toString();
+        long millis = RateLimiter.parseReset(inThirtySeconds);
+        assertTrue(millis > 25_000 && millis <= 30_000, "was " + millis);
+        assertEquals(0, RateLimiter.parseReset(OffsetDateTime.now(ZoneOffset.UTC).minusMinutes(1).toString()));
+    }
+
+    @Test
+    void rejectsMissingAndMalformedResets() {
+        assertEquals(-1, RateLimiter.parseReset(null));
+        assertEquals(-1, RateLimiter.parseReset(" "));
+        assertEquals(-1, RateLimiter.parseReset("soon"));
+        assertEquals(-1, RateLimiter.parseReset("2024-13-45T99:00:00Z"));
+    }
+
+    @Test
+    void prefersRetryAfterMilliseconds() {
+        assertEquals(250, RateLimiter.parseRetryAfter(Headers.of("retry-after-ms", "250", "Retry-After", "9")));
+        assertEquals(2_000, RateLimiter.parseRetryAfter(Headers.of("Retry-After", "2")));
+        assertEquals(-1, RateLimiter.parseRetryAfter(Headers.of()));
+    }
+}
@@ -0,0 +1,111 @@
+package software.crud;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseCacheTest {
+    @TempDir
+    Path directory;
+
+    private ResponseCache cache(long maxBytes) {
+        return new ResponseCache(directory, maxBytes, true);
+    }
+
+    private Path entry(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key + ".gz");
+    }
+
+    @Test
+    void derivesStableKeysFromEverythingThatShapesTheResponse() {
+        ResponseCache cache = cache(1024 * 1024);
+        List<API.Message> history = List.of(new API.Message("system", "You convert code."));
+        String key = cache.key("openai", "gpt-4o", 4096, history, "Convert this");
+
+        assertEquals(key, cache(1024 * 1024).key("openai", "gpt-4o", 4096,
+                List.of(new API.Message("system", "You convert code.")), "Convert this"));
+        assertTrue(key.matches("[0-9a-f]{64}"), key);
+        assertNotEquals(key, cache.key("claude", "gpt-4o", 4096, history, "Convert this"));
+        assertNotEquals(key, cache.key("openai", "gpt-4o-mini", 4096, history, "Convert this"));
+        assertNotEquals(key, cache.key("openai", "gpt-4o", 2048, history, "Convert this"));
+        assertNotEquals(key, cache.key("openai", "gpt-4o", 4096, List.of(), "Convert this"));
+        assertNotEquals(key, cache.key("openai", "gpt-4o", 4096, history, "Convert that"));
+        // Fields are length-prefixed, so moving text across a boundary changes the key
+        assertNotEquals(cache.key("ab", "c", 1, List.of(), ""), cache.key("a", "bc", 1, List.of(), ""));
+    }
+
+    @Test
+    void readsBackWhatWasWrittenAcrossInstances() {
+        ResponseCache cache = cache(1024 * 1024);
+        String key = cache.key("openai", "gpt-4o", 4096, List.of(), "Convert this");
+        assertNull(cache.get(key));
+        cache.put(key, "<response><code>class A {}</code></response>");
+        assertEquals("<response><code>class A {}</code></response>", cache.get(key));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        assertEquals("<response><code>class A {}</code></response>", cache(1024 * 1024).get(key));
+    }
+
+    @Test
+    void dropsCorruptAndTruncatedEntries() throws IOException {
+        ResponseCache writer = cache(1024 * 1024);
+        String corrupt = writer.key("openai", "gpt-4o", 1, List.of(), "corrupt");
+        String truncated = writer.key("openai", "gpt-4o", 1, List.of(), "truncated");
+        writer.put(corrupt, "first response");
+        writer.put(truncated, "second response ".repeat(100));
+        Files.writeString(entry(corrupt), "not gzip");
+        byte[] bytes = Files.readAllBytes(entry(truncated));
+        Files.write(entry(truncated), Arrays.copyOf(bytes, bytes.length / 2));
+
+        ResponseCache cache = cache(1024 * 1024);
+        assertNull(cache.get(corrupt));
+        assertNull(cache.get(truncated));
+        assertFalse(Files.exists(entry(corrupt)));
+        assertFalse(Files.exists(entry(truncated)));
+        assertEquals(2, cache.getMisses());
+        // A dropped entry can be written again
+        cache.put(corrupt, "first response");
+        assertEquals("first response", cache.get(corrupt));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedEntriesOverTheLimit() throws IOException {
+        ResponseCache cache = cache(1024 * 1024);
+        String first = cache.key("openai", "gpt-4o", 1, List.of(), "first");
+        cache.put(first, "first");
+        long entrySize = Files.size(entry(first));
+
+        cache = cache(entrySize * 2);
+        String second = cache.key("openai", "gpt-4o", 1, List.of(), "second");
+        String third = cache.key("openai", "gpt-4o", 1, List.of(), "third");
+        cache.put(second, "secnd");
+        assertEquals("first", cache.get(first));
+        cache.put(third, "third");
+
+        assertEquals("first", cache.get(first));
+        assertNull(cache.get(second));
+        assertFalse(Files.exists(entry(second)));
+        assertEquals("third", cache.get(third));
+    }
+
+    @Test
+    void doesNothingWhenDisabled() {
+        ResponseCache cache = new ResponseCache(directory, 1024 * 1024, false);
+        String key = cache.key("openai", "gpt-4o", 1, List.of(), "prompt");
+        cache.put(key, "response");
+        assertNull(cache.get(key));
+        assertFalse(Files.exists(entry(key)));
+    }
+}
@@ -0,0 +1,95 @@
+package software.crud;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SourceChunkerTest {
+    private static final String SERVICE = "using System;\n"
+            + "\n"
+            + "namespace App\n"
+            + "{\n"
+            + "    public class Service\n"
+            + "    {\n"
+            + "        private int count;\n"
+            + "\n"
+            + "        public int First(int a)\n"
+            + "        {\n"
+            + "            if (a > 0) { return a; } else { return -a; }\n"
+            + "        }\n"
+            + "\n"
+            + "        public string Second()\n"
+            + "        {\n"
+            + "            return \"} not a brace {\";\n"
+            + "        }\n"
+            + "\n"
+            + "        public void Third()\n"
+            + "        {\n"
+            + "            count++;\n"
+            + "            Console.WriteLine(count);\n"
+            + "        }\n"
+            + "\n"
+            + "        public void Fourth()\n"
+            + "        {\n"
+            + "            count--;\n"
+            + "            Console.WriteLine(count);\n"
+            + "        }\n"
+            + "    }\n"
+            + "}\n";
+
+    @Test
+    void leavesSmallOrUnsupportedFilesWhole() {
+        assertNull(SourceChunker.split(SERVICE, ".cs", SERVICE.length()));
+        assertNull(SourceChunker.split(SERVICE, ".txt", 100));
+    }
+
+    @Test
+    void splitsAtMemberBoundariesRepeatingTheSurroundings() {
+        List<String> parts = SourceChunker.split(SERVICE, ".cs", 300);
+        assertNotNull(parts);
+        assertTrue(parts.size() > 1, "parts: " + parts.size());
+        for (String part : parts) {
+            assertTrue(part.startsWith("using System;"), part);
+            assertTrue(part.contains("public class Service"), part);
+            assertTrue(part.contains("private int count;"), part);
+            assertTrue(part.stripTrailing().endsWith("}\n}"), part);
+        }
+        for (String member : List.of("First(int a)", "Second()", "Third()", "Fourth()")) {
+            assertEquals(1, parts.stream().filter(part -> part.contains(member)).count(), member);
+        }
+    }
+
+    @Test
+    void stitchesPartsIntoOneClass() {
+        String stitched = SourceChunker.stitch(List.of(
+                "package app;\nimport java.util.List;\npublic class Service {\n"
+                        + "    private int count;\n"
+                        + "    public int first(int a) { return Math.abs(a); }\n"
+                        + "    public void third() { }\n"
+                        + "}\n",
+                "package app;\nimport java.util.Map;\npublic class Service {\n"
+                        + "    private int count;\n"
+                        + "    public void third() { count++; System.out.println(count); }\n"
+                        + "    public String second() { return \"x\"; }\n"
+                        + "}\n"));
+        assertTrue(stitched.contains("import java.util.List;"), stitched);
+        assertTrue(stitched.contains("import java.util.Map;"), stitched);
+        assertEquals(1, stitched.split("private int count;", -1).length - 1, stitched);
+        assertEquals(1, stitched.split("public void third\\(\\)", -1).length - 1, stitched);
+        assertTrue(stitched.contains("count++;"), "the fuller third() replaces the stub: " + stitched);
+        assertTrue(stitched.contains("public String second()"), stitched);
+    }
+
+    @Test
+    void splicesPartsAsTextWhenOneDoesNotParse() {
+        String stitched = SourceChunker.stitch(List.of(
+                "public class Service {\n    void a() { }\n}\n",
+                "public class Service {\n    void b() { this is not java }\n}\n"));
+        assertEquals("public class Service {\n    void a() { }\n\nvoid b() { this is not java }\n}", stitched);
+    }
+}
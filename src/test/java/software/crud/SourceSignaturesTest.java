@@ -0,0 +1,66 @@
+package software.crud;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class SourceSignaturesTest {
+    @Test
+    void reducesCSharpToItsPublicDeclarations() {
+        String source = "using System;\n\nnamespace Shop.Models\n{\n    // A customer\n    [Serializable]\n"
+                + "    public class User : Entity\n    {\n        private int secret = 1;\n"
+                + "        public string Name { get; set; }\n"
+                + "        public User(string name) { Name = \"{\" + name; }\n"
+                + "        public int Add(int a, int b)\n        {\n            if (a > b) { return a; }\n"
+                + "            return a + b;\n        }\n    }\n}\n";
+        assertEquals("namespace Shop.Models {\n"
+                + "    public class User : Entity {\n"
+                + "        public string Name { ... }\n"
+                + "        public User(string name);\n"
+                + "        public int Add(int a, int b);\n"
+                + "    }\n"
+                + "}", SourceSignatures.extract(source, ".cs"));
+    }
+
+    @Test
+    void keepsGoTypesAndFunctionSignatures() {
+        String source = "package main\n\nimport \"fmt\"\n\n// Alpha is a thing\n"
+                + "type Alpha struct {\n\tName string\n}\n\n"
+                + "func (a Alpha) Hello(x int) string {\n\treturn fmt.Sprint(\"}\", x)\n}\n\nfunc helper() {}\n";
+        assertEquals("package main\n"
+                + "type Alpha struct {\n"
+                + "\tName string\n"
+                + "}\n"
+                + "func (a Alpha) Hello(x int) string\n"
+                + "func helper()", SourceSignatures.extract(source, ".go"));
+    }
+
+    @Test
+    void dropsScriptStatementsAndBodies() {
+        String source = "import x from 'y';\nexport class Cart {\n  constructor() { this.items = []; }\n"
+                + "  add(item) { this.items.push('}'); }\n}\nexport function total(cart) { return 1; }\n"
+                + "console.log('hi');\n";
+        assertEquals("export class Cart {\n"
+                + "    constructor();\n"
+                + "    add(item);\n"
+                + "}\n"
+                + "export function total(cart);", SourceSignatures.extract(source, ".js"));
+    }
+
+    @Test
+    void leavesOutPrivatePhpMembers() {
+        String source = "<?php\nnamespace App;\nuse Foo\\Bar;\nclass Order extends Model {\n    private $x = 1;\n"
+                + "    public $total = 0;\n    public function pay(int $amount): bool { return true; }\n}\n";
+        assertEquals("namespace App;\n"
+                + "class Order extends Model {\n"
+                + "    public $total;\n"
+                + "    public function pay(int $amount): bool;\n"
+                + "}", SourceSignatures.extract(source, ".php"));
+    }
+
+    @Test
+    void returnsNullForUnsupportedLanguages() {
+        assertNull(SourceSignatures.extract("puts 1", ".rb"));
+    }
+}
@@ -0,0 +1,71 @@
+package software.crud;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenEstimatorTest {
+    private final TokenEstimator openAi = TokenEstimator.forModel("openai", "gpt-4", 0, 0);
+    private final TokenEstimator llama = TokenEstimator.forModel("custom", "codellama", 0, 0);
+
+    @Test
+    void countsShortWordsAsOneTokenAndSplitsLongOnes() {
+        assertEquals(0, openAi.estimate((CharSequence) null));
+        assertEquals(0, openAi.estimate(""));
+        assertEquals(1, openAi.estimate("return"));
+        assertEquals(6, openAi.estimate("averyveryverylongidentifier"));
+    }
+
+    @Test
+    void countsIndentationByFamily() {
+        // The last space joins the word; OpenAI fits eight spaces in a token, Llama four
+        assertEquals(2, openAi.estimate("        x"));
+        assertEquals(3, llama.estimate("        x"));
+        assertEquals(3, openAi.estimate("a\nb"));
+    }
+
+    @Test
+    void mergesOperatorPairsAndCountsWideCharactersSingly() {
+        assertEquals(1, openAi.estimate("()"));
+        assertEquals(2, openAi.estimate("();"));
+        assertEquals(3, openAi.estimate("\u5909\u63db\u5668"));
+    }
+
+    @Test
+    void addsOverheadPerMessage() {
+        List<API.Message> messages = List.of(new API.Message("system", "return"), new API.Message("user", "x"));
+        assertEquals(2 + 2 * 4, openAi.estimate(messages));
+    }
+
+    @Test
+    void looksUpModelLimitsUnlessOverridden() {
+        TokenEstimator gpt4o = TokenEstimator.forModel("openai", "gpt-4o-mini", 0, 0);
+        assertEquals(128_000, gpt4o.getContextWindow());
+        assertEquals(16_384, gpt4o.getMaxOutputTokens());
+        TokenEstimator opus = TokenEstimator.forModel("claude", "claude-3-opus-20240229", 0, 0);
+        assertEquals(200_000, opus.getContextWindow());
+        assertEquals(4_096, opus.getMaxOutputTokens());
+        TokenEstimator overridden = TokenEstimator.forModel("custom", "anything", 32_000, 2_000);
+        assertEquals(32_000, overridden.getContextWindow());
+        assertEquals(2_000, overridden.getMaxOutputTokens());
+    }
+
+    @Test
+    void predictsLargerOutputForVerboseSources() {
+        assertTrue(openAi.predictConversionTokens(1_000, "JavaScript") > openAi.predictConversionTokens(1_000, "C#"));
+        assertTrue(openAi.predictConversionTokens(0, "Go") > 0);
+    }
+
+    @Test
+    void capsMaxTokensByRemainingContext() {
+        // 8192-token window: a 7000-token prompt with its 10% margin, rounded up, leaves 491
+        assertEquals(491, openAi.chooseMaxTokens("openai", 7_000, 1_000));
+        assertEquals(300, openAi.chooseMaxTokens("openai", 1_000, 300));
+        assertEquals(4_096, openAi.chooseMaxTokens("openai", 10, 50_000));
+        assertThrows(AIServiceException.class, () -> openAi.chooseMaxTokens("openai", 7_400, 1_000));
+    }
+}